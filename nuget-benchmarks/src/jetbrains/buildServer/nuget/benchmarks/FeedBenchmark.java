@@ -0,0 +1,136 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import org.odata4j.core.OFunctionParameter;
+import org.odata4j.core.OFunctionParameters;
+import org.odata4j.edm.EdmFunctionImport;
+import org.odata4j.producer.EntitiesResponse;
+import org.odata4j.producer.ODataProducer;
+import org.odata4j.producer.QueryInfo;
+import org.odata4j.producer.resources.OptionsQueryParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static jetbrains.buildServer.nuget.server.feed.server.javaFeed.MetadataConstants.*;
+
+/**
+ * Measures feed requests end to end: query, conversion to OData entities and Atom rendering
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FeedBenchmark {
+  private static final int PAGE_SIZE = 30;
+  private static final int UPDATES_COUNT = 20;
+
+  private String myPackageId;
+  private String myUpdateIds;
+  private String myUpdateVersions;
+  private EntitiesResponse myPackagesPage;
+
+  @Setup(Level.Trial)
+  public void setUp(@NotNull final FeedRepository repository) {
+    final int idsCount = repository.getPackageIdsCount();
+    myPackageId = FeedRepository.getPackageId(idsCount / 2);
+
+    final StringBuilder ids = new StringBuilder();
+    final StringBuilder versions = new StringBuilder();
+    for (int i = 0; i < UPDATES_COUNT; i++) {
+      if (i > 0) {
+        ids.append('|');
+        versions.append('|');
+      }
+      ids.append(FeedRepository.getPackageId((int) ((long) i * idsCount / UPDATES_COUNT)));
+      versions.append("1.0.0");
+    }
+    myUpdateIds = ids.toString();
+    myUpdateVersions = versions.toString();
+
+    myPackagesPage = packages(repository);
+  }
+
+  @Benchmark
+  public String packagesPage(@NotNull final FeedRepository repository) {
+    return FeedRepository.render(packages(repository), ENTITY_SET_NAME);
+  }
+
+  @Benchmark
+  public String latestPackagesPage(@NotNull final FeedRepository repository) {
+    final QueryInfo query = QueryInfo.newBuilder()
+            .setFilter(OptionsQueryParser.parseFilter("IsLatestVersion"))
+            .setOrderBy(OptionsQueryParser.parseOrderBy("DownloadCount desc,Id"))
+            .setTop(PAGE_SIZE)
+            .build();
+    final EntitiesResponse response = repository.producer.getEntities(null, ENTITY_SET_NAME, query);
+    return FeedRepository.render(response, ENTITY_SET_NAME);
+  }
+
+  @Benchmark
+  public String findPackagesById(@NotNull final FeedRepository repository) {
+    final Map<String, OFunctionParameter> params = new HashMap<String, OFunctionParameter>();
+    params.put(ID, OFunctionParameters.create(ID, myPackageId));
+    return callFunction(repository, FIND_PACKAGES_BY_ID_FUNCTION_NAME, params, null);
+  }
+
+  @Benchmark
+  public String search(@NotNull final FeedRepository repository) {
+    final Map<String, OFunctionParameter> params = new HashMap<String, OFunctionParameter>();
+    params.put(SEARCH_TERM, OFunctionParameters.create(SEARCH_TERM, "tag7"));
+    params.put(TARGET_FRAMEWORK, OFunctionParameters.create(TARGET_FRAMEWORK, ""));
+    params.put(INCLUDE_PRERELEASE, OFunctionParameters.create(INCLUDE_PRERELEASE, true));
+    return callFunction(repository, SEARCH_FUNCTION_NAME, params, PAGE_SIZE);
+  }
+
+  @Benchmark
+  public String getUpdates(@NotNull final FeedRepository repository) {
+    final Map<String, OFunctionParameter> params = new HashMap<String, OFunctionParameter>();
+    params.put(PACKAGE_IDS, OFunctionParameters.create(PACKAGE_IDS, myUpdateIds));
+    params.put(VERSIONS, OFunctionParameters.create(VERSIONS, myUpdateVersions));
+    params.put(INCLUDE_PRERELEASE, OFunctionParameters.create(INCLUDE_PRERELEASE, false));
+    params.put(INCLUDE_ALL_VERSIONS, OFunctionParameters.create(INCLUDE_ALL_VERSIONS, false));
+    params.put(TARGET_FRAMEWORKS, OFunctionParameters.create(TARGET_FRAMEWORKS, ""));
+    params.put(VERSION_CONSTRAINTS, OFunctionParameters.create(VERSION_CONSTRAINTS, ""));
+    return callFunction(repository, GET_UPDATES_FUNCTION_NAME, params, null);
+  }
+
+  @Benchmark
+  public String renderPackagesPage() {
+    return FeedRepository.render(myPackagesPage, ENTITY_SET_NAME);
+  }
+
+  @NotNull
+  private static EntitiesResponse packages(@NotNull final FeedRepository repository) {
+    return repository.producer.getEntities(null, ENTITY_SET_NAME, QueryInfo.newBuilder().setTop(PAGE_SIZE).build());
+  }
+
+  @NotNull
+  private static String callFunction(@NotNull final FeedRepository repository,
+                                     @NotNull final String name,
+                                     @NotNull final Map<String, OFunctionParameter> params,
+                                     final Integer top) {
+    final ODataProducer producer = repository.producer;
+    final EdmFunctionImport function = producer.getMetadata().findEdmFunctionImport(name);
+    final QueryInfo query = QueryInfo.newBuilder().setTop(top).build();
+    final EntitiesResponse response = (EntitiesResponse) producer.callFunction(null, function, params, query, false);
+    return FeedRepository.render(response, name);
+  }
+}
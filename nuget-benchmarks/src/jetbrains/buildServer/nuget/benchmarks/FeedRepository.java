@@ -0,0 +1,279 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.benchmarks;
+
+import com.sun.jersey.api.uri.UriBuilderImpl;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetPackageBuilder;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageTransformation;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexCache;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexImpl;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.DownloadUrlComputationTransformation;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.IsPrereleaseTransformation;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.SamePackagesFilterTransformation;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.ManualXMLWriter3;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.NuGetProducerHolder;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseCache;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions.NuGetFeedFunctions;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.odata4j.format.FormatWriterFactory;
+import org.odata4j.producer.EntitiesResponse;
+import org.odata4j.producer.ODataProducer;
+import org.odata4j.stax2.XMLFactoryProvider2;
+import org.odata4j.stax2.XMLWriter2;
+import org.odata4j.stax2.XMLWriterFactory2;
+import org.odata4j.stax2.domimpl.DomXMLFactoryProvider2;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.UriInfo;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.*;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+/**
+ * Synthetic repository of NuGet packages served from an in-memory metadata storage
+ */
+@State(Scope.Benchmark)
+public class FeedRepository {
+  public static final int VERSIONS_PER_PACKAGE = 10;
+  public static final int BUILD_TYPES = 100;
+  private static final String FEED_PATH = "/app/nuget/v1/FeedService.svc";
+  private static final String BASE_URI = "http://localhost:8111" + FEED_PATH + "/";
+
+  @Param({"1000", "100000", "1000000"})
+  public int packagesCount;
+
+  public List<BuildMetadataEntry> entries;
+  public PackagesIndexCache cache;
+  public PackagesIndex index;
+  public ODataProducer producer;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    entries = generateEntries(packagesCount);
+
+    final MetadataStorage storage = createStorage(entries);
+    final NuGetServerSettings settings = createSettings();
+    cache = new PackagesIndexCache(storage, EventDispatcher.create(BuildServerListener.class), new ResponseCache(EventDispatcher.create(BuildServerListener.class)));
+    index = new PackagesIndexImpl(storage, cache, Arrays.asList(
+            new SamePackagesFilterTransformation(),
+            new IsPrereleaseTransformation(),
+            new ExternalIdTransformation(),
+            new DownloadUrlComputationTransformation(settings)
+    ));
+    producer = new NuGetProducerHolder(index, settings, new NuGetFeedFunctions(index, settings)).getProducer();
+
+    //same writer as ODataPackagesFeedController uses
+    XMLFactoryProvider2.setInstance(new DomXMLFactoryProvider2() {
+      @Override
+      public XMLWriterFactory2 newXMLWriterFactory2() {
+        return new XMLWriterFactory2() {
+          public XMLWriter2 createXMLWriter(Writer writer) {
+            return new ManualXMLWriter3(writer);
+          }
+        };
+      }
+    });
+
+    //load the index before measurements
+    cache.getAllEntries();
+  }
+
+  @NotNull
+  public static String getPackageId(final int packageNumber) {
+    return "Package" + packageNumber;
+  }
+
+  public int getPackageIdsCount() {
+    return Math.max(1, packagesCount / VERSIONS_PER_PACKAGE);
+  }
+
+  /**
+   * Renders Atom feed the way odata4j resources do
+   * @param response response to render
+   * @param path request path relative to the feed root
+   * @return rendered feed
+   */
+  @NotNull
+  public static String render(@NotNull final EntitiesResponse response, @NotNull final String path) {
+    final StringWriter writer = new StringWriter();
+    FormatWriterFactory.getFormatWriter(EntitiesResponse.class, null, null, null).write(createUriInfo(path), writer, response);
+    return writer.toString();
+  }
+
+  @NotNull
+  private static List<BuildMetadataEntry> generateEntries(final int count) {
+    final List<BuildMetadataEntry> result = new ArrayList<BuildMetadataEntry>(count);
+    for (int i = 0; i < count; i++) {
+      final int packageNumber = i / VERSIONS_PER_PACKAGE;
+      final int versionNumber = i % VERSIONS_PER_PACKAGE;
+      final long buildId = i + 1;
+
+      final Map<String, String> metadata = new HashMap<String, String>();
+      metadata.put(ID, getPackageId(packageNumber));
+      metadata.put(VERSION, "1." + versionNumber + ".0" + (versionNumber % 3 == 2 ? "-beta" : ""));
+      metadata.put(TITLE, "Package number " + packageNumber);
+      metadata.put(DESCRIPTION, "Synthetic package number " + packageNumber + " generated for feed benchmarks");
+      metadata.put(AUTHORS, "Author" + (packageNumber % 1000));
+      metadata.put(TAGS, "benchmark tag" + (packageNumber % 50));
+      metadata.put(PACKAGE_SIZE, String.valueOf(10000 + i));
+      metadata.put(PackagesIndex.TEAMCITY_BUILD_TYPE_ID, "bt" + (packageNumber % BUILD_TYPES));
+      metadata.put(PackagesIndex.TEAMCITY_ARTIFACT_RELPATH, getPackageId(packageNumber) + ".nupkg");
+      metadata.put(PackagesIndex.TEAMCITY_FRAMEWORK_CONSTRAINTS, packageNumber % 2 == 0 ? "net45" : "");
+      result.add(new SyntheticEntry(buildId, getPackageId(packageNumber), metadata));
+    }
+
+    //metadata storage returns newer builds first
+    Collections.reverse(result);
+    return result;
+  }
+
+  @NotNull
+  private static MetadataStorage createStorage(@NotNull final List<BuildMetadataEntry> entries) {
+    return (MetadataStorage) Proxy.newProxyInstance(FeedRepository.class.getClassLoader(), new Class[]{MetadataStorage.class}, new InvocationHandler() {
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final String name = method.getName();
+        if (name.equals("getAllEntries")) return entries.iterator();
+        if (name.equals("getBuildEntry")) {
+          final List<BuildMetadataEntry> result = new ArrayList<BuildMetadataEntry>();
+          for (BuildMetadataEntry e : entries) {
+            if (e.getBuildId() == (Long) args[0]) result.add(e);
+          }
+          return result.iterator();
+        }
+        if (name.equals("getEntriesByKey")) {
+          final List<BuildMetadataEntry> result = new ArrayList<BuildMetadataEntry>();
+          for (BuildMetadataEntry e : entries) {
+            if (e.getKey().equals(args[1])) result.add(e);
+          }
+          return result.iterator();
+        }
+        if (name.equals("findEntriesWithValue")) {
+          final String value = ((String) args[1]).toLowerCase(Locale.ENGLISH);
+          @SuppressWarnings("unchecked") final Collection<String> keys = (Collection<String>) args[2];
+          final List<BuildMetadataEntry> result = new ArrayList<BuildMetadataEntry>();
+          for (BuildMetadataEntry e : entries) {
+            for (String key : keys) {
+              final String v = e.getMetadata().get(key);
+              if (v != null && v.toLowerCase(Locale.ENGLISH).contains(value)) {
+                result.add(e);
+                break;
+              }
+            }
+          }
+          return result.iterator();
+        }
+        throw new UnsupportedOperationException(name);
+      }
+    });
+  }
+
+  @NotNull
+  private static NuGetServerSettings createSettings() {
+    return new NuGetServerSettings() {
+      public boolean isNuGetServerEnabled() {
+        return true;
+      }
+
+      @NotNull
+      public String getNuGetFeedControllerPath() {
+        return FEED_PATH;
+      }
+
+      @NotNull
+      public String getNuGetHttpAuthFeedControllerPath() {
+        return FEED_PATH;
+      }
+
+      @NotNull
+      public String getNuGetGuestAuthFeedControllerPath() {
+        return FEED_PATH;
+      }
+    };
+  }
+
+  @NotNull
+  private static UriInfo createUriInfo(@NotNull final String path) {
+    return (UriInfo) Proxy.newProxyInstance(FeedRepository.class.getClassLoader(), new Class[]{UriInfo.class}, new InvocationHandler() {
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final String name = method.getName();
+        if (name.equals("getBaseUri")) return URI.create(BASE_URI);
+        if (name.equals("getPath")) return path;
+        if (name.equals("getRequestUri")) return URI.create(BASE_URI + path);
+        if (name.equals("getRequestUriBuilder")) return new UriBuilderImpl().uri(URI.create(BASE_URI + path));
+        if (name.equals("getQueryParameters")) return new MultivaluedMapImpl();
+        throw new UnsupportedOperationException(name);
+      }
+    });
+  }
+
+  /**
+   * Build type external ids are the same as internal ones
+   */
+  private static class ExternalIdTransformation implements PackageTransformation {
+    @NotNull
+    public Status applyTransformation(@NotNull NuGetPackageBuilder builder) {
+      final String id = builder.getBuildTypeId();
+      if (id == null) return Status.SKIP;
+      builder.setBuildTypeExternalId(id);
+      return Status.CONTINUE;
+    }
+
+    @NotNull
+    public PackageTransformation createCopy() {
+      return this;
+    }
+  }
+
+  private static class SyntheticEntry implements BuildMetadataEntry {
+    private final long myBuildId;
+    private final String myKey;
+    private final Map<String, String> myMetadata;
+
+    private SyntheticEntry(final long buildId, @NotNull final String key, @NotNull final Map<String, String> metadata) {
+      myBuildId = buildId;
+      myKey = key;
+      myMetadata = metadata;
+    }
+
+    public long getBuildId() {
+      return myBuildId;
+    }
+
+    @NotNull
+    public String getKey() {
+      return myKey;
+    }
+
+    @NotNull
+    public Map<String, String> getMetadata() {
+      return myMetadata;
+    }
+  }
+}
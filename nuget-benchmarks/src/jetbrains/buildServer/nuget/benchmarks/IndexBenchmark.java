@@ -0,0 +1,95 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.benchmarks;
+
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.SemanticVersionsComparators;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures separate stages of the packages index: loading, iteration, lookups and sorting
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexBenchmark {
+  private static final int SORTED_ENTRIES_COUNT = 10000;
+
+  private String myPackageId;
+  private List<NuGetIndexEntry> myUnsortedEntries;
+
+  @Setup(Level.Trial)
+  public void setUp(@NotNull final FeedRepository repository) {
+    myPackageId = FeedRepository.getPackageId(repository.getPackageIdsCount() / 2);
+
+    myUnsortedEntries = new ArrayList<NuGetIndexEntry>();
+    final Iterator<NuGetIndexEntry> it = repository.index.getNuGetEntries();
+    while (it.hasNext() && myUnsortedEntries.size() < SORTED_ENTRIES_COUNT) {
+      myUnsortedEntries.add(it.next());
+    }
+    Collections.shuffle(myUnsortedEntries, new Random(42));
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void loadIndex(@NotNull final FeedRepository repository, @NotNull final Blackhole bh) {
+    repository.cache.reset();
+    consume(repository.cache.getAllEntries(), bh);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void allEntries(@NotNull final FeedRepository repository, @NotNull final Blackhole bh) {
+    consume(repository.index.getNuGetEntries(), bh);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void latestEntries(@NotNull final FeedRepository repository, @NotNull final Blackhole bh) {
+    consume(repository.index.getLatestNuGetEntries(), bh);
+  }
+
+  @Benchmark
+  public void entriesById(@NotNull final FeedRepository repository, @NotNull final Blackhole bh) {
+    consume(repository.index.getNuGetEntries(myPackageId), bh);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void search(@NotNull final FeedRepository repository, @NotNull final Blackhole bh) {
+    consume(repository.index.search("tag7"), bh);
+  }
+
+  @Benchmark
+  public List<NuGetIndexEntry> sortEntries() {
+    final List<NuGetIndexEntry> entries = new ArrayList<NuGetIndexEntry>(myUnsortedEntries);
+    Collections.sort(entries, SemanticVersionsComparators.getEntriesComparator());
+    return entries;
+  }
+
+  private static <T> void consume(@NotNull final Iterator<T> it, @NotNull final Blackhole bh) {
+    while (it.hasNext()) {
+      bh.consume(it.next());
+    }
+  }
+}
@@ -26,7 +26,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.util.Enumeration;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -63,6 +65,34 @@ public class PackageInfoLoader {
 
   @Nullable
   private static Element parseNuSpec(@NotNull final File nupkg) throws PackageLoadException {
+    ZipFile zipFile = null;
+    try {
+      zipFile = new ZipFile(nupkg);
+      final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        final ZipEntry ze = entries.nextElement();
+        if (ze.getName().endsWith(FeedConstants.NUSPEC_FILE_EXTENSION)) {
+          final InputStream stream = zipFile.getInputStream(ze);
+          try {
+            return FileUtil.parseDocument(stream, false);
+          } catch (JDOMException e) {
+            LOG.warn("Failed to parse " + ze + " in " + nupkg);
+          } finally {
+            FileUtil.close(stream);
+          }
+        }
+      }
+      return null;
+    } catch (IOException e) {
+      LOG.debug("Failed to read " + nupkg + " as zip file, falling back to streaming. " + e.getMessage());
+    } finally {
+      close(zipFile);
+    }
+    return parseNuSpecStream(nupkg);
+  }
+
+  @Nullable
+  private static Element parseNuSpecStream(@NotNull final File nupkg) throws PackageLoadException {
     ZipInputStream zos = null;
     InputStream stream = null;
     try {
@@ -88,6 +118,16 @@ public class PackageInfoLoader {
     return null;
   }
 
+  private static void close(@Nullable final ZipFile zipFile) {
+    if (zipFile != null) {
+      try {
+        zipFile.close();
+      } catch (IOException e) {
+        //NOP
+      }
+    }
+  }
+
   private static void close(@Nullable final ZipInputStream zos) {
     if (zos != null) {
       try {
@@ -19,6 +19,10 @@
 
 <jsp:useBean id="serverEnabled" type="java.lang.Boolean" scope="request"/>
 <jsp:useBean id="isGuestEnabled" type="java.lang.Boolean" scope="request"/>
+<jsp:useBean id="indexLoaded" type="java.lang.Boolean" scope="request"/>
+<jsp:useBean id="indexLoading" type="java.lang.Boolean" scope="request"/>
+<jsp:useBean id="indexEntriesCount" type="java.lang.Integer" scope="request"/>
+<jsp:useBean id="operationStatistics" type="java.util.List<jetbrains.buildServer.nuget.server.feed.server.controllers.requests.FeedOperationStatistics>" scope="request"/>
 
 <jsp:useBean id="nugetStatusRefreshUrl" scope="request" type="java.lang.String"/>
 <jsp:useBean id="nugetSettingsPostUrl" scope="request" type="java.lang.String"/>
@@ -75,6 +79,60 @@
         </c:choose>
         </td>
       </tr>
+      <tr>
+        <th>Packages Index:</th>
+        <td>
+        <c:choose>
+          <c:when test="${indexLoaded}">
+            <div>${indexEntriesCount} packages loaded</div>
+          </c:when>
+          <c:when test="${indexLoading}">
+            <div>Loading, ${indexEntriesCount} packages read so far <a href="#" onclick="$('nugetEnableDisable').refresh(); return false;">Refresh</a></div>
+            <span class="smallNote">Packages index is loaded in background on server startup. Feed requests wait until it is loaded.</span>
+          </c:when>
+          <c:otherwise>
+            <div>Not loaded</div>
+            <span class="smallNote">Packages index will be loaded on next feed request.</span>
+          </c:otherwise>
+        </c:choose>
+        </td>
+      </tr>
+      <c:if test="${not empty operationStatistics}">
+      <tr>
+        <th>Feed Requests:</th>
+        <td>
+          <table class="settings">
+            <tr>
+              <th>Operation</th>
+              <th>Requests</th>
+              <th>Mean, ms</th>
+              <th>Median, ms</th>
+              <th>95%, ms</th>
+              <th>99%, ms</th>
+              <th>Max, ms</th>
+              <th>Cache hits / misses</th>
+              <th>Entries scanned</th>
+              <th>Bytes written</th>
+            </tr>
+            <c:forEach items="${operationStatistics}" var="op">
+            <tr>
+              <td><c:out value="${op.name}"/></td>
+              <td>${op.count}</td>
+              <td>${op.meanMillis}</td>
+              <td>${op.medianMillis}</td>
+              <td>${op.p95Millis}</td>
+              <td>${op.p99Millis}</td>
+              <td>${op.maxMillis}</td>
+              <td>${op.cacheHits} / ${op.cacheMisses}</td>
+              <td>${op.entriesScanned}</td>
+              <td>${op.bytesWritten}</td>
+            </tr>
+            </c:forEach>
+          </table>
+          <span class="smallNote">Collected since the server start</span>
+        </td>
+      </tr>
+      </c:if>
     </table>
   </c:if>
 
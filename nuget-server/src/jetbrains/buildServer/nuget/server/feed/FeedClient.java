@@ -38,4 +38,10 @@ public interface FeedClient {
    * @return true if given FeedClint is about to use credentials for login
    */
   boolean hasCredentials();
+
+  /**
+   * @return credentials used for login or null if none
+   */
+  @Nullable
+  FeedCredentials getCredentials();
 }
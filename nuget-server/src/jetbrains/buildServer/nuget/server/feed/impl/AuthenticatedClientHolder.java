@@ -56,6 +56,12 @@ public class AuthenticatedClientHolder extends HttpClientHolder {
     return true;
   }
 
+  @NotNull
+  @Override
+  public FeedCredentials getCredentials() {
+    return myCredentials;
+  }
+
   @NotNull
   @Override
   public FeedClient withCredentials(@Nullable FeedCredentials credentials) {
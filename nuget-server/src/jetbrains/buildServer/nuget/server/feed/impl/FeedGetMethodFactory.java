@@ -20,11 +20,15 @@ import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HTTP;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
@@ -42,4 +46,26 @@ public class FeedGetMethodFactory {
 
     return get;
   }
+
+  /**
+   * Creates OData query which asks server to return only given properties of entities
+   * @param url query url
+   * @param properties properties to include into $select, all properties are returned if empty
+   * @param getParams other query parameters
+   */
+  @NotNull
+  public HttpGet createSelectGet(@NotNull final String url,
+                                 @NotNull final Collection<String> properties,
+                                 NameValuePair... getParams) {
+    if (properties.isEmpty()) return createGet(url, getParams);
+
+    final List<NameValuePair> params = new ArrayList<NameValuePair>(Arrays.asList(getParams));
+    final StringBuilder select = new StringBuilder();
+    for (String property : properties) {
+      if (select.length() > 0) select.append(",");
+      select.append(property);
+    }
+    params.add(new BasicNameValuePair("$select", select.toString()));
+    return createGet(url, params.toArray(new NameValuePair[params.size()]));
+  }
 }
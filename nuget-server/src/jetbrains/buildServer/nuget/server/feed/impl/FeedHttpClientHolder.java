@@ -17,6 +17,7 @@
 package jetbrains.buildServer.nuget.server.feed.impl;
 
 import jetbrains.buildServer.nuget.server.feed.FeedClient;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.version.ServerVersionHolder;
 import org.apache.commons.httpclient.auth.AuthPolicy;
 import org.apache.http.auth.params.AuthPNames;
@@ -40,6 +41,9 @@ import java.util.Arrays;
  * Date: 11.08.11 16:24
  */
 public class FeedHttpClientHolder extends HttpClientHolder implements FeedClient {
+  private static final String MAX_CONNECTIONS_PER_HOST_PROP_NAME = "teamcity.nuget.feed.http.maxConnectionsPerHost";
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
   public FeedHttpClientHolder() {
     super(createHttpClient());
   }
@@ -57,7 +61,11 @@ public class FeedHttpClientHolder extends HttpClientHolder implements FeedClient
     ps.setParameter(AuthPNames.CREDENTIAL_CHARSET, "utf-8");
     ps.setParameter(AuthPNames.TARGET_AUTH_PREF, Arrays.asList(AuthPolicy.BASIC));
 
-    DefaultHttpClient httpclient = new DefaultHttpClient(new ThreadSafeClientConnManager(), ps);
+    //feed pages are queried concurrently, see NuGetFeedReaderImpl
+    final ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
+    connectionManager.setDefaultMaxPerRoute(TeamCityProperties.getInteger(MAX_CONNECTIONS_PER_HOST_PROP_NAME, DEFAULT_MAX_CONNECTIONS_PER_HOST));
+
+    DefaultHttpClient httpclient = new DefaultHttpClient(connectionManager, ps);
 
     httpclient.setRoutePlanner(new ProxySelectorRoutePlanner(
             httpclient.getConnectionManager().getSchemeRegistry(),
@@ -52,4 +52,9 @@ public abstract class HttpClientHolder implements FeedClient {
   public boolean hasCredentials() {
     return false;
   }
+
+  @Nullable
+  public FeedCredentials getCredentials() {
+    return null;
+  }
 }
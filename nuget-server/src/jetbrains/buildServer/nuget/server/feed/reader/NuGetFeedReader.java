@@ -22,17 +22,32 @@ import org.jetbrains.annotations.NotNull;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
  * Date: 12.08.11 14:46
  */
 public interface NuGetFeedReader {
+  /**
+   * Queries versions of a package. Only package properties required for
+   * {@link FeedPackage} are requested if feed supports $select query option
+   */
   @NotNull
   Collection<FeedPackage> queryPackageVersions(@NotNull FeedClient feed,
                                                @NotNull String feedUrl,
                                                @NotNull String packageId) throws IOException;
 
+  /**
+   * Queries versions of several packages, using as few requests as possible.
+   * Package properties are requested the same way as for a single package
+   * @return package versions for each of requested ids, package ids are case-insensitive
+   */
+  @NotNull
+  Map<String, Collection<FeedPackage>> queryPackageVersions(@NotNull FeedClient feed,
+                                                            @NotNull String feedUrl,
+                                                            @NotNull Collection<String> packageIds) throws IOException;
+
 
   void downloadPackage(@NotNull FeedClient feed,
                        @NotNull FeedPackage pkg,
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.reader.impl;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Describes one page of packages feed response
+ */
+public class FeedPage {
+  private final String myNextUrl;
+  private final Long myCount;
+
+  public FeedPage(@Nullable final String nextUrl, @Nullable final Long count) {
+    myNextUrl = nextUrl;
+    myCount = count;
+  }
+
+  /**
+   * @return url of next portion if any or null
+   */
+  @Nullable
+  public String getNextUrl() {
+    return myNextUrl;
+  }
+
+  /**
+   * @return total number of entries in the feed if it was requested with $inlinecount, or null
+   */
+  @Nullable
+  public Long getCount() {
+    return myCount;
+  }
+}
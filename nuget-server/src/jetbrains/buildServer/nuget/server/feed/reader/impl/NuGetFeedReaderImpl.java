@@ -19,23 +19,32 @@ package jetbrains.buildServer.nuget.server.feed.reader.impl;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import jetbrains.buildServer.nuget.server.feed.FeedClient;
+import jetbrains.buildServer.nuget.server.feed.FeedCredentials;
 import jetbrains.buildServer.nuget.server.feed.impl.FeedGetMethodFactory;
 import jetbrains.buildServer.nuget.server.feed.reader.FeedPackage;
 import jetbrains.buildServer.nuget.server.feed.reader.NuGetFeedReader;
+import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.NamedDeamonThreadFactory;
 import jetbrains.buildServer.util.XmlUtil;
 import org.apache.http.*;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
@@ -43,9 +52,30 @@ import java.util.List;
  */
 public class NuGetFeedReaderImpl implements NuGetFeedReader {
   private static final Logger LOG = Logger.getInstance(NuGetFeedReader.class.getName());
+  private static final String RESOLVED_URL_TTL_PROP_NAME = "teamcity.nuget.feed.resolvedUrl.ttl";
+  private static final long DEFAULT_RESOLVED_URL_TTL = 30 * 60 * 1000;
+  private static final int MAX_RESOLVED_URLS = 1024;
+  private static final String MAX_QUERY_URL_LENGTH_PROP_NAME = "teamcity.nuget.feed.query.maxUrlLength";
+  private static final int DEFAULT_MAX_QUERY_URL_LENGTH = 2048;
+  private static final String SELECT_PROP_NAME = "teamcity.nuget.feed.query.select";
+  private static final String PARALLEL_PAGES_PROP_NAME = "teamcity.nuget.feed.query.parallelPages";
+  private static final int DEFAULT_PARALLEL_PAGES = 4;
+  private static final String OR = " or ";
+  /**
+   * Package properties used to create {@link FeedPackage}
+   */
+  private static final List<String> PACKAGE_PROPERTIES = Arrays.asList(
+          PackageAttributes.ID,
+          PackageAttributes.VERSION,
+          PackageAttributes.IS_LATEST_VERSION,
+          PackageAttributes.DESCRIPTION);
   private final UrlResolver myResolver;
   private final FeedGetMethodFactory myMethodFactory;
   private final PackagesFeedParser myParser;
+  private final ConcurrentMap<ResolvedUrlKey, ResolvedUrl> myResolvedUrls = new ConcurrentHashMap<ResolvedUrlKey, ResolvedUrl>();
+  private final Set<String> myPlainQueryUrls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final ConcurrentMap<String, Semaphore> myHostPermits = new ConcurrentHashMap<String, Semaphore>();
+  private final ExecutorService myExecutor = Executors.newCachedThreadPool(new NamedDeamonThreadFactory("NuGet Feed Pages Reader"));
 
   public NuGetFeedReaderImpl(@NotNull final UrlResolver resolver,
                              @NotNull final FeedGetMethodFactory methodFactory,
@@ -55,44 +85,326 @@ public class NuGetFeedReaderImpl implements NuGetFeedReader {
     myParser = parser;
   }
 
+  public void dispose() {
+    myExecutor.shutdownNow();
+  }
+
   @NotNull
   public Collection<FeedPackage> queryPackageVersions(@NotNull final FeedClient client,
                                                       @NotNull String feedUrl,
                                                       @NotNull final String packageId) throws IOException {
+    return queryPackages(client, feedUrl, Collections.singleton(packageId));
+  }
+
+  @NotNull
+  public Map<String, Collection<FeedPackage>> queryPackageVersions(@NotNull final FeedClient client,
+                                                                   @NotNull final String feedUrl,
+                                                                   @NotNull final Collection<String> packageIds) throws IOException {
+    final Map<String, Collection<FeedPackage>> result = new TreeMap<String, Collection<FeedPackage>>(String.CASE_INSENSITIVE_ORDER);
+    final List<String> queryIds = new ArrayList<String>();
+    for (String packageId : packageIds) {
+      if (result.containsKey(packageId)) continue;
+      result.put(packageId, new ArrayList<FeedPackage>());
+      queryIds.add(packageId);
+    }
+    if (queryIds.isEmpty()) return result;
+
+    for (FeedPackage aPackage : queryPackages(client, feedUrl, queryIds)) {
+      final Collection<FeedPackage> packages = result.get(aPackage.getInfo().getId());
+      if (packages != null) packages.add(aPackage);
+    }
+    return result;
+  }
+
+  @NotNull
+  private List<FeedPackage> queryPackages(@NotNull final FeedClient client,
+                                          @NotNull final String feedUrl,
+                                          @NotNull final Collection<String> packageIds) throws IOException {
     LOG.debug("Connecting to NuGet feed url: " + feedUrl);
+    final ResolvedUrlKey key = new ResolvedUrlKey(feedUrl, client.getCredentials());
+    final String cachedUrl = getCachedUrl(key);
+    if (cachedUrl != null) {
+      try {
+        return queryResolvedPackages(client, cachedUrl, packageIds);
+      } catch (FeedUrlChangedException e) {
+        LOG.debug("Resolved NuGet feed URL " + cachedUrl + " is outdated. " + e.getMessage());
+        myResolvedUrls.remove(key);
+      }
+    }
+
+    final String resolvedUrl = resolveUrl(client, feedUrl);
+    final List<FeedPackage> packages = queryResolvedPackages(client, resolvedUrl, packageIds);
+    cacheUrl(key, resolvedUrl);
+    return packages;
+  }
+
+  @NotNull
+  private String resolveUrl(@NotNull final FeedClient client, @NotNull final String feedUrl) throws IOException {
     final Pair<String, HttpResponse> pair = myResolver.resolvePath(client, feedUrl);
-    feedUrl = pair.first;
     try {
-      LOG.debug("Resolved NuGet feed URL to " + feedUrl);
-      final Element element = toDocument(feedUrl, pair.second);
-      LOG.debug("Recieved xml: " + XmlUtil.to_s(element));
+      LOG.debug("Resolved NuGet feed URL to " + pair.first);
+      if (LOG.isDebugEnabled()) {
+        final Element element = toDocument(pair.first, pair.second);
+        LOG.debug("Recieved xml: " + XmlUtil.to_s(element));
+      }
     } finally {
       EntityUtils.consume(pair.second.getEntity());
     }
+    return pair.first;
+  }
+
+  @Nullable
+  private String getCachedUrl(@NotNull final ResolvedUrlKey key) {
+    final ResolvedUrl resolved = myResolvedUrls.get(key);
+    if (resolved == null) return null;
+    if (resolved.myExpirationTime < System.currentTimeMillis()) {
+      myResolvedUrls.remove(key);
+      return null;
+    }
+    return resolved.myUrl;
+  }
+
+  private void cacheUrl(@NotNull final ResolvedUrlKey key, @NotNull final String resolvedUrl) {
+    final long ttl = TeamCityProperties.getLong(RESOLVED_URL_TTL_PROP_NAME, DEFAULT_RESOLVED_URL_TTL);
+    if (ttl <= 0) return;
+    if (myResolvedUrls.size() >= MAX_RESOLVED_URLS) myResolvedUrls.clear();
+    myResolvedUrls.put(key, new ResolvedUrl(resolvedUrl, System.currentTimeMillis() + ttl));
+  }
 
+  @NotNull
+  private List<FeedPackage> queryResolvedPackages(@NotNull final FeedClient client,
+                                                  @NotNull final String feedUrl,
+                                                  @NotNull final Collection<String> packageIds) throws IOException {
     final List<FeedPackage> allPackages = new ArrayList<FeedPackage>();
-    HttpGet get = myMethodFactory.createGet(feedUrl + "/Packages()",
-            new Param("$filter", "Id eq '" + packageId + "'")
-    );
+    for (String filter : createIdFilters(feedUrl, packageIds)) {
+      queryPackages(client, feedUrl, filter, allPackages);
+    }
+    Collections.sort(allPackages);
+    return allPackages;
+  }
+
+  /**
+   * Joins package id conditions with 'or', so that each query url fits
+   * into teamcity.nuget.feed.query.maxUrlLength
+   */
+  @NotNull
+  private List<String> createIdFilters(@NotNull final String feedUrl, @NotNull final Collection<String> packageIds) throws IOException {
+    final int maxUrlLength = TeamCityProperties.getInteger(MAX_QUERY_URL_LENGTH_PROP_NAME, DEFAULT_MAX_QUERY_URL_LENGTH);
+    final int maxFilterLength = maxUrlLength - createPackagesGet(feedUrl, "", true).getURI().toString().length();
 
-    do {
-      get.setHeader(HttpHeaders.ACCEPT, "application/atom+xml");
+    final List<String> filters = new ArrayList<String>();
+    final StringBuilder filter = new StringBuilder();
+    int filterLength = 0;
+    for (String packageId : packageIds) {
+      final String condition = "Id eq '" + packageId + "'";
+      final int conditionLength = URLEncoder.encode(condition, HTTP.ISO_8859_1).length();
+      if (filter.length() > 0 && filterLength + OR.length() + conditionLength > maxFilterLength) {
+        filters.add(filter.toString());
+        filter.setLength(0);
+        filterLength = 0;
+      }
+      if (filter.length() > 0) {
+        filter.append(OR);
+        filterLength += OR.length();
+      }
+      filter.append(condition);
+      filterLength += conditionLength;
+    }
+    if (filter.length() > 0) filters.add(filter.toString());
+    return filters;
+  }
 
-      LOG.debug("Query for packages part: " + get.getURI());
-      final HttpResponse execute = client.execute(get);
-      String packagesUrl;
+  private void queryPackages(@NotNull final FeedClient client,
+                             @NotNull final String feedUrl,
+                             @NotNull final String filter,
+                             @NotNull final List<FeedPackage> allPackages) throws IOException {
+    if (isQueryOptionsEnabled(feedUrl)) {
+      final List<FeedPackage> packages = new ArrayList<FeedPackage>();
       try {
-        packagesUrl = myParser.readPackages(toDocument(get.getURI().toString(), execute), allPackages);
-      } finally {
-        get.abort();
+        queryPackages(client, createPackagesGet(feedUrl, filter, true), true, packages);
+        allPackages.addAll(packages);
+        return;
+      } catch (QueryOptionsRejectedException e) {
+        LOG.info("NuGet feed " + feedUrl + " does not support $select or $inlinecount options, full package entries will be requested. " + e.getMessage());
+        if (myPlainQueryUrls.size() >= MAX_RESOLVED_URLS) myPlainQueryUrls.clear();
+        myPlainQueryUrls.add(feedUrl);
       }
+    }
+    queryPackages(client, createPackagesGet(feedUrl, filter, false), false, allPackages);
+  }
 
-      if (packagesUrl == null) break;
-      get = myMethodFactory.createGet(packagesUrl);
-    } while (true);
+  private boolean isQueryOptionsEnabled(@NotNull final String feedUrl) {
+    return (isSelectEnabled() || getParallelPages() > 1) && !myPlainQueryUrls.contains(feedUrl);
+  }
 
-    Collections.sort(allPackages);
-    return allPackages;
+  private static boolean isSelectEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(SELECT_PROP_NAME);
+  }
+
+  private static int getParallelPages() {
+    return TeamCityProperties.getInteger(PARALLEL_PAGES_PROP_NAME, DEFAULT_PARALLEL_PAGES);
+  }
+
+  /**
+   * @param queryOptions whether to request only used package properties and total count of packages
+   */
+  @NotNull
+  private HttpGet createPackagesGet(@NotNull final String feedUrl, @NotNull final String filter, boolean queryOptions) {
+    final List<NameValuePair> params = new ArrayList<NameValuePair>();
+    params.add(new Param("$filter", filter));
+    if (queryOptions && getParallelPages() > 1) params.add(new Param("$inlinecount", "allpages"));
+    final List<String> properties = queryOptions && isSelectEnabled() ? PACKAGE_PROPERTIES : Collections.<String>emptyList();
+    return myMethodFactory.createSelectGet(feedUrl + "/Packages()", properties, params.toArray(new NameValuePair[params.size()]));
+  }
+
+  private void queryPackages(@NotNull final FeedClient client,
+                             @NotNull final HttpGet get,
+                             boolean queryOptions,
+                             @NotNull final List<FeedPackage> allPackages) throws IOException {
+    final FeedPage firstPage = queryPage(client, get, queryOptions, allPackages);
+    String nextUrl = firstPage.getNextUrl();
+    if (nextUrl == null) return;
+
+    final List<String> pageUrls = getPageUrls(nextUrl, firstPage.getCount());
+    if (pageUrls != null) {
+      queryPages(client, pageUrls, allPackages);
+      return;
+    }
+
+    while (nextUrl != null) {
+      nextUrl = queryPage(client, myMethodFactory.createGet(nextUrl), false, allPackages).getNextUrl();
+    }
+  }
+
+  @NotNull
+  private FeedPage queryPage(@NotNull final FeedClient client,
+                             @NotNull final HttpGet get,
+                             boolean queryOptions,
+                             @NotNull final Collection<FeedPackage> result) throws IOException {
+    get.setHeader(HttpHeaders.ACCEPT, "application/atom+xml");
+
+    LOG.debug("Query for packages part: " + get.getURI());
+    final HttpResponse execute = client.execute(get);
+    try {
+      final StatusLine statusLine = execute.getStatusLine();
+      final int statusCode = statusLine.getStatusCode();
+      if (statusCode == HttpStatus.SC_NOT_FOUND || (statusCode >= 300 && statusCode < 400)) {
+        throw new FeedUrlChangedException("Failed to query packages from " + get.getURI() + ". Server returned " + statusLine);
+      }
+      if (queryOptions && (statusCode == HttpStatus.SC_BAD_REQUEST || statusCode == HttpStatus.SC_NOT_IMPLEMENTED)) {
+        throw new QueryOptionsRejectedException("Server returned " + statusLine);
+      }
+      return readPage(get.getURI().toString(), execute, result);
+    } finally {
+      get.abort();
+    }
+  }
+
+  /**
+   * Computes urls of all remaining pages if the feed pages results with $skip
+   * and returned total count of packages
+   * @param nextUrl url of the second page
+   * @param count total count of packages if known
+   * @return urls of remaining pages or null if pages are to be queried one by one
+   */
+  @Nullable
+  private static List<String> getPageUrls(@NotNull final String nextUrl, @Nullable final Long count) {
+    if (count == null || getParallelPages() <= 1) return null;
+
+    final int queryStart = nextUrl.indexOf('?');
+    if (queryStart < 0) return null;
+    final List<NameValuePair> params;
+    try {
+      params = URLEncodedUtils.parse(new URI(nextUrl), HTTP.UTF_8);
+    } catch (URISyntaxException e) {
+      LOG.debug("Failed to parse next page url " + nextUrl + ". " + e.getMessage());
+      return null;
+    }
+
+    long skip = 0;
+    final List<NameValuePair> pageParams = new ArrayList<NameValuePair>();
+    for (NameValuePair param : params) {
+      final String name = param.getName();
+      if ("$skiptoken".equals(name) || "$top".equals(name)) return null;
+      if ("$skip".equals(name)) {
+        try {
+          skip = Long.parseLong(param.getValue());
+        } catch (NumberFormatException e) {
+          return null;
+        }
+      } else {
+        pageParams.add(param);
+      }
+    }
+    if (skip <= 0 || skip >= count) return null;
+
+    final String baseUrl = nextUrl.substring(0, queryStart + 1);
+    final List<String> pageUrls = new ArrayList<String>();
+    for (long offset = skip; offset < count; offset += skip) {
+      final List<NameValuePair> pageQuery = new ArrayList<NameValuePair>(pageParams);
+      pageQuery.add(new BasicNameValuePair("$skip", String.valueOf(offset)));
+      pageUrls.add(baseUrl + URLEncodedUtils.format(pageQuery, HTTP.UTF_8));
+    }
+    return pageUrls;
+  }
+
+  /**
+   * Queries given pages concurrently, number of concurrent
+   * requests to one host is limited by teamcity.nuget.feed.query.parallelPages
+   */
+  private void queryPages(@NotNull final FeedClient client,
+                          @NotNull final List<String> pageUrls,
+                          @NotNull final List<FeedPackage> allPackages) throws IOException {
+    final Semaphore hostPermits = getHostPermits(String.valueOf(URI.create(pageUrls.get(0)).getAuthority()));
+    final Queue<String> pendingUrls = new ConcurrentLinkedQueue<String>(pageUrls);
+    final int workers = Math.min(getParallelPages(), pageUrls.size());
+    final List<Future<List<FeedPackage>>> futures = new ArrayList<Future<List<FeedPackage>>>(workers);
+    try {
+      for (int i = 0; i < workers; i++) {
+        futures.add(myExecutor.submit(new Callable<List<FeedPackage>>() {
+          public List<FeedPackage> call() throws Exception {
+            final List<FeedPackage> packages = new ArrayList<FeedPackage>();
+            String url;
+            while ((url = pendingUrls.poll()) != null) {
+              hostPermits.acquire();
+              try {
+                queryPage(client, myMethodFactory.createGet(url), false, packages);
+              } finally {
+                hostPermits.release();
+              }
+            }
+            return packages;
+          }
+        }));
+      }
+
+      for (Future<List<FeedPackage>> future : futures) {
+        allPackages.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while querying NuGet feed pages");
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      throw new IOException("Failed to query NuGet feed pages. " + cause.getMessage()) {{ initCause(cause); }};
+    } finally {
+      pendingUrls.clear();
+      for (Future<List<FeedPackage>> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  @NotNull
+  private Semaphore getHostPermits(@NotNull final String host) {
+    final Semaphore permits = myHostPermits.get(host);
+    if (permits != null) return permits;
+
+    if (myHostPermits.size() >= MAX_RESOLVED_URLS) myHostPermits.clear();
+    final Semaphore newPermits = new Semaphore(Math.max(1, getParallelPages()));
+    final Semaphore existing = myHostPermits.putIfAbsent(host, newPermits);
+    return existing != null ? existing : newPermits;
   }
 
   public void downloadPackage(@NotNull FeedClient client,
@@ -119,6 +431,73 @@ public class NuGetFeedReaderImpl implements NuGetFeedReader {
     }
   }
 
+  @NotNull
+  private FeedPage readPage(@NotNull final String feedUrl,
+                            @NotNull final HttpResponse response,
+                            @NotNull final Collection<FeedPackage> result) throws IOException {
+    final HttpEntity entity = response.getEntity();
+    try {
+      return myParser.readPage(new BufferedInputStream(entity.getContent()), result);
+    } catch (final IOException e) {
+      final String msg = "Failed to parse output from NuGet feed. Check feed url: " + feedUrl + " is accessible";
+      LOG.debug(msg + ". " + e.getMessage(), e);
+      throw new IOException(msg) {{ initCause(e); }};
+    } finally {
+      EntityUtils.consume(entity);
+    }
+  }
+
+  /**
+   * Thrown if feed url moved since it was resolved
+   */
+  private static class FeedUrlChangedException extends IOException {
+    private FeedUrlChangedException(@NotNull final String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Thrown if feed does not support $select or $inlinecount query options
+   */
+  private static class QueryOptionsRejectedException extends IOException {
+    private QueryOptionsRejectedException(@NotNull final String message) {
+      super(message);
+    }
+  }
+
+  private static class ResolvedUrlKey {
+    private final String myFeedUrl;
+    private final FeedCredentials myCredentials;
+
+    private ResolvedUrlKey(@NotNull final String feedUrl, @Nullable final FeedCredentials credentials) {
+      myFeedUrl = feedUrl;
+      myCredentials = credentials;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final ResolvedUrlKey that = (ResolvedUrlKey) o;
+      return myFeedUrl.equals(that.myFeedUrl) && (myCredentials == null ? that.myCredentials == null : myCredentials.equals(that.myCredentials));
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myFeedUrl.hashCode() + (myCredentials != null ? myCredentials.hashCode() : 0);
+    }
+  }
+
+  private static class ResolvedUrl {
+    private final String myUrl;
+    private final long myExpirationTime;
+
+    private ResolvedUrl(@NotNull final String url, long expirationTime) {
+      myUrl = url;
+      myExpirationTime = expirationTime;
+    }
+  }
+
   private Element toDocument(@NotNull final String feedUrl, @NotNull HttpResponse response) throws IOException {
     final HttpEntity entity = response.getEntity();
     try {
@@ -17,10 +17,10 @@
 package jetbrains.buildServer.nuget.server.feed.reader.impl;
 
 import jetbrains.buildServer.nuget.server.feed.reader.FeedPackage;
-import org.jdom.Element;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 
 /**
@@ -29,11 +29,12 @@ import java.util.Collection;
  */
 public interface PackagesFeedParser {
   /**
-   * Parses the feed output
-   * @param root Xml tree of ATOM resoponse
+   * Parses the feed output without building xml tree
+   * @param stream ATOM response stream
    * @param results collection to add results
-   * @return url of next portion af any or null
+   * @return url of next portion and total count of entries if the feed contains them
+   * @throws IOException if failed to read or parse the stream
    */
-  @Nullable
-  String readPackages(@NotNull Element root, @NotNull Collection<FeedPackage> results);
+  @NotNull
+  FeedPage readPage(@NotNull InputStream stream, @NotNull Collection<FeedPackage> results) throws IOException;
 }
@@ -21,13 +21,18 @@ import jetbrains.buildServer.nuget.common.PackageInfo;
 import jetbrains.buildServer.nuget.server.feed.reader.FeedPackage;
 import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
 import jetbrains.buildServer.util.StringUtil;
-import org.jdom.Element;
 import org.jdom.Namespace;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
-import java.util.List;
+
+import static javax.xml.stream.XMLStreamConstants.*;
 
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
@@ -40,98 +45,192 @@ public class PackagesFeedParserImpl implements PackagesFeedParser {
   private static final Namespace metadata = Namespace.getNamespace("http://schemas.microsoft.com/ado/2007/08/dataservices/metadata");
   private static final Namespace services = Namespace.getNamespace("http://schemas.microsoft.com/ado/2007/08/dataservices");
 
-  @Nullable
-  public String readPackages(@NotNull final Element root, @NotNull final Collection<FeedPackage> result) {
-    final List entries = root.getChildren("entry", atom);
-    for (Object o : entries) {
-      final Element entry = (Element) o;
-      try {
-        final FeedPackage e = parseOneEntry(entry);
-        result.add(e);
-      } catch (InvalidXmlException e) {
-        LOG.debug("Failed to parse feed entry. " + e.getMessage());
+  private final XMLInputFactory myInputFactory;
+
+  public PackagesFeedParserImpl() {
+    myInputFactory = XMLInputFactory.newInstance();
+    myInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    myInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    myInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+  }
+
+  @NotNull
+  public FeedPage readPage(@NotNull final InputStream stream, @NotNull final Collection<FeedPackage> result) throws IOException {
+    XMLStreamReader reader = null;
+    try {
+      reader = myInputFactory.createXMLStreamReader(stream);
+      if (!nextStartElement(reader)) return new FeedPage(null, null);
+
+      String nextUrl = null;
+      Long count = null;
+      //only direct children of the root element are processed
+      while (nextStartElement(reader)) {
+        if (isElement(reader, "entry", atom)) {
+          try {
+            result.add(readOneEntry(reader));
+          } catch (InvalidXmlException e) {
+            LOG.debug("Failed to parse feed entry. " + e.getMessage());
+          }
+        } else if (count == null && isElement(reader, "count", metadata)) {
+          count = parseCount(readText(reader));
+        } else {
+          if (nextUrl == null && isElement(reader, "link", atom) && "next".equals(reader.getAttributeValue(null, "rel"))) {
+            final String href = reader.getAttributeValue(null, "href");
+            if (!StringUtil.isEmptyOrSpaces(href)) nextUrl = href;
+          }
+          skipElement(reader);
+        }
       }
+      return new FeedPage(nextUrl, count);
+    } catch (final XMLStreamException e) {
+      throw new IOException("Failed to parse feed response. " + e.getMessage()) {{ initCause(e); }};
+    } finally {
+      close(reader);
     }
+  }
 
-    for (Object entry : root.getChildren("link", atom)) {
-      final Element link = (Element)entry;
-      if ("next".equals(link.getAttributeValue("rel"))) {
-        String href = link.getAttributeValue("href");
-        if (!StringUtil.isEmptyOrSpaces(href)) return href;
-      }
+  @Nullable
+  private static Long parseCount(@NotNull final String text) {
+    try {
+      return Long.parseLong(text.trim());
+    } catch (NumberFormatException e) {
+      LOG.debug("Failed to parse feed entries count: " + text);
+      return null;
     }
-    return null;
   }
 
   @NotNull
-  private FeedPackage parseOneEntry(@NotNull final Element entry) throws InvalidXmlException {
-    final Element atomIdElement = getChild(entry, "id", atom);
-    final String atomId = atomIdElement.getText();
-
-    final String content = getChildAttribute(entry, "content", atom, "src");
-    final Element props = getChild(entry, "properties", metadata);
+  private FeedPackage readOneEntry(@NotNull final XMLStreamReader reader) throws XMLStreamException, InvalidXmlException {
+    String atomId = null;
+    String title = null;
+    String content = null;
+    boolean hasProperties = false;
+    String packageId = null;
+    String version = null;
+    String description = null;
+    String isLatestVersion = null;
+
+    while (nextStartElement(reader)) {
+      if (atomId == null && isElement(reader, "id", atom)) {
+        atomId = readText(reader);
+      } else if (title == null && isElement(reader, "title", atom)) {
+        title = readText(reader);
+      } else if (content == null && isElement(reader, "content", atom)) {
+        content = reader.getAttributeValue(null, "src");
+        if (content == null) content = "";
+        skipElement(reader);
+      } else if (!hasProperties && isElement(reader, "properties", metadata)) {
+        hasProperties = true;
+        while (nextStartElement(reader)) {
+          if (packageId == null && isElement(reader, PackageAttributes.ID, services)) {
+            packageId = readText(reader);
+          } else if (version == null && isElement(reader, PackageAttributes.VERSION, services)) {
+            version = readText(reader);
+          } else if (description == null && isElement(reader, PackageAttributes.DESCRIPTION, services)) {
+            description = readText(reader);
+          } else if (isLatestVersion == null && isElement(reader, PackageAttributes.IS_LATEST_VERSION, services)) {
+            isLatestVersion = readText(reader);
+          } else {
+            skipElement(reader);
+          }
+        }
+      } else {
+        skipElement(reader);
+      }
+    }
 
-    String packageId = getChildTextSafe(props, PackageAttributes.ID, services);
+    if (atomId == null) throw new InvalidXmlException("Element id was not found. ");
+    if (StringUtil.isEmptyOrSpaces(content)) throw new InvalidXmlException("Element content must have non-empty attribute src. ");
+    if (!hasProperties) throw new InvalidXmlException("Element properties was not found. ");
     if (StringUtil.isEmptyOrSpaces(packageId)) {
-      packageId = getChildText(entry, "title", atom);
+      packageId = requireText("title", title);
     }
-    final String version = getChildText(props, PackageAttributes.VERSION, services);
-    final String desription = getChildText(props, PackageAttributes.DESCRIPTION, services);
-    final boolean isLatestVersion = "true".equalsIgnoreCase(getChildTextSafe(props, PackageAttributes.IS_LATEST_VERSION, services));
 
     return new FeedPackage(
             atomId,
-            new PackageInfo(packageId, version),
-            isLatestVersion,
-            desription,
+            new PackageInfo(packageId, requireText(PackageAttributes.VERSION, version)),
+            "true".equalsIgnoreCase(isLatestVersion),
+            requireText(PackageAttributes.DESCRIPTION, description),
             content);
   }
 
   @NotNull
-  private String getChildTextSafe(@NotNull final Element element,
-                                  @NotNull final String name,
-                                  @NotNull final Namespace ns) {
-    try {
-      return getChildText(element, name, ns);
-    } catch (InvalidXmlException e) {
-      return "";
+  private static String requireText(@NotNull final String name, @Nullable final String text) throws InvalidXmlException {
+    if (text == null) {
+      throw new InvalidXmlException("Element " + name + " was not found. ");
     }
-  }
-
-  @NotNull
-  private String getChildText(@NotNull final Element element,
-                              @NotNull final String name,
-                              @NotNull final Namespace ns) throws InvalidXmlException {
-    final Element data = getChild(element, name, ns);
-    final String text = data.getText();
     if (StringUtil.isEmptyOrSpaces(text)) {
       throw new InvalidXmlException("Element " + name + " must have a content. ");
     }
     return text;
   }
 
-  @NotNull
-  private String getChildAttribute(@NotNull final Element element,
-                                   @NotNull final String name,
-                                   @NotNull final Namespace ns,
-                                   @NotNull final String attribute) throws InvalidXmlException {
-    final Element data = getChild(element, name, ns);
-    final String text = data.getAttributeValue(attribute);
-    if (StringUtil.isEmptyOrSpaces(text)) {
-      throw new InvalidXmlException("Element " + name + " must have non-empty attribute " + attribute + ". ");
+  /**
+   * Moves to the next child of the current element
+   * @return false if the end of the current element was reached
+   */
+  private static boolean nextStartElement(@NotNull final XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      switch (reader.next()) {
+        case START_ELEMENT:
+          return true;
+        case END_ELEMENT:
+          return false;
+      }
     }
-    return text;
+    return false;
   }
 
+  private static boolean isElement(@NotNull final XMLStreamReader reader, @NotNull final String name, @NotNull final Namespace ns) {
+    return name.equals(reader.getLocalName()) && ns.getURI().equals(reader.getNamespaceURI());
+  }
+
+  /**
+   * Reads text of the current element, text of nested elements is ignored
+   */
   @NotNull
-  private Element getChild(@NotNull final Element element,
-                           @NotNull final String name,
-                           @NotNull final Namespace ns) throws InvalidXmlException {
-    final Element data = element.getChild(name, ns);
-    if (data == null) {
-      throw new InvalidXmlException("Element " + name + " was not found. ");
+  private static String readText(@NotNull final XMLStreamReader reader) throws XMLStreamException {
+    final StringBuilder text = new StringBuilder();
+    int depth = 1;
+    while (depth > 0 && reader.hasNext()) {
+      switch (reader.next()) {
+        case START_ELEMENT:
+          depth++;
+          break;
+        case END_ELEMENT:
+          depth--;
+          break;
+        case CHARACTERS:
+        case CDATA:
+        case SPACE:
+          if (depth == 1) text.append(reader.getText());
+          break;
+      }
+    }
+    return text.toString();
+  }
+
+  private static void skipElement(@NotNull final XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0 && reader.hasNext()) {
+      switch (reader.next()) {
+        case START_ELEMENT:
+          depth++;
+          break;
+        case END_ELEMENT:
+          depth--;
+          break;
+      }
+    }
+  }
+
+  private static void close(@Nullable final XMLStreamReader reader) {
+    if (reader == null) return;
+    try {
+      reader.close();
+    } catch (XMLStreamException e) {
+      //NOP
     }
-    return data;
   }
 
   private static class InvalidXmlException extends Exception {
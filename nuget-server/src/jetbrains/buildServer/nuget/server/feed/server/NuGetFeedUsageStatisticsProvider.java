@@ -93,7 +93,7 @@ public class NuGetFeedUsageStatisticsProvider extends BaseDefaultUsageStatistics
     final Iterator<NuGetIndexEntry> it = myIndex.getNuGetEntries();
     while(it.hasNext()) {
       NuGetIndexEntry next = it.next();
-      packagesCounter.add(next.getAttributes().get("Id"));
+      packagesCounter.add(next.getId());
       count++;
     }
     return Pair.create(count, packagesCounter.size());
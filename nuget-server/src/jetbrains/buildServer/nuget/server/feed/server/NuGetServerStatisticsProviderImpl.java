@@ -0,0 +1,49 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server;
+
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.RecentNuGetRequests;
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetServerStatisticsProvider;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexImpl;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+/**
+ * Statistics of the packages index and of requests served by the feed
+ */
+public class NuGetServerStatisticsProviderImpl implements NuGetServerStatisticsProvider {
+  @NotNull private final PackagesIndexImpl myIndex;
+  @NotNull private final RecentNuGetRequests myRequests;
+
+  public NuGetServerStatisticsProviderImpl(@NotNull final PackagesIndexImpl index,
+                                           @NotNull final RecentNuGetRequests requests) {
+    myIndex = index;
+    myRequests = requests;
+  }
+
+  @NotNull
+  public Map<String, Long> getIndexStatistics() {
+    return myIndex.getIndexStatistics();
+  }
+
+  @NotNull
+  public Map<String, Long> getRequestStatistics() {
+    return myRequests.getStatistics();
+  }
+}
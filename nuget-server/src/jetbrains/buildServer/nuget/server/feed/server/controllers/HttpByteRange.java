@@ -0,0 +1,92 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.controllers;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Single byte range of a Range request header, see RFC 7233.
+ * Multiple ranges are not supported, the whole content is sent for them.
+ */
+public class HttpByteRange {
+  public static final HttpByteRange UNSATISFIABLE = new HttpByteRange(-1, -1);
+  private static final String BYTES_UNIT = "bytes=";
+
+  private final long myStart;
+  private final long myEnd;
+
+  private HttpByteRange(long start, long end) {
+    myStart = start;
+    myEnd = end;
+  }
+
+  public boolean isSatisfiable() {
+    return this != UNSATISFIABLE;
+  }
+
+  public long getStart() {
+    return myStart;
+  }
+
+  /**
+   * @return last byte of the range, inclusive
+   */
+  public long getEnd() {
+    return myEnd;
+  }
+
+  public long getLength() {
+    return myEnd - myStart + 1;
+  }
+
+  /**
+   * @param header Range header value
+   * @param size content size
+   * @return requested range, {@link #UNSATISFIABLE} or null if the whole content should be sent
+   */
+  @Nullable
+  public static HttpByteRange parse(@Nullable final String header, final long size) {
+    if (header == null) return null;
+    final String value = header.trim();
+    if (!value.startsWith(BYTES_UNIT) || value.indexOf(',') >= 0) return null;
+
+    final String spec = value.substring(BYTES_UNIT.length()).trim();
+    final int dash = spec.indexOf('-');
+    if (dash < 0) return null;
+
+    try {
+      final String first = spec.substring(0, dash).trim();
+      final String last = spec.substring(dash + 1).trim();
+      if (first.length() == 0) {
+        //suffix range: last N bytes
+        if (last.length() == 0) return null;
+        final long suffix = Long.parseLong(last);
+        if (suffix <= 0 || size == 0) return UNSATISFIABLE;
+        return new HttpByteRange(Math.max(0, size - suffix), size - 1);
+      }
+
+      final long start = Long.parseLong(first);
+      final long end = last.length() == 0 ? Long.MAX_VALUE : Long.parseLong(last);
+      if (start < 0 || end < start) return null;
+      if (start >= size) return UNSATISFIABLE;
+      return new HttpByteRange(start, Math.min(end, size - 1));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -18,6 +18,9 @@ package jetbrains.buildServer.nuget.server.feed.server.controllers;
 
 import jetbrains.buildServer.controllers.BaseController;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.CountingResponseWrapper;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.FeedOperation;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.FeedRequestContext;
 import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.RecentNuGetRequests;
 import jetbrains.buildServer.web.openapi.WebControllerManager;
 import jetbrains.buildServer.web.util.WebUtil;
@@ -27,7 +30,6 @@ import org.springframework.web.servlet.ModelAndView;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Collection;
-import java.util.Date;
 
 /**
  * @author Eugene Petrenko (eugene.petrenko@gmail.com)
@@ -68,16 +70,22 @@ public class NuGetFeedController extends BaseController {
     final String pathAndQuery = path + (query != null ? ("?" + query) : "");
     myRequestsList.reportFeedRequest(pathAndQuery);
 
-    final long startTime = new Date().getTime();
-    for (NuGetFeedHandler handler : myHandlers) {
-      if (handler.isAvailable()) {
-        handler.handleRequest(myNuGetPath, request, response);
-        return null;
+    final long startTime = System.nanoTime();
+    final FeedRequestContext context = FeedRequestContext.start();
+    final CountingResponseWrapper countingResponse = new CountingResponseWrapper(response);
+    try {
+      for (NuGetFeedHandler handler : myHandlers) {
+        if (handler.isAvailable()) {
+          handler.handleRequest(myNuGetPath, request, countingResponse);
+          return null;
+        }
       }
+      return NuGetResponseUtil.noImplementationFoundError(countingResponse);
+    } finally {
+      countingResponse.finish();
+      FeedRequestContext.finish();
+      final long durationMicros = (System.nanoTime() - startTime) / 1000;
+      myRequestsList.reportFeedRequestFinished(FeedOperation.fromPath(path), pathAndQuery, durationMicros, context, countingResponse.getBytesWritten());
     }
-    final long actualTime = new Date().getTime() - startTime;
-    myRequestsList.reportFeedRequestFinished(pathAndQuery, actualTime);
-
-    return NuGetResponseUtil.noImplementationFoundError(response);
   }
 }
@@ -19,6 +19,14 @@ package jetbrains.buildServer.nuget.server.feed.server.controllers;
 import com.intellij.openapi.diagnostic.Logger;
 import jetbrains.buildServer.controllers.BaseController;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.CountingResponseWrapper;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.FeedOperation;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.RecentNuGetRequests;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.serverSide.auth.AuthUtil;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.web.openapi.WebControllerManager;
 import jetbrains.buildServer.web.util.WebUtil;
 import org.jetbrains.annotations.NotNull;
@@ -26,31 +34,52 @@ import org.jetbrains.annotations.Nullable;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
+ * Serves indexed packages directly from build artifacts, with support of
+ * conditional and range requests. Other requests are forwarded to the artifacts download.
+ *
  * @author Evgeniy.Koshkin
  */
 public class NuGetPackageDownloadController extends BaseController {
 
   private static final Logger LOG = Logger.getInstance(NuGetPackageDownloadController.class.getName());
+  private static final String DIRECT_DOWNLOAD_PROP_NAME = "teamcity.nuget.feed.download.direct";
+  private static final String BUILD_ID_SUFFIX = ":id";
 
   @NotNull private final NuGetServerSettings myServerSettings;
+  @NotNull private final RecentNuGetRequests myRequestsList;
+  @NotNull private final NuGetPackageDownloadResolver myResolver;
+  @NotNull private final SecurityContext mySecurityContext;
 
   public NuGetPackageDownloadController(@NotNull final WebControllerManager web,
-                                        @NotNull final NuGetServerSettings serverSettings) {
+                                        @NotNull final NuGetServerSettings serverSettings,
+                                        @NotNull final RecentNuGetRequests requestsList,
+                                        @NotNull final NuGetPackageDownloadResolver resolver,
+                                        @NotNull final SecurityContext securityContext) {
     myServerSettings = serverSettings;
+    myRequestsList = requestsList;
+    myResolver = resolver;
+    mySecurityContext = securityContext;
     web.registerController(serverSettings.getNuGetFeedControllerPath() + "/download/**", this);
   }
 
   @Nullable
   @Override
   protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
-    String requestPath = WebUtil.getPathWithoutAuthenticationType(request);
-    if (!requestPath.startsWith("/")) requestPath = "/" + requestPath;
+    final String requestPath = getRequestPath(request);
     final String feedControllerPath = myServerSettings.getNuGetFeedControllerPath();
-    if(!requestPath.contains(feedControllerPath + "/download/")){
+    final String downloadPrefix = feedControllerPath + "/download/";
+    final int prefixIndex = requestPath.indexOf(downloadPrefix);
+    if(prefixIndex < 0){
       response.sendError(HttpServletResponse.SC_NOT_FOUND);
       return null;
     }
@@ -58,12 +87,187 @@ public class NuGetPackageDownloadController extends BaseController {
       return NuGetResponseUtil.nugetFeedIsDisabled(response);
     }
 
-    final String artifactDownloadUrl = requestPath.replace(feedControllerPath, "/repository");
+    final long startTime = System.nanoTime();
+    final CountingResponseWrapper countingResponse = new CountingResponseWrapper(response);
+    try {
+      final String downloadPath = requestPath.substring(prefixIndex + downloadPrefix.length());
+      if (!sendPackage(downloadPath, request, countingResponse)) {
+        forward(requestPath.replace(feedControllerPath, "/repository"), requestPath, request, countingResponse);
+      }
+    } finally {
+      countingResponse.finish();
+      final long durationMicros = (System.nanoTime() - startTime) / 1000;
+      myRequestsList.reportFeedRequestFinished(FeedOperation.DOWNLOAD, requestPath, durationMicros, null, countingResponse.getBytesWritten());
+    }
+    return null;
+  }
+
+  /**
+   * @return request path without context and authentication type
+   */
+  @NotNull
+  protected String getRequestPath(@NotNull final HttpServletRequest request) {
+    final String requestPath = WebUtil.getPathWithoutAuthenticationType(request);
+    return requestPath.startsWith("/") ? requestPath : "/" + requestPath;
+  }
+
+  private void forward(@NotNull final String artifactDownloadUrl,
+                       @NotNull final String requestPath,
+                       @NotNull final HttpServletRequest request,
+                       @NotNull final HttpServletResponse response) throws Exception {
     RequestDispatcher dispatcher = request.getRequestDispatcher(artifactDownloadUrl);
     if (dispatcher != null) {
       LOG.debug(String.format("Forwarding request. From %s To %s", requestPath, artifactDownloadUrl));
       dispatcher.forward(request, response);
     }
-    return null;
+  }
+
+  /**
+   * @param downloadPath path of form buildTypeExternalId/buildId:id/artifactPath
+   * @return false if the request should be served by artifacts download
+   */
+  private boolean sendPackage(@NotNull final String downloadPath,
+                              @NotNull final HttpServletRequest request,
+                              @NotNull final HttpServletResponse response) throws IOException {
+    if (!TeamCityProperties.getBooleanOrTrue(DIRECT_DOWNLOAD_PROP_NAME)) return false;
+    final boolean isHead = "HEAD".equals(request.getMethod());
+    if (!isHead && !isGet(request)) return false;
+
+    final int buildIdStart = downloadPath.indexOf('/');
+    final int buildIdEnd = buildIdStart < 0 ? -1 : downloadPath.indexOf('/', buildIdStart + 1);
+    if (buildIdEnd < 0) return false;
+    final String buildIdString = downloadPath.substring(buildIdStart + 1, buildIdEnd);
+    if (!buildIdString.endsWith(BUILD_ID_SUFFIX)) return false;
+
+    final long buildId;
+    final String artifactPath;
+    try {
+      buildId = Long.parseLong(buildIdString.substring(0, buildIdString.length() - BUILD_ID_SUFFIX.length()));
+      artifactPath = URLDecoder.decode(downloadPath.substring(buildIdEnd + 1).replace("+", "%2B"), "UTF-8");
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+
+    final NuGetPackageDownloadResolver.ResolvedPackage pkg = myResolver.resolve(buildId, artifactPath);
+    //artifacts download reports missing artifacts and asks for credentials in the usual way
+    if (pkg == null || !AuthUtil.hasReadAccessTo(mySecurityContext.getAuthorityHolder(), pkg.getProjectId())) return false;
+
+    final BuildArtifact artifact = pkg.getArtifact();
+    final long size = artifact.getSize();
+    final long lastModified = artifact.getTimestamp() / 1000 * 1000;
+    final String eTag = pkg.getHash() == null ? null : "\"" + pkg.getHash() + "\"";
+
+    response.setHeader("Accept-Ranges", "bytes");
+    response.setDateHeader("Last-Modified", lastModified);
+    if (eTag != null) response.setHeader("ETag", eTag);
+
+    if (isNotModified(request, eTag, lastModified)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+
+    HttpByteRange range = HttpByteRange.parse(request.getHeader("Range"), size);
+    if (range != null && !matchesIfRange(request, eTag, lastModified)) range = null;
+    if (range != null && !range.isSatisfiable()) {
+      response.setHeader("Content-Range", "bytes */" + size);
+      response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return true;
+    }
+
+    final long start = range == null ? 0 : range.getStart();
+    final long length = range == null ? size : range.getLength();
+    response.setContentType("application/zip");
+    response.setHeader("Content-Disposition", "attachment; filename=\"" + artifact.getName() + "\"");
+    response.setHeader("Content-Length", String.valueOf(length));
+    if (range != null) {
+      response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      response.setHeader("Content-Range", "bytes " + start + "-" + range.getEnd() + "/" + size);
+    }
+    if (isHead) return true;
+
+    final ServletOutputStream output = response.getOutputStream();
+    final File file = pkg.getFile();
+    if (file != null) {
+      sendFile(file, start, length, output);
+    } else {
+      sendArtifact(artifact, start, length, output);
+    }
+    output.flush();
+    return true;
+  }
+
+  private static void sendFile(@NotNull final File file, long start, long length, @NotNull final OutputStream output) throws IOException {
+    final FileInputStream stream = new FileInputStream(file);
+    try {
+      final FileChannel channel = stream.getChannel();
+      final WritableByteChannel target = Channels.newChannel(output);
+      long position = start;
+      long remaining = length;
+      while (remaining > 0) {
+        final long sent = channel.transferTo(position, remaining, target);
+        if (sent <= 0) throw new EOFException("Unexpected end of " + file);
+        position += sent;
+        remaining -= sent;
+      }
+    } finally {
+      FileUtil.close(stream);
+    }
+  }
+
+  private static void sendArtifact(@NotNull final BuildArtifact artifact, long start, long length, @NotNull final OutputStream output) throws IOException {
+    final InputStream stream = artifact.getInputStream();
+    try {
+      long toSkip = start;
+      while (toSkip > 0) {
+        final long skipped = stream.skip(toSkip);
+        if (skipped <= 0) throw new EOFException("Unexpected end of " + artifact);
+        toSkip -= skipped;
+      }
+
+      final byte[] buffer = new byte[65536];
+      long remaining = length;
+      while (remaining > 0) {
+        final int read = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read < 0) throw new EOFException("Unexpected end of " + artifact);
+        output.write(buffer, 0, read);
+        remaining -= read;
+      }
+    } finally {
+      FileUtil.close(stream);
+    }
+  }
+
+  private static boolean isNotModified(@NotNull final HttpServletRequest request, @Nullable final String eTag, long lastModified) {
+    final String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      if (eTag == null) return false;
+      for (String tag : ifNoneMatch.split(",")) {
+        String trimmed = tag.trim();
+        //If-None-Match uses weak comparison
+        if (trimmed.startsWith("W/")) trimmed = trimmed.substring(2);
+        if (trimmed.equals("*") || trimmed.equals(eTag)) return true;
+      }
+      return false;
+    }
+
+    final long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+    return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+  }
+
+  private static boolean matchesIfRange(@NotNull final HttpServletRequest request, @Nullable final String eTag, long lastModified) {
+    final String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) return true;
+    final String trimmed = ifRange.trim();
+    //If-Range uses strong comparison
+    if (trimmed.startsWith("\"") || trimmed.startsWith("W/")) return eTag != null && trimmed.equals(eTag);
+    return getDateHeader(request, "If-Range") == lastModified;
+  }
+
+  private static long getDateHeader(@NotNull final HttpServletRequest request, @NotNull final String name) {
+    try {
+      return request.getDateHeader(name);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
   }
 }
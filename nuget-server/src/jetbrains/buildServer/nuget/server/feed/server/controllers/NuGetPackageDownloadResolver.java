@@ -0,0 +1,207 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.controllers;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID;
+
+/**
+ * Resolves indexed package artifacts for feed downloads.
+ * Resolved packages are shared between requests and users, access is checked by the caller.
+ */
+public class NuGetPackageDownloadResolver {
+  private static final Logger LOG = Logger.getInstance(NuGetPackageDownloadResolver.class.getName());
+  private static final int MAX_CACHE_SIZE = 4096;
+  /** part of resolved packages dropped from the full cache, the oldest ones go first */
+  private static final int EVICTED_PART = 4;
+
+  private final BuildsManager myBuilds;
+  private final MetadataStorage myStorage;
+  /** buildId:artifact path -> resolved package */
+  private final ConcurrentMap<String, ResolvedPackage> myCache = new ConcurrentHashMap<String, ResolvedPackage>();
+  private final AtomicLong myResolveCounter = new AtomicLong();
+  private final Object myEvictionLock = new Object();
+
+  public NuGetPackageDownloadResolver(@NotNull final BuildsManager builds,
+                                      @NotNull final MetadataStorage storage,
+                                      @NotNull final EventDispatcher<BuildServerListener> events) {
+    myBuilds = builds;
+    myStorage = storage;
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void entryDeleted(@NotNull SFinishedBuild oldEntry) {
+        final String prefix = oldEntry.getBuildId() + ":";
+        for (String key : myCache.keySet()) {
+          if (key.startsWith(prefix)) myCache.remove(key);
+        }
+      }
+
+      @Override
+      public void cleanupFinished() {
+        //artifacts cleanup may remove packages without removing builds
+        myCache.clear();
+      }
+
+      @Override
+      public void buildTypeMoved(@NotNull SBuildType buildType, @NotNull SProject original) {
+        //cached project ids are used for access checks
+        myCache.clear();
+      }
+    });
+  }
+
+  /**
+   * @param buildId build of the package
+   * @param artifactPath path of the package in build artifacts
+   * @return indexed package or null if there is no such package in the feed
+   */
+  @Nullable
+  public ResolvedPackage resolve(final long buildId, @NotNull final String artifactPath) {
+    final String key = buildId + ":" + artifactPath;
+    final ResolvedPackage cached = myCache.get(key);
+    if (cached != null) return cached;
+
+    final ResolvedPackage resolved = doResolve(buildId, artifactPath);
+    if (resolved == null) return null;
+
+    if (myCache.size() >= MAX_CACHE_SIZE) evictOldest();
+    myCache.put(key, resolved);
+    return resolved;
+  }
+
+  private void evictOldest() {
+    synchronized (myEvictionLock) {
+      if (myCache.size() < MAX_CACHE_SIZE) return;
+
+      final List<Map.Entry<String, ResolvedPackage>> entries = new ArrayList<Map.Entry<String, ResolvedPackage>>(myCache.entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<String, ResolvedPackage>>() {
+        public int compare(Map.Entry<String, ResolvedPackage> o1, Map.Entry<String, ResolvedPackage> o2) {
+          final long r1 = o1.getValue().myResolveOrder;
+          final long r2 = o2.getValue().myResolveOrder;
+          return r1 < r2 ? -1 : r1 == r2 ? 0 : 1;
+        }
+      });
+
+      for (Map.Entry<String, ResolvedPackage> e : entries.subList(0, Math.max(1, entries.size() / EVICTED_PART))) {
+        myCache.remove(e.getKey(), e.getValue());
+      }
+    }
+  }
+
+  @Nullable
+  private ResolvedPackage doResolve(final long buildId, @NotNull final String artifactPath) {
+    final BuildMetadataEntry entry = findEntry(buildId, artifactPath);
+    if (entry == null) return null;
+
+    final SBuild build;
+    try {
+      build = myBuilds.findBuildInstanceById(buildId);
+    } catch (RuntimeException e) {
+      LOG.debug("Failed to find build #" + buildId + ". " + e.getMessage());
+      return null;
+    }
+    if (build == null) return null;
+
+    final String projectId = build.getProjectId();
+    if (projectId == null) return null;
+
+    final BuildArtifact artifact = build.getArtifacts(BuildArtifactsViewMode.VIEW_ALL).getArtifact(artifactPath);
+    if (artifact == null || artifact.isDirectory()) return null;
+
+    final File file = new File(build.getArtifactsDirectory(), artifactPath);
+    final boolean fileBacked = file.isFile() && file.length() == artifact.getSize();
+    return new ResolvedPackage(projectId, artifact, fileBacked ? file : null, entry.getMetadata().get(PackageAttributes.PACKAGE_HASH), myResolveCounter.incrementAndGet());
+  }
+
+  @Nullable
+  private BuildMetadataEntry findEntry(final long buildId, @NotNull final String artifactPath) {
+    final Iterator<BuildMetadataEntry> entries = myStorage.getBuildEntry(buildId, NUGET_PROVIDER_ID);
+    while (entries.hasNext()) {
+      final BuildMetadataEntry entry = entries.next();
+      final Map<String, String> metadata = entry.getMetadata();
+      String path = metadata.get(PackagesIndex.TEAMCITY_ARTIFACT_RELPATH);
+      if (path == null) continue;
+      while (path.startsWith("/")) path = path.substring(1);
+      if (path.equals(artifactPath)) return entry;
+    }
+    return null;
+  }
+
+  public static final class ResolvedPackage {
+    @NotNull private final String myProjectId;
+    @NotNull private final BuildArtifact myArtifact;
+    @Nullable private final File myFile;
+    @Nullable private final String myHash;
+    private final long myResolveOrder;
+
+    private ResolvedPackage(@NotNull final String projectId,
+                            @NotNull final BuildArtifact artifact,
+                            @Nullable final File file,
+                            @Nullable final String hash,
+                            final long resolveOrder) {
+      myProjectId = projectId;
+      myArtifact = artifact;
+      myFile = file;
+      myHash = hash;
+      myResolveOrder = resolveOrder;
+    }
+
+    @NotNull
+    public String getProjectId() {
+      return myProjectId;
+    }
+
+    @NotNull
+    public BuildArtifact getArtifact() {
+      return myArtifact;
+    }
+
+    /**
+     * @return local file of the artifact or null if the artifact is not stored on the server disk
+     */
+    @Nullable
+    public File getFile() {
+      return myFile;
+    }
+
+    /**
+     * @return indexed package hash, it is used as entity tag of the download
+     */
+    @Nullable
+    public String getHash() {
+      return myHash;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.controllers.requests;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Counts bytes of the response body written by feed request handlers
+ */
+public class CountingResponseWrapper extends HttpServletResponseWrapper {
+  private ServletOutputStream myOutput;
+  private PrintWriter myWriter;
+  private long myBytesWritten = 0;
+
+  public CountingResponseWrapper(@NotNull final HttpServletResponse response) {
+    super(response);
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (myOutput == null) {
+      final ServletOutputStream stream = super.getOutputStream();
+      myOutput = new ServletOutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          stream.write(b);
+          myBytesWritten++;
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) throws IOException {
+          stream.write(b, off, len);
+          myBytesWritten += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+          stream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+          stream.close();
+        }
+      };
+    }
+    return myOutput;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (myWriter == null) {
+      myWriter = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()), false);
+    }
+    return myWriter;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (myWriter != null) myWriter.flush();
+    super.flushBuffer();
+  }
+
+  /**
+   * Flushes characters buffered by the writer, if any, so they reach the wrapped response
+   */
+  public void finish() {
+    if (myWriter != null) myWriter.flush();
+  }
+
+  public long getBytesWritten() {
+    return myBytesWritten;
+  }
+}
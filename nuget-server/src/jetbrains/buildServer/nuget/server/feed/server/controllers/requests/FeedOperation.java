@@ -0,0 +1,62 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.controllers.requests;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Feed operations request statistics are collected for
+ */
+public enum FeedOperation {
+  PACKAGES("Packages"),
+  FIND_PACKAGES_BY_ID("FindPackagesById"),
+  SEARCH("Search"),
+  GET_UPDATES("GetUpdates"),
+  METADATA("$metadata"),
+  DOWNLOAD("download"),
+  OTHER("Other");
+
+  private final String myName;
+
+  FeedOperation(@NotNull final String name) {
+    myName = name;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  /**
+   * @param path request path relative to the feed root, e.g. /FindPackagesById()
+   * @return operation of the request
+   */
+  @NotNull
+  public static FeedOperation fromPath(@NotNull final String path) {
+    int start = 0;
+    while (start < path.length() && path.charAt(start) == '/') start++;
+    int end = start;
+    while (end < path.length() && "(?/".indexOf(path.charAt(end)) < 0) end++;
+
+    final String segment = path.substring(start, end);
+    for (FeedOperation operation : values()) {
+      if (operation != OTHER && operation.myName.equalsIgnoreCase(segment)) return operation;
+    }
+    return OTHER;
+  }
+}
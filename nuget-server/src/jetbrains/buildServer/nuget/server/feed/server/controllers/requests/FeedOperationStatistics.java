@@ -0,0 +1,113 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.controllers.requests;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and work done by requests of one feed operation
+ */
+public class FeedOperationStatistics {
+  private final FeedOperation myOperation;
+  private final LatencyHistogram myLatency = new LatencyHistogram();
+  private final AtomicLong myCacheHits = new AtomicLong();
+  private final AtomicLong myCacheMisses = new AtomicLong();
+  private final AtomicLong myEntriesScanned = new AtomicLong();
+  private final AtomicLong myBytesWritten = new AtomicLong();
+
+  public FeedOperationStatistics(@NotNull final FeedOperation operation) {
+    myOperation = operation;
+  }
+
+  public void record(long durationMicros, @Nullable final FeedRequestContext context, long bytesWritten) {
+    myLatency.record(durationMicros);
+    myBytesWritten.addAndGet(bytesWritten);
+    if (context != null) {
+      myCacheHits.addAndGet(context.getCacheHits());
+      myCacheMisses.addAndGet(context.getCacheMisses());
+      myEntriesScanned.addAndGet(context.getEntriesScanned());
+    }
+  }
+
+  @NotNull
+  public String getName() {
+    return myOperation.getName();
+  }
+
+  public long getCount() {
+    return myLatency.getCount();
+  }
+
+  public double getMeanMillis() {
+    return toMillis(myLatency.getMean());
+  }
+
+  public double getMedianMillis() {
+    return toMillis(myLatency.getValueAtPercentile(50));
+  }
+
+  public double getP95Millis() {
+    return toMillis(myLatency.getValueAtPercentile(95));
+  }
+
+  public double getP99Millis() {
+    return toMillis(myLatency.getValueAtPercentile(99));
+  }
+
+  public double getMaxMillis() {
+    return toMillis(myLatency.getMax());
+  }
+
+  public long getCacheHits() {
+    return myCacheHits.get();
+  }
+
+  public long getCacheMisses() {
+    return myCacheMisses.get();
+  }
+
+  public long getEntriesScanned() {
+    return myEntriesScanned.get();
+  }
+
+  public long getBytesWritten() {
+    return myBytesWritten.get();
+  }
+
+  void publish(@NotNull final Map<String, Long> stats) {
+    final String prefix = "Feed " + getName() + " ";
+    stats.put(prefix + "requests", getCount());
+    stats.put(prefix + "latency mean, us", myLatency.getMean());
+    stats.put(prefix + "latency p50, us", myLatency.getValueAtPercentile(50));
+    stats.put(prefix + "latency p95, us", myLatency.getValueAtPercentile(95));
+    stats.put(prefix + "latency p99, us", myLatency.getValueAtPercentile(99));
+    stats.put(prefix + "latency max, us", myLatency.getMax());
+    stats.put(prefix + "cache hits", getCacheHits());
+    stats.put(prefix + "cache misses", getCacheMisses());
+    stats.put(prefix + "entries scanned", getEntriesScanned());
+    stats.put(prefix + "bytes written", getBytesWritten());
+  }
+
+  private static double toMillis(long micros) {
+    return Math.round(micros / 100.0) / 10.0;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.controllers.requests;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Counters of a feed request being processed by the current thread.
+ * Index and cache code report into it without knowing about requests.
+ */
+public class FeedRequestContext {
+  private static final ThreadLocal<FeedRequestContext> ourCurrent = new ThreadLocal<FeedRequestContext>();
+
+  private long myEntriesScanned = 0;
+  private int myCacheHits = 0;
+  private int myCacheMisses = 0;
+
+  /**
+   * Starts collecting counters for a request processed by the current thread
+   * @return counters of the request
+   */
+  @NotNull
+  public static FeedRequestContext start() {
+    final FeedRequestContext context = new FeedRequestContext();
+    ourCurrent.set(context);
+    return context;
+  }
+
+  public static void finish() {
+    ourCurrent.remove();
+  }
+
+  /**
+   * Called by the index for metadata entries read to compute a response
+   * @param count number of read entries
+   */
+  public static void entriesScanned(int count) {
+    final FeedRequestContext context = ourCurrent.get();
+    if (context != null) context.myEntriesScanned += count;
+  }
+
+  public static void cacheHit() {
+    final FeedRequestContext context = ourCurrent.get();
+    if (context != null) context.myCacheHits++;
+  }
+
+  public static void cacheMiss() {
+    final FeedRequestContext context = ourCurrent.get();
+    if (context != null) context.myCacheMisses++;
+  }
+
+  public long getEntriesScanned() {
+    return myEntriesScanned;
+  }
+
+  public int getCacheHits() {
+    return myCacheHits;
+  }
+
+  public int getCacheMisses() {
+    return myCacheMisses;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.controllers.requests;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets, in the spirit of HdrHistogram.
+ * Values are recorded in microseconds with about 6% precision,
+ * values above {@link #MAX_VALUE} are counted as {@link #MAX_VALUE}.
+ */
+public class LatencyHistogram {
+  /** values below are recorded exactly */
+  private static final int LINEAR_BUCKETS = 32;
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MIN_EXPONENT = 5;
+  private static final int MAX_EXPONENT = 36;
+  public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+  private final AtomicLongArray myCounts = new AtomicLongArray(LINEAR_BUCKETS + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS);
+  private final AtomicLong myCount = new AtomicLong();
+  private final AtomicLong myTotal = new AtomicLong();
+  private final AtomicLong myMax = new AtomicLong();
+
+  public void record(long micros) {
+    final long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+    myCounts.incrementAndGet(bucketIndex(value));
+    myCount.incrementAndGet();
+    myTotal.addAndGet(value);
+
+    long max;
+    while (value > (max = myMax.get())) {
+      if (myMax.compareAndSet(max, value)) break;
+    }
+  }
+
+  public long getCount() {
+    return myCount.get();
+  }
+
+  public long getMax() {
+    return myMax.get();
+  }
+
+  public long getMean() {
+    final long count = myCount.get();
+    return count == 0 ? 0 : myTotal.get() / count;
+  }
+
+  /**
+   * @param percentile percentile from 0 to 100
+   * @return highest value equivalent to the recorded one at the given percentile, 0 if nothing recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long total = 0;
+    for (int i = 0; i < myCounts.length(); i++) {
+      total += myCounts.get(i);
+    }
+    if (total == 0) return 0;
+
+    final long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < myCounts.length(); i++) {
+      seen += myCounts.get(i);
+      if (seen >= target) return Math.min(bucketUpperBound(i), getMax());
+    }
+    return getMax();
+  }
+
+  static int bucketIndex(long value) {
+    if (value < LINEAR_BUCKETS) return (int) value;
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+  }
+
+  static long bucketUpperBound(int index) {
+    if (index < LINEAR_BUCKETS) return index;
+    final int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + MIN_EXPONENT;
+    final int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return (((long) (SUB_BUCKETS + subBucket)) << shift) + (1L << shift) - 1;
+  }
+}
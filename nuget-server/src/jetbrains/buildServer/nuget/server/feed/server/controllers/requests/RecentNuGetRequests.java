@@ -21,10 +21,10 @@ import jetbrains.buildServer.util.Dates;
 import jetbrains.buildServer.util.RecentEntriesCache;
 import jetbrains.buildServer.util.filters.Filter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Collection;
-import java.util.Date;
-import java.util.TreeSet;
+import java.util.*;
+import java.util.regex.Pattern;
 
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
@@ -32,20 +32,55 @@ import java.util.TreeSet;
  */
 public class RecentNuGetRequests {
   private static final Logger LOG = Logger.getInstance(RecentNuGetRequests.class.getName());
+  private static final Pattern QUOTED_LITERAL = Pattern.compile("'[^']*'|%27.*?%27");
+  private static final int MAX_REQUEST_LENGTH = 512;
   private final RecentEntriesCache<String, String> myFeedRequests = new RecentEntriesCache<String, String>(5000, false);
   private final RecentEntriesCache<Long, Long> myFeedRequestTimes = new RecentEntriesCache<Long, Long>(20000, false);
+  private final Map<FeedOperation, FeedOperationStatistics> myOperations = new EnumMap<FeedOperation, FeedOperationStatistics>(FeedOperation.class);
+
+  public RecentNuGetRequests() {
+    for (FeedOperation operation : FeedOperation.values()) {
+      myOperations.put(operation, new FeedOperationStatistics(operation));
+    }
+  }
 
   public void reportFeedRequest(@NotNull final String url) {
     LOG.debug("NuGet Feed request processing started for " + url);
 
     final long time = getTime();
     myFeedRequestTimes.put(time, time);
-    //TODO: trim identifiers in request to merge same trees
-    myFeedRequests.put(url, url);
+    final String request = normalizeRequest(url);
+    myFeedRequests.put(request, request);
+  }
+
+  public void reportFeedRequestFinished(@NotNull final FeedOperation operation,
+                                        @NotNull final String url,
+                                        long durationMicros,
+                                        @Nullable final FeedRequestContext context,
+                                        long bytesWritten) {
+    LOG.debug("NuGet Feed Request request processing finsihed in " + durationMicros / 1000 + "ms for " + url);
+    myOperations.get(operation).record(durationMicros, context, bytesWritten);
   }
 
-  public void reportFeedRequestFinished(@NotNull final String url, long time) {
-    LOG.debug("NuGet Feed Request request processing finsihed in " + time + "ms for " + url);
+  /**
+   * @return statistics of feed operations which were requested at least once
+   */
+  @NotNull
+  public List<FeedOperationStatistics> getOperationStatistics() {
+    final List<FeedOperationStatistics> result = new ArrayList<FeedOperationStatistics>();
+    for (FeedOperationStatistics statistics : myOperations.values()) {
+      if (statistics.getCount() > 0) result.add(statistics);
+    }
+    return result;
+  }
+
+  @NotNull
+  public Map<String, Long> getStatistics() {
+    final Map<String, Long> stats = new HashMap<String, Long>();
+    for (FeedOperationStatistics statistics : getOperationStatistics()) {
+      statistics.publish(stats);
+    }
+    return stats;
   }
 
   @NotNull
@@ -67,6 +102,16 @@ public class RecentNuGetRequests {
     return myFeedRequestTimes.size();
   }
 
+  /**
+   * Replaces package ids, versions and search terms with a placeholder,
+   * so requests of the same kind are kept once
+   */
+  @NotNull
+  public static String normalizeRequest(@NotNull final String url) {
+    final String request = QUOTED_LITERAL.matcher(url).replaceAll("'*'");
+    return request.length() > MAX_REQUEST_LENGTH ? request.substring(0, MAX_REQUEST_LENGTH) + "..." : request;
+  }
+
   private long getTime() {
     return new Date().getTime();
   }
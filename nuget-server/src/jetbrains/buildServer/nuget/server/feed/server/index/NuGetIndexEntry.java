@@ -18,23 +18,96 @@ package jetbrains.buildServer.nuget.server.feed.server.index;
 
 import jetbrains.buildServer.nuget.common.PackageInfo;
 import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.nuget.server.util.FrameworkConstraints;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
  * Date: 30.12.11 19:29
+ *
+ * Attributes checked by feed functions for every entry are kept in typed fields.
+ * Rarely used attributes are looked up in the stored package metadata,
+ * which is shared with the metadata entry and is not copied.
  */
 public class NuGetIndexEntry {
+  private static final String[] COMPUTED_ATTRIBUTES = {
+          PackagesIndex.TEAMCITY_BUILD_TYPE_ID,
+          PackagesIndex.TEAMCITY_BUILD_ID,
+          PackagesIndex.TEAMCITY_DOWNLOAD_URL,
+          PackageAttributes.IS_PRERELEASE,
+          PackageAttributes.IS_LATEST_VERSION,
+          PackageAttributes.IS_ABSOLUTE_LATEST_VERSION
+  };
 
   @NotNull private final String myKey;
-  @NotNull private final Map<String, String> myAttributes;
+  @NotNull private final String myId;
+  @NotNull private final String myVersion;
+  @Nullable private final String myBuildTypeId;
+  private final long myBuildId;
+  @Nullable private final String myDownloadUrl;
+  private final boolean myIsPrerelease;
+  private final boolean myIsLatest;
+  private final boolean myIsAbsoluteLatest;
+  @NotNull private final Map<String, String> myMetadata;
+  @Nullable private final Map<String, String> myAddedMetadata;
+  private final boolean myHasComputedAttributes;
+
+  private SemanticVersion mySemanticVersion;
+  private Set<String> myFrameworkConstraints;
 
+  /**
+   * Creates an entry described by the complete attributes map
+   */
   public NuGetIndexEntry(@NotNull String key,
                          @NotNull Map<String, String> attributes) {
     myKey = key;
-    myAttributes = attributes;
+    myId = getRequiredAttribute(key, attributes, PackageAttributes.ID);
+    myVersion = getRequiredAttribute(key, attributes, PackageAttributes.VERSION);
+    myBuildTypeId = attributes.get(PackagesIndex.TEAMCITY_BUILD_TYPE_ID);
+    myBuildId = parseBuildId(attributes.get(PackagesIndex.TEAMCITY_BUILD_ID));
+    myDownloadUrl = attributes.get(PackagesIndex.TEAMCITY_DOWNLOAD_URL);
+    myIsPrerelease = Boolean.parseBoolean(attributes.get(PackageAttributes.IS_PRERELEASE));
+    myIsLatest = Boolean.parseBoolean(attributes.get(PackageAttributes.IS_LATEST_VERSION));
+    myIsAbsoluteLatest = Boolean.parseBoolean(attributes.get(PackageAttributes.IS_ABSOLUTE_LATEST_VERSION));
+    myMetadata = attributes;
+    myAddedMetadata = null;
+    myHasComputedAttributes = false;
+  }
+
+  /**
+   * Creates an entry from the attributes computed by the packages index
+   * @param metadata stored package metadata, used for the rest of attributes
+   * @param addedMetadata attributes added by the index on top of the stored metadata or null
+   */
+  public NuGetIndexEntry(@NotNull String key,
+                         @NotNull String id,
+                         @NotNull String version,
+                         @NotNull String buildTypeId,
+                         long buildId,
+                         @NotNull String downloadUrl,
+                         boolean isPrerelease,
+                         boolean isLatest,
+                         boolean isAbsoluteLatest,
+                         @NotNull Map<String, String> metadata,
+                         @Nullable Map<String, String> addedMetadata) {
+    myKey = key;
+    myId = id;
+    myVersion = version;
+    myBuildTypeId = buildTypeId;
+    myBuildId = buildId;
+    myDownloadUrl = downloadUrl;
+    myIsPrerelease = isPrerelease;
+    myIsLatest = isLatest;
+    myIsAbsoluteLatest = isAbsoluteLatest;
+    myMetadata = metadata;
+    myAddedMetadata = addedMetadata;
+    myHasComputedAttributes = true;
   }
 
   @NotNull
@@ -42,19 +115,136 @@ public class NuGetIndexEntry {
     return myKey;
   }
 
+  /**
+   * @return attribute value or null if the package does not have the attribute
+   */
+  @Nullable
+  public String getAttribute(@NotNull final String name) {
+    if (myHasComputedAttributes) {
+      final String computed = getComputedAttribute(name);
+      if (computed != null) return computed;
+      if (myAddedMetadata != null) {
+        final String added = myAddedMetadata.get(name);
+        if (added != null) return added;
+      }
+    }
+    return myMetadata.get(name);
+  }
+
+  /**
+   * Creates a new map with all package attributes,
+   * use {@link #getAttribute(String)} to look up a single attribute
+   */
   @NotNull
   public Map<String, String> getAttributes() {
-    return myAttributes;
+    if (!myHasComputedAttributes) return myMetadata;
+
+    final Map<String, String> attributes = new HashMap<String, String>(myMetadata);
+    if (myAddedMetadata != null) attributes.putAll(myAddedMetadata);
+    for (String name : COMPUTED_ATTRIBUTES) {
+      attributes.put(name, getComputedAttribute(name));
+    }
+    return attributes;
+  }
+
+  @NotNull
+  public String getId() {
+    return myId;
+  }
+
+  @NotNull
+  public String getVersion() {
+    return myVersion;
+  }
+
+  /**
+   * @return parsed package version or null if the version is not a valid semantic version
+   */
+  @Nullable
+  public SemanticVersion getSemanticVersion() {
+    //races here only lead to the same version parsed twice
+    SemanticVersion version = mySemanticVersion;
+    if (version == null) {
+      mySemanticVersion = version = SemanticVersion.valueOf(myVersion);
+    }
+    return version;
+  }
+
+  /**
+   * @return shared immutable set of target frameworks supported by the package,
+   * empty set means the package is compatible with all frameworks
+   */
+  @NotNull
+  public Set<String> getFrameworkConstraints() {
+    Set<String> constraints = myFrameworkConstraints;
+    if (constraints == null) {
+      myFrameworkConstraints = constraints = FrameworkConstraints.getSharedConstraints(getAttribute(PackagesIndex.TEAMCITY_FRAMEWORK_CONSTRAINTS));
+    }
+    return constraints;
+  }
+
+  @Nullable
+  public String getBuildTypeId() {
+    return myBuildTypeId;
+  }
+
+  /**
+   * @return id of the build that published the package or -1 if unknown
+   */
+  public long getBuildId() {
+    return myBuildId;
+  }
+
+  public boolean isPrerelease() {
+    return myIsPrerelease;
+  }
+
+  public boolean isLatest() {
+    return myIsLatest;
+  }
+
+  public boolean isAbsoluteLatest() {
+    return myIsAbsoluteLatest;
   }
 
   @NotNull
   public String getPackageDownloadUrl() {
-    return myAttributes.get(PackagesIndex.TEAMCITY_DOWNLOAD_URL);
+    //noinspection ConstantConditions
+    return myDownloadUrl;
   }
 
   @NotNull
   public PackageInfo getPackageInfo() {
-    return new PackageInfo(myAttributes.get(PackageAttributes.ID), myAttributes.get(PackageAttributes.VERSION));
+    return new PackageInfo(myId, myVersion);
+  }
+
+  @Nullable
+  private String getComputedAttribute(@NotNull final String name) {
+    if (PackagesIndex.TEAMCITY_BUILD_TYPE_ID.equals(name)) return myBuildTypeId;
+    if (PackagesIndex.TEAMCITY_BUILD_ID.equals(name)) return String.valueOf(myBuildId);
+    if (PackagesIndex.TEAMCITY_DOWNLOAD_URL.equals(name)) return myDownloadUrl;
+    if (PackageAttributes.IS_PRERELEASE.equals(name)) return String.valueOf(myIsPrerelease);
+    if (PackageAttributes.IS_LATEST_VERSION.equals(name)) return String.valueOf(myIsLatest);
+    if (PackageAttributes.IS_ABSOLUTE_LATEST_VERSION.equals(name)) return String.valueOf(myIsAbsoluteLatest);
+    return null;
+  }
+
+  @NotNull
+  private static String getRequiredAttribute(@NotNull final String key,
+                                             @NotNull final Map<String, String> attributes,
+                                             @NotNull final String name) {
+    final String value = attributes.get(name);
+    if (value == null) throw new IllegalArgumentException("Package " + key + " has no " + name + " attribute");
+    return value;
+  }
+
+  private static long parseBuildId(@Nullable final String buildId) {
+    if (buildId == null) return -1;
+    try {
+      return Long.parseLong(buildId);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
   }
 
   @Override
@@ -17,6 +17,7 @@
 package jetbrains.buildServer.nuget.server.feed.server.index;
 
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexCache;
 import jetbrains.buildServer.serverSide.metadata.impl.indexer.MetadataIndexerService;
 import org.jetbrains.annotations.NotNull;
 
@@ -27,9 +28,13 @@ public class NuGetPackagesIndexer {
 
   @NotNull
   private final MetadataIndexerService myMetadataIndexerService;
+  @NotNull
+  private final PackagesIndexCache myIndexCache;
 
-  public NuGetPackagesIndexer(@NotNull final MetadataIndexerService metadataIndexerService) {
+  public NuGetPackagesIndexer(@NotNull final MetadataIndexerService metadataIndexerService,
+                              @NotNull final PackagesIndexCache indexCache) {
     myMetadataIndexerService = metadataIndexerService;
+    myIndexCache = indexCache;
   }
 
   /**
@@ -37,5 +42,6 @@ public class NuGetPackagesIndexer {
    */
   public void reindexAll() {
     myMetadataIndexerService.reindexProviderData(NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID);
+    myIndexCache.reset();
   }
 }
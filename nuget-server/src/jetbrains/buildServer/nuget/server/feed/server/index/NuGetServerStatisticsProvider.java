@@ -26,4 +26,10 @@ import java.util.Map;
 public interface NuGetServerStatisticsProvider {
   @NotNull
   Map<String, Long> getIndexStatistics();
+
+  /**
+   * @return latency, response cache and traffic counters of feed operations
+   */
+  @NotNull
+  Map<String, Long> getRequestStatistics();
 }
@@ -18,6 +18,7 @@ package jetbrains.buildServer.nuget.server.feed.server.index;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
 import java.util.Iterator;
 
 /**
@@ -40,6 +41,21 @@ public interface PackagesIndex {
   @NotNull
   Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull String packageId);
 
+  /**
+   * Looks up entries of several packages at once
+   * @param packageIds package ids
+   * @return entries of all given packages, each package entries are sorted by version
+   */
+  @NotNull
+  Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull Collection<String> packageIds);
+
   @NotNull
   Iterator<NuGetIndexEntry> search(@NotNull String searchTerm);
+
+  /**
+   * @return entries marked with IsLatestVersion or IsAbsoluteLatestVersion,
+   * at most two entries per package id
+   */
+  @NotNull
+  Iterator<NuGetIndexEntry> getLatestNuGetEntries();
 }
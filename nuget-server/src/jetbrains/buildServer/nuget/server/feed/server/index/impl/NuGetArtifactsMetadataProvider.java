@@ -33,17 +33,22 @@ import jetbrains.buildServer.serverSide.impl.LogUtil;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataProvider;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorageWriter;
 import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.NamedDeamonThreadFactory;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
 import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex.*;
@@ -58,15 +63,31 @@ public class NuGetArtifactsMetadataProvider implements BuildMetadataProvider {
 
   public static final String NUGET_PROVIDER_ID = "nuget";
   private static final String TEAMCITY_NUGET_INDEX_PACKAGES_PROP_NAME = "teamcity.nuget.index.packages";
+  private static final String TEAMCITY_NUGET_INDEX_THREADS_PROP_NAME = "teamcity.nuget.index.threads";
   private static final String SHA512 = "SHA512";
+  private static final String SHA512_DIGEST_ALGORITHM = "SHA-512";
 
   private final ResponseCacheReset myReset;
   @NotNull
   private final NuGetServerSettings myFeedSettings;
+  @NotNull
+  private final PackagesIndexCache myIndexCache;
+  @NotNull
+  private final ThreadPoolExecutor myExecutor;
 
-  public NuGetArtifactsMetadataProvider(@NotNull final ResponseCacheReset reset, @NotNull final NuGetServerSettings feedSettings) {
+  public NuGetArtifactsMetadataProvider(@NotNull final ResponseCacheReset reset,
+                                        @NotNull final NuGetServerSettings feedSettings,
+                                        @NotNull final PackagesIndexCache indexCache) {
     myReset = reset;
     myFeedSettings = feedSettings;
+    myIndexCache = indexCache;
+    final int threads = Math.max(1, TeamCityProperties.getInteger(TEAMCITY_NUGET_INDEX_THREADS_PROP_NAME, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    myExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedDeamonThreadFactory("NuGet Packages Indexer"));
+    myExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  public void dispose() {
+    myExecutor.shutdownNow();
   }
 
   @NotNull
@@ -74,7 +95,7 @@ public class NuGetArtifactsMetadataProvider implements BuildMetadataProvider {
     return NUGET_PROVIDER_ID;
   }
 
-  public void generateMedatadata(@NotNull SBuild build, @NotNull MetadataStorageWriter store) {
+  public void generateMedatadata(@NotNull final SBuild build, @NotNull MetadataStorageWriter store) {
     if(!myFeedSettings.isNuGetServerEnabled()){
       LOG.debug(String.format("Skip NuGet metadata generation for build %s. NuGet feed disabled.", LogUtil.describe(build)));
       return;
@@ -93,15 +114,43 @@ public class NuGetArtifactsMetadataProvider implements BuildMetadataProvider {
     final List<BuildArtifact> packages = new ArrayList<BuildArtifact>();
     visitArtifacts(build.getArtifacts(BuildArtifactsViewMode.VIEW_ALL).getRootArtifact(), packages);
 
-    for (BuildArtifact aPackage : packages) {
-      LOG.info("Indexing NuGet package from artifact " + aPackage.getRelativePath() + " of build " + LogUtil.describe(build));
+    if (packages.isEmpty()) return;
+
+    //packages are read in parallel, while metadata storage is only updated from the calling thread
+    final List<Future<Map<String, String>>> results = new ArrayList<Future<Map<String, String>>>(packages.size());
+    for (final BuildArtifact aPackage : packages) {
+      results.add(myExecutor.submit(new Callable<Map<String, String>>() {
+        public Map<String, String> call() throws PackageLoadException {
+          LOG.info("Indexing NuGet package from artifact " + aPackage.getRelativePath() + " of build " + LogUtil.describe(build));
+          return generateMetadataForPackage(build, aPackage);
+        }
+      }));
+    }
+
+    for (int i = 0; i < packages.size(); i++) {
+      final BuildArtifact aPackage = packages.get(i);
+      final Map<String, String> metadata;
       try {
-        final Map<String, String> metadata = generateMetadataForPackage(build, aPackage);
-        myReset.resetCache();
-        store.addParameters(metadata.get(PackageAttributes.ID), metadata);
-      } catch (PackageLoadException e) {
-        LOG.warn("Failed to read NuGet package: " + aPackage);
+        metadata = results.get(i).get();
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted NuGet metadata generation for build " + LogUtil.describe(build));
+        for (Future<Map<String, String>> result : results) {
+          result.cancel(true);
+        }
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof PackageLoadException) {
+          LOG.warn("Failed to read NuGet package: " + aPackage);
+        } else {
+          LOG.warn("Failed to read NuGet package: " + aPackage + ". " + e.getCause(), e.getCause());
+        }
+        continue;
       }
+      final String key = metadata.get(PackageAttributes.ID);
+      store.addParameters(key, metadata);
+      myIndexCache.addEntry(build.getBuildId(), key, metadata);
+      myReset.resetPackage(key);
     }
   }
 
@@ -109,10 +158,12 @@ public class NuGetArtifactsMetadataProvider implements BuildMetadataProvider {
     final LocalNuGetPackageItemsFactory packageItemsFactory = LocalNuGetPackageItemsFactory.createForBuild(build);
     final FrameworkConstraintsCalculator frameworkConstraintsCalculator = new FrameworkConstraintsCalculator();
     final List<NuGetPackageStructureAnalyser> analysers = Lists.newArrayList(frameworkConstraintsCalculator, packageItemsFactory);
-    new NuGetPackageStructureVisitor(analysers).visit(aPackage);
+    final MessageDigest digest = createSha512Digest();
+    final File packageFile = new File(build.getArtifactsDirectory(), aPackage.getRelativePath());
+    final boolean digestComplete = new NuGetPackageStructureVisitor(analysers).visit(aPackage, packageFile, digest);
 
     final Map<String,String> metadata = packageItemsFactory.getItems();
-    metadata.put(PACKAGE_HASH, sha512(aPackage));
+    metadata.put(PACKAGE_HASH, digestComplete && digest != null ? encodeHash(digest.digest()) : sha512(aPackage));
     metadata.put(PACKAGE_HASH_ALGORITHM, SHA512);
     metadata.put(PACKAGE_SIZE, String.valueOf(aPackage.getSize()));
     metadata.put(TEAMCITY_ARTIFACT_RELPATH, aPackage.getRelativePath());
@@ -146,13 +197,27 @@ public class NuGetArtifactsMetadataProvider implements BuildMetadataProvider {
     InputStream is = null;
     try {
       is = new BufferedInputStream(aPackage.getInputStream());
-      final byte[] hash = DigestUtils.sha512(is);
-      //Buggy commons.codes added unnecessary newlines
-      return Base64.encodeBase64String(hash).replaceAll("[\r\n]+", "");
+      return encodeHash(DigestUtils.sha512(is));
     } catch (IOException e) {
       throw new PackageLoadException("Failed to compute SHA-512 for " + aPackage);
     } finally {
       FileUtil.close(is);
     }
   }
+
+  @NotNull
+  private static String encodeHash(@NotNull final byte[] hash) {
+    //Buggy commons.codes added unnecessary newlines
+    return Base64.encodeBase64String(hash).replaceAll("[\r\n]+", "");
+  }
+
+  @Nullable
+  private static MessageDigest createSha512Digest() {
+    try {
+      return MessageDigest.getInstance(SHA512_DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      LOG.debug(e);
+      return null;
+    }
+  }
 }
@@ -33,18 +33,31 @@ import static jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex
 */
 public class NuGetPackageBuilder {
 
+  private final Map<String, String> myMetadata;
   private final String myKey;
+  private final String myId;
   private final String myVersion;
   private final long myBuildId;
-  private final Map<String, String> myMetadata;
+  private String myBuildTypeId;
   private String myExternalId = null;
+  private String myDownloadUrl;
+  private boolean myIsPrerelease;
+  private boolean myIsLatest;
+  private boolean myIsAbsoluteLatest;
+  private Map<String, String> myAddedMetadata = null;
 
   public NuGetPackageBuilder(@NotNull final BuildMetadataEntry entry) {
-    myMetadata = new HashMap<String, String>(entry.getMetadata());
+    //stored metadata is passed to the index entry as is, computed attributes are kept in fields
+    myMetadata = entry.getMetadata();
+    myId = myMetadata.get(ID);
     myVersion = myMetadata.get(VERSION);
     myKey = entry.getKey() + "." + myVersion;
     myBuildId = entry.getBuildId();
-    setMetadata(TEAMCITY_BUILD_ID, String.valueOf(myBuildId));
+    myBuildTypeId = myMetadata.get(TEAMCITY_BUILD_TYPE_ID);
+    myDownloadUrl = myMetadata.get(TEAMCITY_DOWNLOAD_URL);
+    myIsPrerelease = Boolean.parseBoolean(myMetadata.get(IS_PRERELEASE));
+    myIsLatest = Boolean.parseBoolean(myMetadata.get(IS_LATEST_VERSION));
+    myIsAbsoluteLatest = Boolean.parseBoolean(myMetadata.get(IS_ABSOLUTE_LATEST_VERSION));
   }
 
   @NotNull
@@ -58,7 +71,7 @@ public class NuGetPackageBuilder {
 
   @NotNull
   public String getPackageName() {
-    return myMetadata.get(ID);
+    return myId;
   }
 
   @NotNull
@@ -67,21 +80,28 @@ public class NuGetPackageBuilder {
   }
 
   public void setPrerelease(boolean isPrerelease) {
-    setMetadata(IS_PRERELEASE, String.valueOf(isPrerelease));
+    myIsPrerelease = isPrerelease;
   }
 
   public boolean isPrerelease() {
-    return Boolean.valueOf(myMetadata.get(IS_PRERELEASE));
+    return myIsPrerelease;
   }
 
-  @NotNull
-  public Map<String, String> getMetadata() {
-    return myMetadata;
+  /**
+   * @return value added with {@link #setMetadata(String, String)} or the stored metadata value
+   */
+  @Nullable
+  public String getMetadata(@NotNull final String key) {
+    if (myAddedMetadata != null) {
+      final String value = myAddedMetadata.get(key);
+      if (value != null) return value;
+    }
+    return myMetadata.get(key);
   }
 
   @Nullable
   public String getBuildTypeId() {
-    return myMetadata.get(TEAMCITY_BUILD_TYPE_ID);
+    return myBuildTypeId;
   }
 
   @Nullable
@@ -90,7 +110,7 @@ public class NuGetPackageBuilder {
   }
 
   public void setBuildTypeId(@NotNull String buildTypeId) {
-    setMetadata(TEAMCITY_BUILD_TYPE_ID, buildTypeId);
+    myBuildTypeId = buildTypeId;
   }
 
   public void setBuildTypeExternalId(@NotNull String externalId) {
@@ -98,36 +118,47 @@ public class NuGetPackageBuilder {
   }
 
   public void setDownloadUrl(@NotNull final String downloadUrl) {
-    setMetadata(TEAMCITY_DOWNLOAD_URL, downloadUrl);
+    myDownloadUrl = downloadUrl;
   }
 
   @Nullable
   public String getDownloadUrl() {
-    return myMetadata.get(TEAMCITY_DOWNLOAD_URL);
+    return myDownloadUrl;
   }
 
   public void setMetadata(@NotNull final String key, @NotNull final String value) {
-    myMetadata.put(key, value);
+    if (myAddedMetadata == null) {
+      myAddedMetadata = new HashMap<String, String>(2);
+    }
+    myAddedMetadata.put(key, value);
   }
 
   public void setIsAbsoluteLatest(boolean isAbsoluteLatest) {
-    setMetadata(IS_ABSOLUTE_LATEST_VERSION, String.valueOf(isAbsoluteLatest));
+    myIsAbsoluteLatest = isAbsoluteLatest;
   }
 
   public void setIsLatest(boolean isLatest) {
-    setMetadata(IS_LATEST_VERSION, String.valueOf(isLatest));
+    myIsLatest = isLatest;
   }
 
   @Nullable
   public NuGetIndexEntry build() {
-    if (getDownloadUrl() == null) return null;
-    if (getBuildTypeId() == null) return null;
+    if (myId == null || myVersion == null) return null;
+    if (myDownloadUrl == null) return null;
+    if (myBuildTypeId == null) return null;
 
-    if (myMetadata.get(IS_LATEST_VERSION) == null) setIsLatest(false);
-    if (myMetadata.get(IS_ABSOLUTE_LATEST_VERSION) == null) setIsAbsoluteLatest(false);
     return new NuGetIndexEntry(
             myKey,
-            myMetadata
+            myId,
+            myVersion,
+            myBuildTypeId,
+            myBuildId,
+            myDownloadUrl,
+            myIsPrerelease,
+            myIsLatest,
+            myIsAbsoluteLatest,
+            myMetadata,
+            myAddedMetadata
     );
   }
 }
@@ -27,11 +27,12 @@ import org.jdom.JDOMException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Collection;
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.*;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -49,11 +50,92 @@ public class NuGetPackageStructureVisitor {
 
   public void visit(@NotNull BuildArtifact artifact) throws PackageLoadException {
     if(myAnalysers.isEmpty()) return;
+    visit(artifact, null, null);
+  }
+
+  /**
+   * Visits package entries and feeds every byte of the artifact to the given digest.
+   * A streamed artifact is hashed within the same read. A local file is hashed with
+   * one more sequential read, which is cheaper than inflating all entries of the stream.
+   * @param packageFile local file of the artifact if any, entries are then listed from the zip central directory
+   * and only .nuspec file is inflated
+   * @return true if the whole artifact was read and the digest is complete
+   */
+  public boolean visit(@NotNull BuildArtifact artifact, @Nullable File packageFile, @Nullable MessageDigest digest) throws PackageLoadException {
+    if (packageFile != null && packageFile.isFile() && packageFile.length() == artifact.getSize()) {
+      try {
+        visitZipFile(packageFile);
+        return digest == null || updateDigest(packageFile, digest);
+      } catch (IOException e) {
+        LOG.debug(String.format("Failed to read NuGet package %s as zip file, falling back to streaming. %s", packageFile, e.getMessage()));
+        if (digest != null) digest.reset();
+      }
+    }
+    return visitStream(artifact, digest);
+  }
+
+  private void visitZipFile(@NotNull File packageFile) throws IOException {
+    //analysers get entries only once the whole file is read, so the streaming fallback does not repeat them
+    final List<String> entryNames = new ArrayList<String>();
+    final Map<String, NuspecFileContent> nuspecFiles = new LinkedHashMap<String, NuspecFileContent>(1);
+    final ZipFile zipFile = new ZipFile(packageFile);
+    final String nugetPackageName = packageFile.getName();
+    try {
+      final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        final ZipEntry zipEntry = entries.nextElement();
+        if(zipEntry.isDirectory()) continue;
+        final String zipEntryName = zipEntry.getName();
+        entryNames.add(zipEntryName);
+        if (zipEntryName.endsWith(FeedConstants.NUSPEC_FILE_EXTENSION)) {
+          LOG.debug(String.format("Nuspec file found on path %s in NuGet package %s", zipEntryName, nugetPackageName));
+          final InputStream nuspecStream = zipFile.getInputStream(zipEntry);
+          try {
+            nuspecFiles.put(zipEntryName, readNuspecFileContent(nuspecStream));
+          } finally {
+            FileUtil.close(nuspecStream);
+          }
+        }
+      }
+    } finally {
+      zipFile.close();
+    }
+
+    for (String zipEntryName : entryNames) {
+      for(NuGetPackageStructureAnalyser analyser : myAnalysers){
+        analyser.analyseEntry(zipEntryName);
+      }
+      if (nuspecFiles.containsKey(zipEntryName)) {
+        analyseNuspecFile(nuspecFiles.get(zipEntryName), nugetPackageName);
+      }
+    }
+  }
+
+  private boolean updateDigest(@NotNull File packageFile, @NotNull MessageDigest digest) {
+    InputStream stream = null;
+    try {
+      stream = new FileInputStream(packageFile);
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = stream.read(buffer)) >= 0) {
+        digest.update(buffer, 0, read);
+      }
+      return true;
+    } catch (IOException e) {
+      LOG.warn("Failed to read content of NuGet package " + packageFile);
+      return false;
+    } finally {
+      FileUtil.close(stream);
+    }
+  }
+
+  private boolean visitStream(@NotNull BuildArtifact artifact, @Nullable MessageDigest digest) throws PackageLoadException {
     ZipInputStream zipInputStream = null;
     InputStream stream = null;
     final String nugetPackageName = artifact.getName();
     try {
       stream = artifact.getInputStream();
+      if (digest != null) stream = new DigestInputStream(stream, digest);
       zipInputStream = new ZipInputStream(new BufferedInputStream(stream));
       ZipEntry zipEntry;
       while ((zipEntry = zipInputStream.getNextEntry()) != null) {
@@ -64,17 +146,17 @@ public class NuGetPackageStructureVisitor {
         }
         if (zipEntryName.endsWith(FeedConstants.NUSPEC_FILE_EXTENSION)) {
           LOG.debug(String.format("Nuspec file found on path %s in NuGet package %s", zipEntryName, nugetPackageName));
-          final NuspecFileContent nuspecContent = readNuspecFileContent(zipInputStream);
-          if (nuspecContent == null)
-            LOG.warn("Failed to read .nuspec file content from NuGet package " + nugetPackageName);
-          else {
-            for(NuGetPackageStructureAnalyser analyser : myAnalysers){
-              analyser.analyseNuspecFile(nuspecContent);
-            }
-          }
+          analyseNuspecFile(readNuspecFileContent(zipInputStream), nugetPackageName);
           zipInputStream.closeEntry();
         }
       }
+      if (digest != null) {
+        //zip central directory is not read by ZipInputStream
+        final byte[] buffer = new byte[8192];
+        //noinspection StatementWithEmptyBody
+        while (stream.read(buffer) >= 0);
+      }
+      return true;
     } catch (IOException e) {
       LOG.warn("Failed to read content of NuGet package " + nugetPackageName);
       if(zipInputStream != null){
@@ -84,13 +166,24 @@ public class NuGetPackageStructureVisitor {
           //NOP
         }
       }
+      return false;
     } finally {
       FileUtil.close(stream);
     }
   }
 
+  private void analyseNuspecFile(@Nullable NuspecFileContent nuspecContent, @NotNull String nugetPackageName) {
+    if (nuspecContent == null)
+      LOG.warn("Failed to read .nuspec file content from NuGet package " + nugetPackageName);
+    else {
+      for(NuGetPackageStructureAnalyser analyser : myAnalysers){
+        analyser.analyseNuspecFile(nuspecContent);
+      }
+    }
+  }
+
   @Nullable
-  private NuspecFileContent readNuspecFileContent(final ZipInputStream finalZipInputStream) throws IOException {
+  private NuspecFileContent readNuspecFileContent(final InputStream finalZipInputStream) throws IOException {
     try {
       final Element document = FileUtil.parseDocument(new InputStream() {
         @Override
@@ -98,6 +191,11 @@ public class NuGetPackageStructureVisitor {
           return finalZipInputStream.read();
         }
 
+        @Override
+        public int read(@NotNull byte[] b, int off, int len) throws IOException {
+          return finalZipInputStream.read(b, off, len);
+        }
+
         @Override
         public void close() throws IOException {
           //do nothing, should avoid stream closing by xml parse util
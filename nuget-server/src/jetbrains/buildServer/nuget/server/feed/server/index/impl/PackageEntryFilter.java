@@ -0,0 +1,29 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Implemented by transformations able to reject a metadata entry
+ * before it is copied into {@link NuGetPackageBuilder}
+ */
+public interface PackageEntryFilter {
+  @NotNull
+  PackageTransformation.Status applyEntryFilter(@NotNull final BuildMetadataEntry entry);
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import com.google.common.base.Objects;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.FeedRequestContext;
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.latest.LatestCalculator;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.latest.LatestVersionsCalculator;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Lazily converts metadata entries sorted by package id and version into
+ * index entries. Latest version flags are computed one package id at a time,
+ * so only versions of a single package are kept in memory.
+ */
+public class PackageGroupsIterator implements Iterator<NuGetIndexEntry> {
+  private final Iterator<BuildMetadataEntry> myEntries;
+  private final Collection<PackageTransformation> myTransformations;
+  private final Deque<NuGetIndexEntry> myGroup = new ArrayDeque<NuGetIndexEntry>();
+  private NuGetPackageBuilder myNextGroupStart = null;
+  private int myScannedEntries = 0;
+
+  public PackageGroupsIterator(@NotNull final Iterator<BuildMetadataEntry> sortedEntries,
+                               @NotNull final Collection<PackageTransformation> transformations) {
+    myEntries = sortedEntries;
+    myTransformations = transformations;
+  }
+
+  public boolean hasNext() {
+    while (myGroup.isEmpty()) {
+      if (!fetchNextGroup()) return false;
+    }
+    return true;
+  }
+
+  @NotNull
+  public NuGetIndexEntry next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    return myGroup.removeFirst();
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  private boolean fetchNextGroup() {
+    NuGetPackageBuilder first = myNextGroupStart;
+    myNextGroupStart = null;
+    if (first == null) first = nextBuilder();
+    if (first == null) {
+      reportScannedEntries();
+      return false;
+    }
+
+    final List<NuGetPackageBuilder> group = new ArrayList<NuGetPackageBuilder>();
+    final LatestCalculator latestPackages = new LatestVersionsCalculator();
+    NuGetPackageBuilder builder = first;
+    while (builder != null) {
+      if (!Objects.equal(first.getPackageName(), builder.getPackageName())) {
+        myNextGroupStart = builder;
+        break;
+      }
+      latestPackages.updatePackage(builder);
+      group.add(builder);
+      builder = nextBuilder();
+    }
+    latestPackages.updateSelectedPackages();
+
+    for (NuGetPackageBuilder pb : group) {
+      final NuGetIndexEntry entry = pb.build();
+      if (entry != null) myGroup.addLast(entry);
+    }
+    reportScannedEntries();
+    return true;
+  }
+
+  private void reportScannedEntries() {
+    if (myScannedEntries == 0) return;
+    FeedRequestContext.entriesScanned(myScannedEntries);
+    myScannedEntries = 0;
+  }
+
+  @Nullable
+  private NuGetPackageBuilder nextBuilder() {
+    while (myEntries.hasNext()) {
+      myScannedEntries++;
+      final NuGetPackageBuilder builder = PackagesIndexImpl.applyTransformation(myEntries.next(), myTransformations);
+      if (builder != null) return builder;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,668 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseCacheReset;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID;
+
+/**
+ * Long-lived copy of NuGet metadata entries sorted by package id and version.
+ * The copy is loaded from {@link MetadataStorage} on first access and is
+ * updated incrementally as packages are indexed or builds are removed.
+ *
+ * Reads are lock-free, modifications are serialized.
+ */
+public class PackagesIndexCache {
+  private static final Logger LOG = Logger.getInstance(PackagesIndexCache.class.getName());
+
+  private static final Function<PackageVersion, Iterator<BuildMetadataEntry>> VERSION_ENTRIES = new Function<PackageVersion, Iterator<BuildMetadataEntry>>() {
+    public Iterator<BuildMetadataEntry> apply(@NotNull PackageVersion version) {
+      return version.getEntries().iterator();
+    }
+  };
+
+  private final MetadataStorage myStorage;
+  private final ResponseCacheReset myReset;
+  private final Object myLock = new Object();
+  private final Map<Long, Collection<PackageKey>> myBuildKeys = new HashMap<Long, Collection<PackageKey>>();
+  private volatile ConcurrentSkipListMap<PackageKey, PackageVersion> myVersions = null;
+  private volatile PackagesSearchIndex<PackageKey> mySearchIndex = null;
+  private volatile int myLoadedEntriesCount = 0;
+  private volatile boolean myLoading = false;
+  /** changes made while a snapshot is being read, null unless a restore is started */
+  private List<PendingChange> myPendingChanges = null;
+
+  public PackagesIndexCache(@NotNull final MetadataStorage storage,
+                            @NotNull final EventDispatcher<BuildServerListener> events,
+                            @NotNull final ResponseCacheReset reset) {
+    myStorage = storage;
+    myReset = reset;
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void entryDeleted(@NotNull SFinishedBuild oldEntry) {
+        removeBuild(oldEntry.getBuildId());
+        //responses are dropped once the index is updated, so they are not cached again from the old index
+        myReset.resetBuildType(oldEntry.getBuildTypeId());
+      }
+    });
+  }
+
+  /**
+   * @return all entries sorted by package id, version and newer builds first
+   */
+  @NotNull
+  public Iterator<BuildMetadataEntry> getAllEntries() {
+    return flatten(getVersions().values().iterator());
+  }
+
+  /**
+   * @param packageId package id
+   * @return entries of the package sorted by version and newer builds first
+   */
+  @NotNull
+  public Iterator<BuildMetadataEntry> getEntries(@NotNull final String packageId) {
+    return flatten(getVersions(getVersions(), packageId).values().iterator());
+  }
+
+  /**
+   * @param packageIds package ids
+   * @return entries of the packages sorted by package id, version and newer builds first
+   */
+  @NotNull
+  public Iterator<BuildMetadataEntry> getEntries(@NotNull final Collection<String> packageIds) {
+    final ConcurrentSkipListMap<PackageKey, PackageVersion> versions = getVersions();
+    //ids are sorted the same way as keys, so packages come in index order
+    return Iterators.concat(Iterators.transform(new TreeSet<String>(packageIds).iterator(), new Function<String, Iterator<BuildMetadataEntry>>() {
+      public Iterator<BuildMetadataEntry> apply(@NotNull String packageId) {
+        return flatten(getVersions(versions, packageId).values().iterator());
+      }
+    }));
+  }
+
+  /**
+   * @param packageId package id
+   * @return versions of the package starting from the highest one
+   */
+  @NotNull
+  public Iterator<PackageVersion> getVersionsDescending(@NotNull final String packageId) {
+    return getVersions(getVersions(), packageId).descendingMap().values().iterator();
+  }
+
+  /**
+   * @return distinct package ids in index order
+   */
+  @NotNull
+  public Iterator<String> getPackageIds() {
+    final ConcurrentSkipListMap<PackageKey, PackageVersion> versions = getVersions();
+    return new Iterator<String>() {
+      private PackageKey myNext = versions.isEmpty() ? null : firstKey(versions);
+
+      public boolean hasNext() {
+        return myNext != null;
+      }
+
+      @NotNull
+      public String next() {
+        if (myNext == null) throw new NoSuchElementException();
+        final String id = myNext.myId;
+        //jump over all versions of the package, O(log n)
+        myNext = versions.higherKey(PackageKey.last(id));
+        return id;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Finds entries with the search term being a substring of one of
+   * {@link PackagesIndexImpl#PACKAGE_ATTRIBUTES_TO_SEARCH} ignoring case
+   * @param searchTerm search term
+   * @return matched entries sorted by package id, version and newer builds first
+   * or null if the search index is not built
+   */
+  @Nullable
+  public Iterator<BuildMetadataEntry> search(@NotNull final String searchTerm) {
+    final ConcurrentSkipListMap<PackageKey, PackageVersion> versions = getVersions();
+    if (searchTerm.trim().length() == 0) return flatten(versions.values().iterator());
+
+    final PackagesSearchIndex<PackageKey> searchIndex = mySearchIndex;
+    if (searchIndex == null) return null;
+
+    final String term = PackagesSearchIndex.normalize(searchTerm);
+    final Set<PackageKey> candidates = searchIndex.findCandidates(term);
+    //too short terms are checked against every cached package
+    final Collection<PackageVersion> toCheck;
+    if (candidates == null) {
+      toCheck = versions.values();
+    } else {
+      toCheck = new ArrayList<PackageVersion>(candidates.size());
+      for (PackageKey key : new TreeSet<PackageKey>(candidates)) {
+        final PackageVersion version = versions.get(key);
+        if (version != null) toCheck.add(version);
+      }
+    }
+
+    final List<BuildMetadataEntry> result = new ArrayList<BuildMetadataEntry>();
+    for (PackageVersion version : toCheck) {
+      for (BuildMetadataEntry entry : version.getEntries()) {
+        if (PackagesSearchIndex.contains(term, getSearchableValues(entry))) result.add(entry);
+      }
+    }
+    return result.iterator();
+  }
+
+  /**
+   * Sorts given entries in the same order as the cache does
+   * @param entries entries to sort
+   * @return sorted entries
+   */
+  @NotNull
+  public static Iterator<BuildMetadataEntry> sort(@NotNull final Iterator<BuildMetadataEntry> entries) {
+    final SortedMap<PackageKey, PackageVersion> result = new TreeMap<PackageKey, PackageVersion>();
+    while (entries.hasNext()) {
+      final BuildMetadataEntry entry = entries.next();
+      final PackageKey key = PackageKey.create(entry);
+      result.put(key, PackageVersion.add(result.get(key), entry));
+    }
+    return flatten(result.values().iterator());
+  }
+
+  public void addEntry(final long buildId, @NotNull final String key, @NotNull final Map<String, String> metadata) {
+    synchronized (myLock) {
+      final CachedEntry entry = new CachedEntry(buildId, key, metadata);
+      final ConcurrentSkipListMap<PackageKey, PackageVersion> versions = myVersions;
+      if (versions == null) {
+        //will be loaded from the storage on next request, a snapshot being restored lacks the entry
+        if (myPendingChanges != null) myPendingChanges.add(new PendingChange(buildId, entry));
+        return;
+      }
+
+      addEntry(versions, mySearchIndex, entry);
+    }
+  }
+
+  public void removeBuild(final long buildId) {
+    synchronized (myLock) {
+      final ConcurrentSkipListMap<PackageKey, PackageVersion> versions = myVersions;
+      if (versions == null) {
+        if (myPendingChanges != null) myPendingChanges.add(new PendingChange(buildId, null));
+        return;
+      }
+
+      removeBuild(versions, mySearchIndex, buildId);
+    }
+  }
+
+  /**
+   * Loads the cache from the storage unless it is loaded already
+   */
+  public void warmUp() {
+    getVersions();
+  }
+
+  /**
+   * Starts restoring the cache from a snapshot. Entries added and builds removed
+   * until {@link #restore} is called are applied on top of the snapshot entries
+   * @return false if the cache is loaded already
+   */
+  public boolean startRestore() {
+    synchronized (myLock) {
+      if (myVersions != null) return false;
+      myPendingChanges = new ArrayList<PendingChange>();
+      myLoading = true;
+      return true;
+    }
+  }
+
+  /**
+   * Loads the cache from previously saved entries unless it is loaded already.
+   * Snapshot is ignored if the cache was reset since {@link #startRestore}
+   * @param entries entries saved with {@link PackagesIndexSnapshot}
+   * @return true if the cache was loaded from the entries
+   */
+  public boolean restore(@NotNull final Iterator<BuildMetadataEntry> entries) {
+    synchronized (myLock) {
+      final List<PendingChange> changes = myPendingChanges;
+      myPendingChanges = null;
+      if (changes == null || myVersions != null) {
+        LOG.debug("NuGet packages index snapshot is outdated and ignored");
+        return false;
+      }
+      load(entries, changes);
+      return true;
+    }
+  }
+
+  /**
+   * Compares the number of entries and the highest build id with the storage,
+   * e.g. to check entries restored from a snapshot. Modifications wait for the storage to be read
+   * @return true if the cache is loaded and matches the storage
+   */
+  public boolean isUpToDate() {
+    synchronized (myLock) {
+      if (myVersions == null) return false;
+
+      long count = 0;
+      long maxBuildId = -1;
+      final Iterator<BuildMetadataEntry> it = myStorage.getAllEntries(NUGET_PROVIDER_ID);
+      while (it.hasNext()) {
+        count++;
+        maxBuildId = Math.max(maxBuildId, it.next().getBuildId());
+      }
+
+      long loadedMaxBuildId = -1;
+      for (Long buildId : myBuildKeys.keySet()) {
+        loadedMaxBuildId = Math.max(loadedMaxBuildId, buildId);
+      }
+      return count == myLoadedEntriesCount && maxBuildId == loadedMaxBuildId;
+    }
+  }
+
+  /**
+   * Stops restoring the cache started with {@link #startRestore} if it was not restored,
+   * the cache is loaded from the storage on next request then
+   */
+  public void cancelRestore() {
+    synchronized (myLock) {
+      if (myPendingChanges == null) return;
+      myPendingChanges = null;
+      myLoading = false;
+    }
+  }
+
+  public boolean isLoaded() {
+    return myVersions != null;
+  }
+
+  /**
+   * @return true while the cache is being loaded from the storage or restored from a snapshot
+   */
+  public boolean isLoading() {
+    return myLoading;
+  }
+
+  /**
+   * @return number of entries in the cache, grows while the cache is being loaded
+   */
+  public int getLoadedEntriesCount() {
+    return myLoadedEntriesCount;
+  }
+
+  public long getEntriesCount() {
+    long count = 0;
+    for (PackageVersion version : getVersions().values()) {
+      count += version.myEntries.size();
+    }
+    return count;
+  }
+
+  public long getBuildsCount() {
+    getVersions();
+    synchronized (myLock) {
+      return myBuildKeys.size();
+    }
+  }
+
+  public long getPackageIdsCount() {
+    long count = 0;
+    final Iterator<String> ids = getPackageIds();
+    while (ids.hasNext()) {
+      ids.next();
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Drops all cached entries and responses built from them,
+   * the cache is reloaded from the storage on next request
+   */
+  public void reset() {
+    synchronized (myLock) {
+      myVersions = null;
+      mySearchIndex = null;
+      myLoadedEntriesCount = 0;
+      myBuildKeys.clear();
+      //a snapshot being restored misses changes made before the reset
+      if (myPendingChanges != null) {
+        myPendingChanges = null;
+        myLoading = false;
+      }
+    }
+    myReset.resetCache();
+  }
+
+  /**
+   * Reloads the cache from the storage. Requests are served from the loaded entries
+   * until the reloaded ones replace them, modifications wait for the reload.
+   * The cache is reset if it is not loaded yet
+   */
+  public void rebuild() {
+    synchronized (myLock) {
+      if (myVersions == null) {
+        reset();
+        return;
+      }
+      try {
+        doLoad(null, Collections.<PendingChange>emptyList());
+      } catch (RuntimeException e) {
+        //builds of the loaded entries are not known anymore
+        reset();
+        throw e;
+      }
+    }
+    myReset.resetCache();
+  }
+
+  @NotNull
+  private ConcurrentSkipListMap<PackageKey, PackageVersion> getVersions() {
+    final ConcurrentSkipListMap<PackageKey, PackageVersion> loaded = myVersions;
+    if (loaded != null) return loaded;
+    return load(null, Collections.<PendingChange>emptyList());
+  }
+
+  /**
+   * @param entries entries to load or null to read them from the storage
+   * @param changes changes to apply after the entries are loaded
+   */
+  @NotNull
+  private ConcurrentSkipListMap<PackageKey, PackageVersion> load(@Nullable final Iterator<BuildMetadataEntry> entries,
+                                                                 @NotNull final List<PendingChange> changes) {
+    synchronized (myLock) {
+      if (myVersions != null) return myVersions;
+      return doLoad(entries, changes);
+    }
+  }
+
+  /**
+   * Loads entries and replaces loaded ones, if any. Must be called under the lock
+   */
+  @NotNull
+  private ConcurrentSkipListMap<PackageKey, PackageVersion> doLoad(@Nullable final Iterator<BuildMetadataEntry> entries,
+                                                                   @NotNull final List<PendingChange> changes) {
+    myLoading = true;
+    try {
+      final long start = System.currentTimeMillis();
+      final ConcurrentSkipListMap<PackageKey, PackageVersion> versions = new ConcurrentSkipListMap<PackageKey, PackageVersion>();
+      final PackagesSearchIndex<PackageKey> searchIndex = new PackagesSearchIndex<PackageKey>();
+      final Iterator<BuildMetadataEntry> it = entries != null ? entries : myStorage.getAllEntries(NUGET_PROVIDER_ID);
+      myBuildKeys.clear();
+      myLoadedEntriesCount = 0;
+      while (it.hasNext()) {
+        addEntry(versions, searchIndex, it.next());
+      }
+      for (PendingChange change : changes) {
+        if (change.myEntry != null) {
+          addEntry(versions, searchIndex, change.myEntry);
+        } else {
+          removeBuild(versions, searchIndex, change.myBuildId);
+        }
+      }
+
+      mySearchIndex = searchIndex;
+      myVersions = versions;
+      LOG.info("Loaded " + myLoadedEntriesCount + " NuGet packages into the feed index " +
+              (entries != null ? "from snapshot with " + changes.size() + " later changes " : "") +
+              "in " + (System.currentTimeMillis() - start) + "ms");
+      return versions;
+    } finally {
+      myLoading = false;
+    }
+  }
+
+  private void addEntry(@NotNull final ConcurrentSkipListMap<PackageKey, PackageVersion> versions,
+                        @Nullable final PackagesSearchIndex<PackageKey> searchIndex,
+                        @NotNull final BuildMetadataEntry entry) {
+    final PackageKey key = PackageKey.create(entry);
+    final PackageVersion version = versions.get(key);
+    final PackageVersion updated = PackageVersion.add(version, entry);
+    versions.put(key, updated);
+    myLoadedEntriesCount += updated.myEntries.size() - (version == null ? 0 : version.myEntries.size());
+    if (searchIndex != null) searchIndex.add(key, getSearchableValues(entry));
+
+    Collection<PackageKey> keys = myBuildKeys.get(entry.getBuildId());
+    if (keys == null) {
+      keys = new ArrayList<PackageKey>(1);
+      myBuildKeys.put(entry.getBuildId(), keys);
+    }
+    keys.add(key);
+  }
+
+  private void removeBuild(@NotNull final ConcurrentSkipListMap<PackageKey, PackageVersion> versions,
+                           @Nullable final PackagesSearchIndex<PackageKey> searchIndex,
+                           final long buildId) {
+    final Collection<PackageKey> keys = myBuildKeys.remove(buildId);
+    if (keys == null) return;
+
+    for (PackageKey key : keys) {
+      final PackageVersion version = versions.get(key);
+      if (version == null) continue;
+
+      final PackageVersion updated = version.remove(buildId);
+      if (updated == null) {
+        versions.remove(key);
+      } else {
+        versions.put(key, updated);
+      }
+      myLoadedEntriesCount -= version.myEntries.size() - (updated == null ? 0 : updated.myEntries.size());
+
+      if (searchIndex != null) {
+        for (BuildMetadataEntry entry : version.getEntries()) {
+          searchIndex.remove(key, getSearchableValues(entry));
+        }
+        if (updated != null) {
+          for (BuildMetadataEntry entry : updated.getEntries()) {
+            searchIndex.add(key, getSearchableValues(entry));
+          }
+        }
+      }
+    }
+    LOG.debug("Removed " + keys.size() + " NuGet packages of build #" + buildId + " from the index");
+  }
+
+  @NotNull
+  private static Collection<String> getSearchableValues(@NotNull final BuildMetadataEntry entry) {
+    final Map<String, String> metadata = entry.getMetadata();
+    final List<String> values = new ArrayList<String>(PackagesIndexImpl.PACKAGE_ATTRIBUTES_TO_SEARCH.size());
+    for (String attribute : PackagesIndexImpl.PACKAGE_ATTRIBUTES_TO_SEARCH) {
+      final String value = metadata.get(attribute);
+      if (value != null) values.add(value);
+    }
+    return values;
+  }
+
+  @NotNull
+  private static ConcurrentNavigableMap<PackageKey, PackageVersion> getVersions(@NotNull final ConcurrentSkipListMap<PackageKey, PackageVersion> versions,
+                                                                                @NotNull final String packageId) {
+    return versions.subMap(PackageKey.first(packageId), true, PackageKey.last(packageId), true);
+  }
+
+  @Nullable
+  private static PackageKey firstKey(@NotNull final ConcurrentSkipListMap<PackageKey, PackageVersion> versions) {
+    final Map.Entry<PackageKey, PackageVersion> first = versions.firstEntry();
+    return first == null ? null : first.getKey();
+  }
+
+  @NotNull
+  private static Iterator<BuildMetadataEntry> flatten(@NotNull final Iterator<PackageVersion> versions) {
+    return Iterators.concat(Iterators.transform(versions, VERSION_ENTRIES));
+  }
+
+  /**
+   * Entries of the same package id and version, newer builds come first
+   */
+  public static final class PackageVersion {
+    private final List<BuildMetadataEntry> myEntries;
+
+    private PackageVersion(@NotNull final List<BuildMetadataEntry> entries) {
+      myEntries = entries;
+    }
+
+    @NotNull
+    public List<BuildMetadataEntry> getEntries() {
+      return myEntries;
+    }
+
+    @NotNull
+    private static PackageVersion add(@Nullable final PackageVersion version, @NotNull final BuildMetadataEntry entry) {
+      final List<BuildMetadataEntry> entries = new ArrayList<BuildMetadataEntry>(version == null ? 1 : version.myEntries.size() + 1);
+      if (version != null) {
+        for (BuildMetadataEntry e : version.myEntries) {
+          if (e.getBuildId() != entry.getBuildId()) entries.add(e);
+        }
+      }
+
+      int idx = 0;
+      while (idx < entries.size() && entries.get(idx).getBuildId() > entry.getBuildId()) idx++;
+      entries.add(idx, entry);
+      return new PackageVersion(Collections.unmodifiableList(entries));
+    }
+
+    @Nullable
+    private PackageVersion remove(final long buildId) {
+      final List<BuildMetadataEntry> entries = new ArrayList<BuildMetadataEntry>(myEntries.size());
+      for (BuildMetadataEntry e : myEntries) {
+        if (e.getBuildId() != buildId) entries.add(e);
+      }
+      return entries.isEmpty() ? null : new PackageVersion(Collections.unmodifiableList(entries));
+    }
+  }
+
+  /**
+   * Sort key of the index: package id, semantic version and original version string
+   */
+  private static final class PackageKey implements Comparable<PackageKey> {
+    @NotNull private final String myId;
+    @NotNull private final String myVersionString;
+    @Nullable private final SemanticVersion myVersion;
+    /** -1 and 1 are used for lower and upper bounds of a package id range */
+    private final int myBound;
+
+    private PackageKey(@NotNull final String id,
+                       @NotNull final String versionString,
+                       final int bound) {
+      myId = id;
+      myVersionString = versionString;
+      myVersion = bound == 0 ? SemanticVersion.valueOf(versionString) : null;
+      myBound = bound;
+    }
+
+    @NotNull
+    private static PackageKey create(@NotNull final BuildMetadataEntry entry) {
+      final Map<String, String> metadata = entry.getMetadata();
+      final String id = metadata.get(PackageAttributes.ID);
+      final String version = metadata.get(PackageAttributes.VERSION);
+      return new PackageKey(id != null ? id : entry.getKey(), version != null ? version : "", 0);
+    }
+
+    @NotNull
+    private static PackageKey first(@NotNull final String id) {
+      return new PackageKey(id, "", -1);
+    }
+
+    @NotNull
+    private static PackageKey last(@NotNull final String id) {
+      return new PackageKey(id, "", 1);
+    }
+
+    public int compareTo(@NotNull final PackageKey o) {
+      int cmp;
+      if ((cmp = myId.compareTo(o.myId)) != 0) return cmp;
+      if (myBound != 0 || o.myBound != 0) return myBound - o.myBound;
+
+      //unparsable versions go before all parsed ones, so the order stays transitive
+      if (myVersion == null || o.myVersion == null) {
+        if (myVersion != null) return 1;
+        if (o.myVersion != null) return -1;
+      } else if ((cmp = myVersion.compareTo(o.myVersion)) != 0) {
+        return cmp;
+      }
+      return myVersionString.compareTo(o.myVersionString);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return this == o || o instanceof PackageKey && compareTo((PackageKey) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myId.hashCode() + myVersionString.hashCode();
+    }
+  }
+
+  /**
+   * Entry added or build removed while a snapshot was being read
+   */
+  private static final class PendingChange {
+    private final long myBuildId;
+    /** added entry or null if the build was removed */
+    @Nullable private final CachedEntry myEntry;
+
+    private PendingChange(final long buildId, @Nullable final CachedEntry entry) {
+      myBuildId = buildId;
+      myEntry = entry;
+    }
+  }
+
+  static final class CachedEntry implements BuildMetadataEntry {
+    private final long myBuildId;
+    private final String myKey;
+    private final Map<String, String> myMetadata;
+
+    CachedEntry(final long buildId, @NotNull final String key, @NotNull final Map<String, String> metadata) {
+      myBuildId = buildId;
+      myKey = key;
+      myMetadata = Collections.unmodifiableMap(new HashMap<String, String>(metadata));
+    }
+
+    public long getBuildId() {
+      return myBuildId;
+    }
+
+    @NotNull
+    public String getKey() {
+      return myKey;
+    }
+
+    @NotNull
+    public Map<String, String> getMetadata() {
+      return myMetadata;
+    }
+  }
+}
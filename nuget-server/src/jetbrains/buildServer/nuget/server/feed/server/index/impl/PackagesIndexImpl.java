@@ -16,17 +16,17 @@
 
 package jetbrains.buildServer.nuget.server.feed.server.index.impl;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.intellij.openapi.diagnostic.Logger;
 import jetbrains.buildServer.dataStructures.DecoratingIterator;
 import jetbrains.buildServer.dataStructures.Mapper;
 import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
-import jetbrains.buildServer.nuget.server.feed.server.index.NuGetServerStatisticsProvider;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
-import jetbrains.buildServer.nuget.server.feed.server.index.impl.latest.LatestCalculator;
-import jetbrains.buildServer.nuget.server.feed.server.index.impl.latest.LatestVersionsCalculator;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.IsLatestFieldTransformation;
+import jetbrains.buildServer.nuget.server.util.VersionUtility;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
@@ -42,7 +42,7 @@ import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArt
  * @author Eugene Petrenko (eugene.petrenko@gmail.com)
  *         Date: 19.10.11 16:18
  */
-public class PackagesIndexImpl implements PackagesIndex, NuGetServerStatisticsProvider {
+public class PackagesIndexImpl implements PackagesIndex {
 
   private static final Logger LOG = Logger.getInstance(PackagesIndexImpl.class.getName());
 
@@ -53,64 +53,123 @@ public class PackagesIndexImpl implements PackagesIndex, NuGetServerStatisticsPr
   private static final String NUMBER_OF_PACKAGE_IDS_STAT = "Number of unique package Ids";
 
   private final MetadataStorage myStorage;
+  private final PackagesIndexCache myCache;
   private final Collection<PackageTransformation> myTransformations;
 
 
   public PackagesIndexImpl(@NotNull final MetadataStorage storage,
+                           @NotNull final PackagesIndexCache cache,
                            @NotNull final Collection<PackageTransformation> transformations) {
     myStorage = storage;
+    myCache = cache;
     myTransformations = new ArrayList<PackageTransformation>(transformations);
   }
 
   @NotNull
   public Iterator<NuGetIndexEntry> getNuGetEntries(long buildId) {
-    return decorateMetadata(getBuildEntries(buildId));
+    if (isSimpleSort()) return transformEntries(getBuildEntries(buildId), getTranslatorsSimple());
+    return decorateMetadata(PackagesIndexCache.sort(getBuildEntries(buildId)));
   }
 
   @NotNull
   public Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull String packageId) {
-    return decorateMetadata(myStorage.getEntriesByKey(NUGET_PROVIDER_ID, packageId));
+    if (isSimpleSort()) return transformEntries(myStorage.getEntriesByKey(NUGET_PROVIDER_ID, packageId), getTranslatorsSimple());
+    return decorateMetadata(myCache.getEntries(packageId));
+  }
+
+  @NotNull
+  public Iterator<NuGetIndexEntry> getNuGetEntries(@NotNull final Collection<String> packageIds) {
+    if (isSimpleSort()) {
+      return transformEntries(Iterators.concat(Iterators.transform(packageIds.iterator(), new Function<String, Iterator<BuildMetadataEntry>>() {
+        public Iterator<BuildMetadataEntry> apply(@NotNull String packageId) {
+          return myStorage.getEntriesByKey(NUGET_PROVIDER_ID, packageId);
+        }
+      })), getTranslatorsSimple());
+    }
+    //one set of translators for all packages, so checks they cache are shared between packages
+    return decorateMetadata(myCache.getEntries(packageIds));
   }
 
   @NotNull
   public Iterator<NuGetIndexEntry> search(@NotNull String searchTerm) {
-    return decorateMetadata(myStorage.findEntriesWithValue(NUGET_PROVIDER_ID, searchTerm, PACKAGE_ATTRIBUTES_TO_SEARCH));
+    if (isSimpleSort()) {
+      return transformEntries(myStorage.findEntriesWithValue(NUGET_PROVIDER_ID, searchTerm, PACKAGE_ATTRIBUTES_TO_SEARCH), getTranslatorsSimple());
+    }
+
+    final Iterator<BuildMetadataEntry> found = myCache.search(searchTerm);
+    if (found != null) return decorateMetadata(found);
+
+    //search index is not built, only matched entries are sorted here
+    final Iterator<BuildMetadataEntry> entries = myStorage.findEntriesWithValue(NUGET_PROVIDER_ID, searchTerm, PACKAGE_ATTRIBUTES_TO_SEARCH);
+    return decorateMetadata(PackagesIndexCache.sort(entries));
   }
 
   @NotNull
   public Iterator<NuGetIndexEntry> getNuGetEntries() {
-    return decorateMetadata(myStorage.getAllEntries(NUGET_PROVIDER_ID));
+    if (isSimpleSort()) return transformEntries(myStorage.getAllEntries(NUGET_PROVIDER_ID), getTranslatorsSimple());
+    return decorateMetadata(myCache.getAllEntries());
   }
 
-  private Iterator<NuGetIndexEntry> decorateMetadata(Iterator<BuildMetadataEntry> entries) {
-    if (TeamCityProperties.getBoolean("teamcity.nuget.simple.feed.sort")) {
-      return transformEntries(entries, getTranslatorsSimple());
+  @NotNull
+  public Iterator<NuGetIndexEntry> getLatestNuGetEntries() {
+    if (isSimpleSort()) return getNuGetEntries();
+
+    final Collection<PackageTransformation> translators = getTranslators();
+    final Iterator<String> packageIds = myCache.getPackageIds();
+    return Iterators.concat(Iterators.transform(packageIds, new Function<String, Iterator<NuGetIndexEntry>>() {
+      public Iterator<NuGetIndexEntry> apply(@NotNull String packageId) {
+        return findLatestEntries(packageId, translators);
+      }
+    }));
+  }
+
+  /**
+   * Walks versions of the package from the highest one and stops
+   * as soon as both latest and absolute latest visible versions are found.
+   */
+  @NotNull
+  private Iterator<NuGetIndexEntry> findLatestEntries(@NotNull final String packageId,
+                                                      @NotNull final Collection<PackageTransformation> translators) {
+    NuGetPackageBuilder absoluteLatest = null;
+    NuGetPackageBuilder latest = null;
+
+    final Iterator<PackagesIndexCache.PackageVersion> versions = myCache.getVersionsDescending(packageId);
+    while (latest == null && versions.hasNext()) {
+      for (BuildMetadataEntry entry : versions.next().getEntries()) {
+        final NuGetPackageBuilder builder = applyTransformation(entry, translators);
+        if (builder == null) continue;
+
+        if (absoluteLatest == null) absoluteLatest = builder;
+        if (!builder.isPrerelease()) latest = builder;
+        break;
+      }
     }
 
-    final List<NuGetPackageBuilder> result = new ArrayList<NuGetPackageBuilder>();
-    final Collection<PackageTransformation> translators = getTranslators(); //contains processing state!
-    final LatestCalculator latestPackages = new LatestVersionsCalculator();
-    while (entries.hasNext()) {
+    if (absoluteLatest == null) return Collections.<NuGetIndexEntry>emptyList().iterator();
+    absoluteLatest.setIsAbsoluteLatest(true);
 
-      final NuGetPackageBuilder builder = applyTransformation(entries.next(), translators);
-      if (builder == null) continue;
-      latestPackages.updatePackage(builder);
-      result.add(builder);
+    final List<NuGetIndexEntry> result = new ArrayList<NuGetIndexEntry>(2);
+    if (latest != null) {
+      latest.setIsLatest(true);
+      if (latest != absoluteLatest) addEntry(result, latest);
     }
-    latestPackages.updateSelectedPackages();
+    addEntry(result, absoluteLatest);
+    return result.iterator();
+  }
 
-    //This is most consuming operation that requires to sort collection of entire packages
-    Collections.sort(result, SemanticVersionsComparators.getBuildersComparator());
+  private static void addEntry(@NotNull final List<NuGetIndexEntry> result, @NotNull final NuGetPackageBuilder builder) {
+    final NuGetIndexEntry entry = builder.build();
+    if (entry != null) result.add(entry);
+  }
 
-    return new DecoratingIterator<NuGetIndexEntry, NuGetPackageBuilder>(
-            result.iterator(),
-            new Mapper<NuGetPackageBuilder, NuGetIndexEntry>() {
-              @Nullable
-              public NuGetIndexEntry mapKey(@NotNull NuGetPackageBuilder internal) {
-                return internal.build();
-              }
-            }
-    );
+  private static boolean isSimpleSort() {
+    return TeamCityProperties.getBoolean("teamcity.nuget.simple.feed.sort");
+  }
+
+  @NotNull
+  private Iterator<NuGetIndexEntry> decorateMetadata(@NotNull Iterator<BuildMetadataEntry> sortedEntries) {
+    //entries are already sorted by package id and version
+    return new PackageGroupsIterator(sortedEntries, getTranslators()); //translators contain processing state!
   }
 
 
@@ -150,9 +209,14 @@ public class PackagesIndexImpl implements PackagesIndex, NuGetServerStatisticsPr
   }
 
   @Nullable
-  private static NuGetPackageBuilder applyTransformation(@NotNull final BuildMetadataEntry entry,
+  static NuGetPackageBuilder applyTransformation(@NotNull final BuildMetadataEntry entry,
                                                          @NotNull final Collection<PackageTransformation> trasformations) {
     try{
+      //reject entries before their metadata is copied into the builder
+      for (PackageTransformation transformation : trasformations) {
+        if (transformation instanceof PackageEntryFilter
+                && ((PackageEntryFilter) transformation).applyEntryFilter(entry) == PackageTransformation.Status.SKIP) return null;
+      }
       final NuGetPackageBuilder pb = new NuGetPackageBuilder(entry);
       for (PackageTransformation transformation : trasformations) {
         if (transformation.applyTransformation(pb) == PackageTransformation.Status.SKIP) return null;
@@ -166,23 +230,12 @@ public class PackagesIndexImpl implements PackagesIndex, NuGetServerStatisticsPr
 
   @NotNull
   public Map<String, Long> getIndexStatistics() {
-    final Iterator<BuildMetadataEntry> entries = myStorage.getAllEntries(NUGET_PROVIDER_ID);
-
-    long totalItemsNumber = 0;
-    Set<Long> buildIds = new HashSet<Long>();
-    Set<String> packageIds = new HashSet<String>();
-
-    while(entries.hasNext()){
-      final BuildMetadataEntry entry = entries.next();
-      totalItemsNumber++;
-      buildIds.add(entry.getBuildId());
-      packageIds.add(entry.getMetadata().get(PackageAttributes.ID));
-    }
-
+    //served from the in-memory index instead of walking the metadata storage
     final Map<String, Long> stats = new HashMap<String, Long>();
-    stats.put(TOTAL_NUMBER_OF_ITEMS_STAT, totalItemsNumber);
-    stats.put(NUMBER_OF_INDEXED_BUILDS_STAT, (long) buildIds.size());
-    stats.put(NUMBER_OF_PACKAGE_IDS_STAT, (long) packageIds.size());
+    stats.put(TOTAL_NUMBER_OF_ITEMS_STAT, myCache.getEntriesCount());
+    stats.put(NUMBER_OF_INDEXED_BUILDS_STAT, myCache.getBuildsCount());
+    stats.put(NUMBER_OF_PACKAGE_IDS_STAT, myCache.getPackageIdsCount());
+    stats.putAll(VersionUtility.getCacheStatistics());
     return stats;
   }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compact binary copy of {@link PackagesIndexCache} entries.
+ * Strings repeated between entries, e.g. attribute names and build type ids,
+ * are written once and shared by restored entries.
+ */
+public class PackagesIndexSnapshot {
+  private static final int MAGIC = 0x4E755049;
+  private static final int FORMAT_VERSION = 1;
+  private static final String UTF_8 = "UTF-8";
+
+  private PackagesIndexSnapshot() {
+  }
+
+  public static void write(@NotNull final File file, @NotNull final Iterator<BuildMetadataEntry> entries) throws IOException {
+    final File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+
+      final Map<String, Integer> strings = new HashMap<String, Integer>();
+      while (entries.hasNext()) {
+        final BuildMetadataEntry entry = entries.next();
+        final Map<String, String> metadata = entry.getMetadata();
+        out.writeBoolean(true);
+        out.writeLong(entry.getBuildId());
+        writeString(out, strings, entry.getKey());
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, String> e : metadata.entrySet()) {
+          writeString(out, strings, e.getKey());
+          writeString(out, strings, e.getValue());
+        }
+      }
+      out.writeBoolean(false);
+    } finally {
+      FileUtil.close(out);
+    }
+
+    FileUtil.delete(file);
+    if (!tmp.renameTo(file)) {
+      FileUtil.delete(tmp);
+      throw new IOException("Failed to rename " + tmp + " to " + file);
+    }
+  }
+
+  @NotNull
+  public static List<BuildMetadataEntry> read(@NotNull final File file) throws IOException {
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Unsupported NuGet packages index snapshot format in " + file);
+      }
+
+      final List<String> strings = new ArrayList<String>();
+      final List<BuildMetadataEntry> entries = new ArrayList<BuildMetadataEntry>();
+      while (in.readBoolean()) {
+        final long buildId = in.readLong();
+        final String key = readString(in, strings);
+        final int size = in.readInt();
+        final Map<String, String> metadata = new HashMap<String, String>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+          final String name = readString(in, strings);
+          metadata.put(name, readString(in, strings));
+        }
+        entries.add(new PackagesIndexCache.CachedEntry(buildId, key, metadata));
+      }
+      return entries;
+    } finally {
+      FileUtil.close(in);
+    }
+  }
+
+  private static void writeString(@NotNull final DataOutputStream out,
+                                  @NotNull final Map<String, Integer> strings,
+                                  @NotNull final String value) throws IOException {
+    final Integer index = strings.get(value);
+    if (index != null) {
+      out.writeInt(index);
+      return;
+    }
+    strings.put(value, strings.size());
+    final byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(-1);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  @NotNull
+  private static String readString(@NotNull final DataInputStream in,
+                                   @NotNull final List<String> strings) throws IOException {
+    final int index = in.readInt();
+    if (index >= 0) {
+      if (index >= strings.size()) throw new IOException("Corrupted NuGet packages index snapshot");
+      return strings.get(index);
+    }
+    final int length = in.readInt();
+    if (length < 0) throw new IOException("Corrupted NuGet packages index snapshot");
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    final String value = new String(bytes, UTF_8);
+    strings.add(value);
+    return value;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.util.NamedDeamonThreadFactory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Loads {@link PackagesIndexCache} in background on server startup, so the first
+ * feed request does not pay for reading all packages from the metadata storage.
+ *
+ * The loaded index is saved to the plugin data directory on server shutdown
+ * and restored from there on next startup. The snapshot is removed once read,
+ * so a server crash never leaves an outdated one behind. The restored index
+ * is compared with the metadata storage and rebuilt if they differ, e.g. after
+ * a backup restore or a build finished after the snapshot was saved.
+ *
+ * The index is rebuilt in background after artifacts cleanup, requests are
+ * served from the previously loaded index meanwhile.
+ */
+public class PackagesIndexWarmUp {
+  private static final Logger LOG = Logger.getInstance(PackagesIndexWarmUp.class.getName());
+
+  private static final String TEAMCITY_NUGET_INDEX_WARM_UP_PROP_NAME = "teamcity.nuget.index.warmUp";
+  private static final String TEAMCITY_NUGET_INDEX_SNAPSHOT_PROP_NAME = "teamcity.nuget.index.snapshot";
+  private static final String SNAPSHOT_FILE_NAME = "packages-index.bin";
+
+  @NotNull private final PackagesIndexCache myCache;
+  @NotNull private final NuGetServerSettings mySettings;
+  @NotNull private final File mySnapshotFile;
+
+  public PackagesIndexWarmUp(@NotNull final PackagesIndexCache cache,
+                             @NotNull final NuGetServerSettings settings,
+                             @NotNull final ServerPaths paths,
+                             @NotNull final EventDispatcher<BuildServerListener> events) {
+    myCache = cache;
+    mySettings = settings;
+    mySnapshotFile = new File(new File(paths.getPluginDataDirectory(), "jetbrains.nuget"), SNAPSHOT_FILE_NAME);
+
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void serverStartup() {
+        startWarmUp();
+      }
+
+      @Override
+      public void serverShutdown() {
+        saveSnapshot();
+      }
+
+      @Override
+      public void cleanupFinished() {
+        //artifacts cleanup may drop metadata without removing the build itself
+        startRebuild();
+      }
+    });
+  }
+
+  private boolean isWarmUpEnabled() {
+    return mySettings.isNuGetServerEnabled() && TeamCityProperties.getBooleanOrTrue(TEAMCITY_NUGET_INDEX_WARM_UP_PROP_NAME);
+  }
+
+  private void startWarmUp() {
+    if (!isWarmUpEnabled()) {
+      FileUtil.delete(mySnapshotFile);
+      return;
+    }
+
+    new NamedDeamonThreadFactory("NuGet Packages Index Warm-Up").newThread(new Runnable() {
+      public void run() {
+        try {
+          warmUp();
+        } catch (Throwable t) {
+          LOG.warn("Failed to load NuGet packages index. " + t.getMessage(), t);
+        }
+      }
+    }).start();
+  }
+
+  private void startRebuild() {
+    if (!myCache.isLoaded() || !isWarmUpEnabled()) {
+      //the index is read from the storage on next request
+      myCache.reset();
+      return;
+    }
+
+    new NamedDeamonThreadFactory("NuGet Packages Index Rebuild").newThread(new Runnable() {
+      public void run() {
+        try {
+          myCache.rebuild();
+        } catch (Throwable t) {
+          LOG.warn("Failed to rebuild NuGet packages index. " + t.getMessage(), t);
+        }
+      }
+    }).start();
+  }
+
+  private void warmUp() {
+    boolean restored = false;
+    if (mySnapshotFile.isFile()) {
+      //changes made while the snapshot is read are queued by the cache and applied on restore
+      final boolean restoring = myCache.startRestore();
+      try {
+        if (restoring) {
+          final List<BuildMetadataEntry> entries = PackagesIndexSnapshot.read(mySnapshotFile);
+          restored = myCache.restore(entries.iterator());
+        }
+      } catch (IOException e) {
+        LOG.warn("Failed to read NuGet packages index snapshot from " + mySnapshotFile + ". " + e.getMessage());
+      } finally {
+        if (restoring) myCache.cancelRestore();
+        FileUtil.delete(mySnapshotFile);
+      }
+    }
+    if (restored && !myCache.isUpToDate()) {
+      LOG.info("NuGet packages index snapshot does not match the metadata storage, the index will be reloaded");
+      myCache.rebuild();
+    }
+    myCache.warmUp();
+  }
+
+  private void saveSnapshot() {
+    if (!myCache.isLoaded() || !TeamCityProperties.getBooleanOrTrue(TEAMCITY_NUGET_INDEX_SNAPSHOT_PROP_NAME)) return;
+
+    final long start = System.currentTimeMillis();
+    try {
+      //noinspection ResultOfMethodCallIgnored
+      mySnapshotFile.getParentFile().mkdirs();
+      PackagesIndexSnapshot.write(mySnapshotFile, myCache.getAllEntries());
+      LOG.info("Saved NuGet packages index snapshot to " + mySnapshotFile + " in " + (System.currentTimeMillis() - start) + "ms");
+    } catch (IOException e) {
+      LOG.warn("Failed to save NuGet packages index snapshot to " + mySnapshotFile + ". " + e.getMessage());
+      FileUtil.delete(mySnapshotFile);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.index.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Inverted index from lower-cased three character substrings of package attributes
+ * to package keys. Packages containing a search term contain every substring of the term,
+ * so the candidates found here are checked with {@link #contains(String, Collection)}
+ * and the cost of a query depends on the number of candidates only.
+ *
+ * Reads are lock-free, modifications are expected to be serialized by the caller.
+ */
+public class PackagesSearchIndex<K> {
+  private static final int GRAM_LENGTH = 3;
+
+  private final ConcurrentMap<String, Set<K>> myPostings = new ConcurrentHashMap<String, Set<K>>();
+
+  /**
+   * @param text search term or attribute value
+   * @return text in the form used for lookups
+   */
+  @NotNull
+  public static String normalize(@NotNull final String text) {
+    return text.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * @param term normalized search term, see {@link #normalize(String)}
+   * @param texts attribute values of a package
+   * @return true if one of the texts contains the term ignoring case
+   */
+  public static boolean contains(@NotNull final String term, @NotNull final Collection<String> texts) {
+    for (String text : texts) {
+      if (normalize(text).contains(term)) return true;
+    }
+    return false;
+  }
+
+  public void add(@NotNull final K key, @NotNull final Collection<String> texts) {
+    for (String gram : getGrams(texts)) {
+      Set<K> keys = myPostings.get(gram);
+      if (keys == null) {
+        keys = Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>());
+        myPostings.put(gram, keys);
+      }
+      keys.add(key);
+    }
+  }
+
+  public void remove(@NotNull final K key, @NotNull final Collection<String> texts) {
+    for (String gram : getGrams(texts)) {
+      final Set<K> keys = myPostings.get(gram);
+      if (keys == null) continue;
+      keys.remove(key);
+      if (keys.isEmpty()) myPostings.remove(gram);
+    }
+  }
+
+  /**
+   * @param term normalized search term, see {@link #normalize(String)}
+   * @return keys of packages which may contain the term
+   * or null if the term is too short to be looked up and all packages have to be checked
+   */
+  @Nullable
+  public Set<K> findCandidates(@NotNull final String term) {
+    final Set<String> grams = getGrams(Collections.singleton(term));
+    if (grams.isEmpty()) return null;
+
+    final List<Set<K>> matches = new ArrayList<Set<K>>(grams.size());
+    for (String gram : grams) {
+      final Set<K> keys = myPostings.get(gram);
+      if (keys == null || keys.isEmpty()) return Collections.emptySet();
+      matches.add(keys);
+    }
+
+    //intersect starting from the most selective substring
+    Collections.sort(matches, new Comparator<Set<K>>() {
+      public int compare(Set<K> o1, Set<K> o2) {
+        return o1.size() - o2.size();
+      }
+    });
+    final Set<K> result = new HashSet<K>(matches.get(0));
+    for (Set<K> keys : matches.subList(1, matches.size())) {
+      result.retainAll(keys);
+      if (result.isEmpty()) break;
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Set<String> getGrams(@NotNull final Collection<String> texts) {
+    final Set<String> result = new HashSet<String>();
+    for (String text : texts) {
+      final String normalized = normalize(text);
+      for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+        result.add(normalized.substring(i, i + GRAM_LENGTH));
+      }
+    }
+    return result;
+  }
+}
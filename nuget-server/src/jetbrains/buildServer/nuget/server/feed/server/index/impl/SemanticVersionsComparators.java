@@ -49,16 +49,17 @@ public class SemanticVersionsComparators {
   public static Comparator<NuGetIndexEntry> getEntriesComparator() {
     return new Comparator<NuGetIndexEntry>() {
       public int compare(@NotNull NuGetIndexEntry o1, @NotNull NuGetIndexEntry o2) {
-        final String id1 = o1.getPackageInfo().getId();
-        final String id2 = o2.getPackageInfo().getId();
+        final String id1 = o1.getId();
+        final String id2 = o2.getId();
 
         int cmp;
         if ((cmp = id1.compareTo(id2)) != 0) return cmp;
 
-        final String v1 = o1.getPackageInfo().getVersion();
-        final String v2 = o2.getPackageInfo().getVersion();
+        final SemanticVersion v1 = o1.getSemanticVersion();
+        final SemanticVersion v2 = o2.getSemanticVersion();
+        if (v1 != null && v2 != null) return v1.compareTo(v2);
 
-        return SemanticVersion.compareAsVersions(v1, v2);
+        return o1.getVersion().compareTo(o2.getVersion());
       }
     };
   }
@@ -16,32 +16,100 @@
 
 package jetbrains.buildServer.nuget.server.feed.server.index.impl.transform;
 
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetPackageBuilder;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageEntryFilter;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageTransformation;
-import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.auth.AuthUtil;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
 import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.util.EventDispatcher;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
 /**
+ * Access of authority holders to build types is shared between requests.
+ * It is dropped on project structure changes. Permission changes are not reported
+ * by server events, so cached access expires after a short timeout.
+ *
  * @author Eugene Petrenko (eugene.petrenko@gmail.com)
  *         Date: 18.01.12 20:30
  */
-public class AccessCheckTransformation implements PackageTransformation {
+public class AccessCheckTransformation implements PackageTransformation, PackageEntryFilter {
+  private static final String ACCESS_CACHE_TIMEOUT_PROPERTY = "teamcity.nuget.feed.access.cache.seconds";
+  private static final int DEFAULT_ACCESS_CACHE_TIMEOUT_SECONDS = 60;
+
   private final ProjectManager myProjects;
   private final SecurityContext myContext;
+  /** buildTypeId -> projectId, shared between requests and dropped on project structure changes */
+  private final ConcurrentMap<String, String> myProjectIds;
+  /** authority holder -> access to build types, shared between requests */
+  private final Map<AuthorityHolder, HolderAccess> myAccess;
+  private AuthorityHolder myAuthorityHolder;
+  private HolderAccess myHolderAccess;
 
   public AccessCheckTransformation(@NotNull final ProjectManager projects,
-                                   @NotNull final SecurityContext context) {
+                                   @NotNull final SecurityContext context,
+                                   @NotNull final EventDispatcher<BuildServerListener> events) {
     myProjects = projects;
     myContext = context;
+    myProjectIds = new ConcurrentHashMap<String, String>();
+    //authority holders are not kept alive by the cache
+    myAccess = Collections.synchronizedMap(new WeakHashMap<AuthorityHolder, HolderAccess>());
+    events.addListener(new BuildServerAdapter() {
+      @Override
+      public void buildTypeRegistered(SBuildType buildType) {
+        myProjectIds.remove(buildType.getBuildTypeId());
+      }
+
+      @Override
+      public void buildTypeUnregistered(SBuildType buildType) {
+        myProjectIds.remove(buildType.getBuildTypeId());
+        myAccess.clear();
+      }
+
+      @Override
+      public void buildTypeMoved(SBuildType buildType, SProject original) {
+        myProjectIds.remove(buildType.getBuildTypeId());
+        myAccess.clear();
+      }
+
+      @Override
+      public void projectRemoved(String projectId) {
+        myProjectIds.clear();
+        myAccess.clear();
+      }
+    });
+  }
+
+  private AccessCheckTransformation(@NotNull final ProjectManager projects,
+                                    @NotNull final SecurityContext context,
+                                    @NotNull final ConcurrentMap<String, String> projectIds,
+                                    @NotNull final Map<AuthorityHolder, HolderAccess> access) {
+    myProjects = projects;
+    myContext = context;
+    myProjectIds = projectIds;
+    myAccess = access;
   }
 
   @Nullable
   private String safeFindProjectId(@NotNull final String buildTypeId) {
+    final String cached = myProjectIds.get(buildTypeId);
+    if (cached != null) return cached;
+
     try {
-      return myProjects.findProjectId(buildTypeId);
+      final String projectId = myProjects.findProjectId(buildTypeId);
+      if (projectId != null) myProjectIds.put(buildTypeId, projectId);
+      return projectId;
     } catch (RuntimeException e) {
       return null;
     }
@@ -49,13 +117,51 @@ public class AccessCheckTransformation implements PackageTransformation {
 
   private boolean isAccessible(@Nullable final String buildTypeId) {
     if (buildTypeId == null) return false;
+
+    final HolderAccess access = getHolderAccess();
+    final Boolean cached = access.myBuildTypes.get(buildTypeId);
+    if (cached != null) return cached;
+
+    final boolean accessible = checkAccess(myAuthorityHolder, buildTypeId);
+    access.myBuildTypes.put(buildTypeId, accessible);
+    return accessible;
+  }
+
+  /**
+   * @return access of the authority holder of the current request, the same for the whole request
+   */
+  @NotNull
+  private HolderAccess getHolderAccess() {
+    if (myHolderAccess != null) return myHolderAccess;
+
+    myAuthorityHolder = myContext.getAuthorityHolder();
+    final long timeout = TimeUnit.SECONDS.toMillis(TeamCityProperties.getInteger(ACCESS_CACHE_TIMEOUT_PROPERTY, DEFAULT_ACCESS_CACHE_TIMEOUT_SECONDS));
+    synchronized (myAccess) {
+      HolderAccess access = myAccess.get(myAuthorityHolder);
+      if (access == null || System.currentTimeMillis() - access.myCreated > timeout) {
+        access = new HolderAccess();
+        myAccess.put(myAuthorityHolder, access);
+      }
+      return myHolderAccess = access;
+    }
+  }
+
+  private boolean checkAccess(@NotNull final AuthorityHolder holder, @NotNull final String buildTypeId) {
     //TODO: move it into BuildMetadataStorage instead.
     //check access to the entry
     final String projectId = safeFindProjectId(buildTypeId);
     //no project no chance
     if (projectId == null) return false;
     //check project access
-    return AuthUtil.hasReadAccessTo(myContext.getAuthorityHolder(), projectId);
+    return AuthUtil.hasReadAccessTo(holder, projectId);
+  }
+
+  @NotNull
+  public Status applyEntryFilter(@NotNull BuildMetadataEntry entry) {
+    final String buildTypeId = entry.getMetadata().get(PackagesIndex.TEAMCITY_BUILD_TYPE_ID);
+    //old format entries get build type later in the chain
+    if (buildTypeId == null) return Status.CONTINUE;
+    return isAccessible(buildTypeId) ? Status.CONTINUE : Status.SKIP;
   }
 
   @NotNull
@@ -65,6 +171,16 @@ public class AccessCheckTransformation implements PackageTransformation {
 
   @NotNull
   public PackageTransformation createCopy() {
-    return this;
+    //the copy looks up the authority holder of its request once
+    return new AccessCheckTransformation(myProjects, myContext, myProjectIds, myAccess);
+  }
+
+  /**
+   * Must not reference the authority holder, it is a value of the weak map
+   */
+  private static final class HolderAccess {
+    private final long myCreated = System.currentTimeMillis();
+    /** buildTypeId -> read access */
+    private final ConcurrentMap<String, Boolean> myBuildTypes = new ConcurrentHashMap<String, Boolean>();
   }
 }
@@ -36,7 +36,7 @@ public class DownloadUrlComputationTransformation implements PackageTransformati
 
   @NotNull
   public Status applyTransformation(@NotNull NuGetPackageBuilder builder) {
-    String relPath = builder.getMetadata().get(PackagesIndex.TEAMCITY_ARTIFACT_RELPATH);
+    String relPath = builder.getMetadata(PackagesIndex.TEAMCITY_ARTIFACT_RELPATH);
     final String buildTypeExternalId = builder.getBuildTypeExternalId();
     if (relPath == null) return Status.SKIP;
     if (buildTypeExternalId == null) return Status.SKIP;
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2000-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.odata4j.expression.*;
+import org.odata4j.producer.QueryInfo;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.IS_ABSOLUTE_LATEST_VERSION;
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.IS_LATEST_VERSION;
+
+/**
+ * Detects $filter expressions that can only match packages marked
+ * with IsLatestVersion or IsAbsoluteLatestVersion, e.g. Visual Studio
+ * queries like Packages()?$filter=IsLatestVersion
+ */
+public class LatestVersionsQuery {
+
+  public static boolean isLatestVersionsQuery(@Nullable final QueryInfo queryInfo) {
+    return queryInfo != null && queryInfo.filter != null && requiresLatest(queryInfo.filter);
+  }
+
+  private static boolean requiresLatest(@NotNull final CommonExpression expression) {
+    if (expression instanceof EntitySimpleProperty) {
+      return isLatestProperty(expression);
+    }
+
+    if (expression instanceof BoolParenExpression) {
+      return requiresLatest(((BoolParenExpression) expression).getExpression());
+    }
+
+    if (expression instanceof AndExpression) {
+      final AndExpression and = (AndExpression) expression;
+      return requiresLatest(and.getLHS()) || requiresLatest(and.getRHS());
+    }
+
+    if (expression instanceof EqExpression) {
+      final EqExpression eq = (EqExpression) expression;
+      return isLatestProperty(eq.getLHS()) && isTrue(eq.getRHS())
+              || isTrue(eq.getLHS()) && isLatestProperty(eq.getRHS());
+    }
+
+    return false;
+  }
+
+  private static boolean isLatestProperty(@NotNull final CommonExpression expression) {
+    if (!(expression instanceof EntitySimpleProperty)) return false;
+    final String name = ((EntitySimpleProperty) expression).getPropertyName();
+    return IS_LATEST_VERSION.equals(name) || IS_ABSOLUTE_LATEST_VERSION.equals(name);
+  }
+
+  private static boolean isTrue(@NotNull final CommonExpression expression) {
+    return expression instanceof BooleanLiteral && ((BooleanLiteral) expression).getValue();
+  }
+}
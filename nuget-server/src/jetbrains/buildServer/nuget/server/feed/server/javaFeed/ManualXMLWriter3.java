@@ -19,33 +19,40 @@ package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
 import org.odata4j.stax2.QName2;
 import org.odata4j.stax2.XMLWriter2;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created 22.04.13 17:31
  *
  * @author Eugene Petrenko (eugene.petrenko@jetbrains.com)
  * a copy of {@link org.odata4j.stax2.domimpl.ManualXMLWriter2}
+ *
+ * Output is collected in a small char buffer and passed to the target writer in bulk,
+ * text without escapable characters is copied as whole runs.
  */
 public class ManualXMLWriter3 implements XMLWriter2 {
+  private static final int BUFFER_SIZE = 8192;
 
   private final Writer writer;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position = 0;
   private boolean isStartElementOpen;
-  private final Stack<QName2> elements = new Stack<QName2>();
+  private final List<QName2> elements = new ArrayList<QName2>();
 
   public ManualXMLWriter3(Writer writer) {
-    this.writer = new BufferedWriter(writer, 512 * 1024);
+    this.writer = writer;
   }
 
   public void endDocument() {
 
     while (!elements.isEmpty())
-      endElement(elements.peek().getLocalPart());
+      endElement(peekElement().getLocalPart());
 
     try {
+      flushBuffer();
       writer.flush();
     } catch (IOException e) {
       throw new RuntimeException(e);
@@ -53,14 +60,13 @@ public class ManualXMLWriter3 implements XMLWriter2 {
   }
 
   public void endElement(String localName) {
-    final QName2 startElementName = elements.pop();
+    final QName2 startElementName = elements.remove(elements.size() - 1);
     if (!startElementName.getLocalPart().equals(localName))
       throw new IllegalArgumentException();
 
     try {
       if (isStartElementOpen) {
-        write("/");
-        write(">");
+        write("/>");
         isStartElementOpen = false;
         return;
       }
@@ -68,10 +74,10 @@ public class ManualXMLWriter3 implements XMLWriter2 {
       write("</");
       if (startElementName.getPrefix() != null) {
         write(startElementName.getPrefix());
-        write(":");
+        write(':');
       }
       write(localName);
-      write(">");
+      write('>');
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -96,18 +102,20 @@ public class ManualXMLWriter3 implements XMLWriter2 {
   public void startElement(QName2 qname, String xmlns) {
     try {
       ensureStartElementClosed();
-      write("<");
+      write('<');
       if (qname.getPrefix() != null) {
         write(qname.getPrefix());
-        write(":");
+        write(':');
       }
       write(qname.getLocalPart());
 
       if (xmlns != null) {
-        write(" xmlns=\"" + xmlns + "\"");
+        write(" xmlns=\"");
+        write(xmlns);
+        write('"');
       }
       isStartElementOpen = true;
-      elements.push(qname);
+      elements.add(qname);
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -122,15 +130,15 @@ public class ManualXMLWriter3 implements XMLWriter2 {
       throw new IllegalStateException();
 
     try {
-      write(" ");
+      write(' ');
       if (qname.getPrefix() != null) {
         write(qname.getPrefix());
-        write(":");
+        write(':');
       }
       write(qname.getLocalPart());
       write("=\"");
       writeEncodeAttributeValue(value);
-      write("\"");
+      write('"');
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -140,7 +148,11 @@ public class ManualXMLWriter3 implements XMLWriter2 {
     try {
     if (!isStartElementOpen)
       throw new IllegalStateException();
-    write(" xmlns:" + prefix + "=\"" + namespaceUri + "\"");
+    write(" xmlns:");
+    write(prefix);
+    write("=\"");
+    write(namespaceUri);
+    write('"');
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -155,19 +167,40 @@ public class ManualXMLWriter3 implements XMLWriter2 {
     }
   }
 
+  private QName2 peekElement() {
+    return elements.get(elements.size() - 1);
+  }
+
   private void ensureStartElementClosed() throws IOException {
     if (isStartElementOpen) {
-      write(">");
+      write('>');
       isStartElementOpen = false;
     }
   }
 
   private void write(String value) throws IOException {
-    writer.write(value);
+    write(value, 0, value.length());
+  }
+
+  private void write(String value, int start, int end) throws IOException {
+    while (start < end) {
+      if (position == BUFFER_SIZE) flushBuffer();
+      final int count = Math.min(end - start, BUFFER_SIZE - position);
+      value.getChars(start, start + count, buffer, position);
+      position += count;
+      start += count;
+    }
   }
 
   private void write(char value) throws IOException {
-    writer.write(value);
+    if (position == BUFFER_SIZE) flushBuffer();
+    buffer[position++] = value;
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position == 0) return;
+    writer.write(buffer, 0, position);
+    position = 0;
   }
 
   private void writeEncodeElementValue(String value) throws IOException {
@@ -182,20 +215,27 @@ public class ManualXMLWriter3 implements XMLWriter2 {
     if (len == 0)
       return;
 
+    //copy runs of characters that need no escaping at once
+    int runStart = 0;
     for(int i = 0;  i < len; i++) {
-      final char c = value.charAt(i);
-      if (c == '<')
-        write("&lt;");
-      else if (c == '\"')
-        write("&quot;");
-      else if (c == '>')
-        write("&gt;");
-      else if (c == '\'')
-        write("&apos;");
-      else if (c == '&')
-        write("&amp;");
-      else
-        write(c);
+      final String escaped = escape(value.charAt(i));
+      if (escaped == null) continue;
+
+      write(value, runStart, i);
+      write(escaped);
+      runStart = i + 1;
+    }
+    write(value, runStart, len);
+  }
+
+  private static String escape(char c) {
+    switch (c) {
+      case '<': return "&lt;";
+      case '\"': return "&quot;";
+      case '>': return "&gt;";
+      case '\'': return "&apos;";
+      case '&': return "&amp;";
+      default: return null;
     }
   }
 
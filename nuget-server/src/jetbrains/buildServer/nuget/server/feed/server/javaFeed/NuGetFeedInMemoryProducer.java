@@ -23,11 +23,15 @@ import jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions.NuGetFe
 import org.core4j.Enumerable;
 import org.core4j.Func;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.odata4j.core.OFunctionParameter;
 import org.odata4j.edm.EdmDataServices;
 import org.odata4j.edm.EdmFunctionImport;
 import org.odata4j.exceptions.NotImplementedException;
 import org.odata4j.producer.BaseResponse;
+import org.odata4j.producer.CountResponse;
+import org.odata4j.producer.EntitiesResponse;
+import org.odata4j.producer.InlineCount;
 import org.odata4j.producer.ODataContext;
 import org.odata4j.producer.PropertyPathHelper;
 import org.odata4j.producer.QueryInfo;
@@ -45,6 +49,7 @@ public class NuGetFeedInMemoryProducer extends InMemoryProducer {
   @NotNull private final NuGetFeedFunctions myFunctions;
 
   private String myApiVersion;
+  private Func<Iterable<PackageEntity>> myLatestEntities;
 
   public NuGetFeedInMemoryProducer(@NotNull final NuGetFeedFunctions functions) {
     super(MetadataConstants.NUGET_GALLERY_NAMESPACE);
@@ -59,6 +64,14 @@ public class NuGetFeedInMemoryProducer extends InMemoryProducer {
             PackageEntity.KeyPropertyNames);
   }
 
+  /**
+   * Registers a source of packages marked as latest or absolute latest,
+   * used instead of the whole feed for queries filtering by these flags
+   */
+  public void registerLatest(@NotNull final Func<Iterable<PackageEntity>> getFunc) {
+    myLatestEntities = getFunc;
+  }
+
   @Override
   public EdmDataServices getMetadata() {
     final String apiVersionToUse = NuGetAPIVersion.getVersionToUse();
@@ -71,6 +84,42 @@ public class NuGetFeedInMemoryProducer extends InMemoryProducer {
     return super.getMetadata();
   }
 
+  @Override
+  public EntitiesResponse getEntities(ODataContext context, String entitySetName, QueryInfo queryInfo) {
+    final Func<Iterable<PackageEntity>> latest = getLatestEntities(entitySetName, queryInfo);
+    if (latest == null) return super.getEntities(context, entitySetName, queryInfo);
+
+    //filter is still applied to the narrowed set of packages
+    final RequestContext rc = createRequestContext(context, queryInfo);
+    final InMemoryEntityInfo<?> ei = getEntityInfo(MetadataConstants.ENTITY_SET_NAME);
+    return getEntitiesResponse(rc, rc.getEntitySet(), Enumerable.create(latest.apply()).cast(Object.class), ei.getPropertyModel());
+  }
+
+  @Override
+  public CountResponse getEntitiesCount(ODataContext context, String entitySetName, QueryInfo queryInfo) {
+    final Func<Iterable<PackageEntity>> latest = getLatestEntities(entitySetName, queryInfo);
+    if (latest == null) return super.getEntitiesCount(context, entitySetName, queryInfo);
+
+    return getCountResponse(createRequestContext(context, queryInfo), Enumerable.create(latest.apply()).cast(Object.class));
+  }
+
+  @Nullable
+  private Func<Iterable<PackageEntity>> getLatestEntities(@NotNull String entitySetName, @Nullable QueryInfo queryInfo) {
+    if (!MetadataConstants.ENTITY_SET_NAME.equals(entitySetName)) return null;
+    if (!LatestVersionsQuery.isLatestVersionsQuery(queryInfo)) return null;
+    return myLatestEntities;
+  }
+
+  @NotNull
+  private RequestContext createRequestContext(@NotNull ODataContext context, @Nullable QueryInfo queryInfo) {
+    return RequestContext.newBuilder(RequestContext.RequestType.GetEntities)
+            .entitySetName(MetadataConstants.ENTITY_SET_NAME)
+            .entitySet(getMetadata().getEdmEntitySet(MetadataConstants.ENTITY_SET_NAME))
+            .queryInfo(queryInfo)
+            .odataContext(context)
+            .pathHelper(new PropertyPathHelper(queryInfo)).build();
+  }
+
   @Override
   public BaseResponse callFunction(ODataContext context, EdmFunctionImport function, Map<String, OFunctionParameter> params, QueryInfo queryInfo, boolean isCountCall) {
     final NuGetFeedFunction targetFunction = myFunctions.find(function);
@@ -82,18 +131,43 @@ public class NuGetFeedInMemoryProducer extends InMemoryProducer {
     final Iterable<Object> functionCallResult = targetFunction.call(function.getReturnType(), params, queryInfo);
     if(functionCallResult == null) return null;
 
-    final RequestContext rc = RequestContext.newBuilder(RequestContext.RequestType.GetEntities)
-            .entitySetName(MetadataConstants.ENTITY_SET_NAME)
-            .entitySet(getMetadata().getEdmEntitySet(MetadataConstants.ENTITY_SET_NAME))
-            .queryInfo(queryInfo)
-            .odataContext(context)
-            .pathHelper(new PropertyPathHelper(queryInfo)).build();
+    if(isCountCall)
+      return getCountResponse(createRequestContext(context, queryInfo), Enumerable.create(functionCallResult));
+
+    Enumerable<Object> entities = Enumerable.create(functionCallResult);
+    QueryInfo entitiesQuery = queryInfo;
+    if (canSkipBeforeConversion(queryInfo)) {
+      //skipped entities are not converted into OEntities
+      entities = entities.skip(queryInfo.skip);
+      entitiesQuery = withoutSkip(queryInfo);
+    }
+
+    final RequestContext rc = createRequestContext(context, entitiesQuery);
     final InMemoryEntityInfo<?> ei = getEntityInfo(MetadataConstants.ENTITY_SET_NAME);
+    return getEntitiesResponse(rc, rc.getEntitySet(), entities, ei.getPropertyModel());
+  }
 
-    if(isCountCall)
-      return getCountResponse(rc, Enumerable.create(functionCallResult));
-    else
-      return getEntitiesResponse(rc, rc.getEntitySet(), Enumerable.create(functionCallResult), ei.getPropertyModel());
+  private static boolean canSkipBeforeConversion(@Nullable QueryInfo queryInfo) {
+    return queryInfo != null
+            && queryInfo.skip != null
+            && queryInfo.filter == null
+            && queryInfo.orderBy == null
+            && queryInfo.skipToken == null
+            && queryInfo.inlineCount != InlineCount.ALLPAGES;
+  }
+
+  @NotNull
+  private static QueryInfo withoutSkip(@NotNull QueryInfo queryInfo) {
+    return QueryInfo.newBuilder()
+            .setInlineCount(queryInfo.inlineCount)
+            .setTop(queryInfo.top)
+            .setFilter(queryInfo.filter)
+            .setOrderBy(queryInfo.orderBy)
+            .setSkipToken(queryInfo.skipToken)
+            .setCustomOptions(queryInfo.customOptions)
+            .setExpand(queryInfo.expand)
+            .setSelect(queryInfo.select)
+            .build();
   }
 
   @Override
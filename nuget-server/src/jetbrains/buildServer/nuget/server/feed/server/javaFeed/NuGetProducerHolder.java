@@ -50,15 +50,30 @@ public class NuGetProducerHolder {
       public Iterable<PackageEntity> apply() {
         return new Iterable<PackageEntity>() {
           public Iterator<PackageEntity> iterator() {
-            return new DecoratingIterator<PackageEntity, NuGetIndexEntry>(index.getNuGetEntries(), new Mapper<NuGetIndexEntry, PackageEntity>() {
-              public PackageEntity mapKey(@NotNull NuGetIndexEntry internal) {
-                return new PackageEntityEx(internal, settings);
-              }
-            });
+            return toEntities(index.getNuGetEntries(), settings);
           }
         };
       }
     });
+    myProducer.registerLatest(new Func<Iterable<PackageEntity>>() {
+      public Iterable<PackageEntity> apply() {
+        return new Iterable<PackageEntity>() {
+          public Iterator<PackageEntity> iterator() {
+            return toEntities(index.getLatestNuGetEntries(), settings);
+          }
+        };
+      }
+    });
+  }
+
+  @NotNull
+  private static Iterator<PackageEntity> toEntities(@NotNull final Iterator<NuGetIndexEntry> entries,
+                                                    @NotNull final NuGetServerSettings settings) {
+    return new DecoratingIterator<PackageEntity, NuGetIndexEntry>(entries, new Mapper<NuGetIndexEntry, PackageEntity>() {
+      public PackageEntity mapKey(@NotNull NuGetIndexEntry internal) {
+        return new PackageEntityEx(internal, settings);
+      }
+    });
   }
 
   @NotNull
@@ -18,6 +18,7 @@ package jetbrains.buildServer.nuget.server.feed.server.javaFeed;
 
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseDependencies;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity.PackageEntityAdapter;
 import org.jetbrains.annotations.NotNull;
 import org.odata4j.core.OAtomStreamEntity;
@@ -36,6 +37,7 @@ public class PackageEntityEx extends PackageEntityAdapter implements OAtomStream
   public PackageEntityEx(@NotNull final NuGetIndexEntry entry, @NotNull final NuGetServerSettings settings) {
     myEntry = entry;
     mySettings = settings;
+    ResponseDependencies.packageUsed(entry.getBuildTypeId());
   }
 
   public String getAtomEntityType() {
@@ -53,6 +55,6 @@ public class PackageEntityEx extends PackageEntityAdapter implements OAtomStream
 
   @Override
   protected String getValue(@NotNull String key) {
-    return myEntry.getAttributes().get(key);
+    return myEntry.getAttribute(key);
   }
 }
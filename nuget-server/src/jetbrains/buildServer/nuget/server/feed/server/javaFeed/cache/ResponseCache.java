@@ -17,9 +17,12 @@
 package jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache;
 
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.util.containers.SoftValueHashMap;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.FeedRequestContext;
 import jetbrains.buildServer.serverSide.BuildServerAdapter;
 import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.users.SUser;
 import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.util.StringUtil;
@@ -30,7 +33,9 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
@@ -38,26 +43,86 @@ import java.util.Map;
  */
 public class ResponseCache implements ResponseCacheReset {
   private static final Logger LOG = Logger.getInstance(ResponseCache.class.getName());
-  private final Map<String, ResponseCacheEntry> myCache = new SoftValueHashMap<String, ResponseCacheEntry>();
+
+  private static final String CACHE_SIZE_PROPERTY = "teamcity.nuget.feed.cache.size.kb";
+  private static final int DEFAULT_CACHE_SIZE_KB = 64 * 1024;
+  /** eviction frees space below the limit so that it does not run on every put */
+  private static final int EVICTION_TARGET_PERCENT = 90;
+
+  private static final String HITS_STAT = "Response cache hits";
+  private static final String MISSES_STAT = "Response cache misses";
+  private static final String EVICTIONS_STAT = "Response cache evictions";
+  private static final String ENTRIES_STAT = "Response cache entries";
+  private static final String SIZE_STAT = "Response cache size in bytes";
+
+  private final ConcurrentMap<String, CachedResponse> myCache = new ConcurrentHashMap<String, CachedResponse>();
+  /** responses being computed, concurrent requests for the same key wait for them */
+  private final ConcurrentMap<String, FutureTask<ResponseCacheEntry>> myComputations = new ConcurrentHashMap<String, FutureTask<ResponseCacheEntry>>();
+  private final Object myEvictionLock = new Object();
+  /** resets made while responses are computed, such responses are not cached if they depend on reset packages */
+  private final Set<Invalidations> myRunningInvalidations = Collections.newSetFromMap(new ConcurrentHashMap<Invalidations, Boolean>());
+  private final AtomicLong mySize = new AtomicLong();
+  private final AtomicLong myAccessCounter = new AtomicLong();
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private final AtomicLong myEvictions = new AtomicLong();
 
   public ResponseCache(@NotNull EventDispatcher<BuildServerListener> dispatcher) {
+    //removed builds and artifacts cleanup are reported by PackagesIndexCache once the index is updated
     dispatcher.addListener(new BuildServerAdapter() {
       @Override
-      public void cleanupFinished() {
-        super.cleanupFinished();
+      public void buildTypeUnregistered(@NotNull SBuildType buildType) {
+        //packages of the build type may become visible or hidden for users
+        resetCache();
+      }
+
+      @Override
+      public void buildTypeMoved(@NotNull SBuildType buildType, @NotNull SProject original) {
         resetCache();
       }
     });
   }
 
   public void resetCache() {
-    synchronized (myCache) {
-      myCache.clear();
+    for (Invalidations invalidations : myRunningInvalidations) {
+      invalidations.resetAll();
+    }
+    for (String key : myCache.keySet()) {
+      remove(key);
+    }
+  }
+
+  public void resetPackage(@NotNull final String packageId) {
+    for (Invalidations invalidations : myRunningInvalidations) {
+      invalidations.resetPackage(packageId);
+    }
+    for (Map.Entry<String, CachedResponse> e : myCache.entrySet()) {
+      if (e.getValue().myDependencies.dependsOnPackage(packageId)) remove(e.getKey());
+    }
+  }
+
+  public void resetBuildType(@NotNull final String buildTypeId) {
+    for (Invalidations invalidations : myRunningInvalidations) {
+      invalidations.resetBuildType(buildTypeId);
+    }
+    for (Map.Entry<String, CachedResponse> e : myCache.entrySet()) {
+      if (e.getValue().myDependencies.dependsOnBuildType(buildTypeId)) remove(e.getKey());
     }
   }
 
   @NotNull
-  private String key(@NotNull final HttpServletRequest request) {
+  public Map<String, Long> getStatistics() {
+    final Map<String, Long> stats = new HashMap<String, Long>();
+    stats.put(HITS_STAT, myHits.get());
+    stats.put(MISSES_STAT, myMisses.get());
+    stats.put(EVICTIONS_STAT, myEvictions.get());
+    stats.put(ENTRIES_STAT, (long) myCache.size());
+    stats.put(SIZE_STAT, mySize.get());
+    return stats;
+  }
+
+  @NotNull
+  protected String key(@NotNull final HttpServletRequest request) {
     StringBuilder builder = new StringBuilder();
     builder.append(request.getMethod());
     builder.append(" ");
@@ -84,26 +149,161 @@ public class ResponseCache implements ResponseCacheReset {
                            @NotNull final HttpServletResponse response,
                            @NotNull final ComputeAction action) throws Exception {
     final String key = key(request);
-    final ResponseCacheEntry cached;
-    synchronized (myCache) {
-      cached = myCache.get(key);
-    }
+    final CachedResponse cached = myCache.get(key);
     if (cached != null) {
-      cached.handleRequest(request, response);
+      myHits.incrementAndGet();
+      FeedRequestContext.cacheHit();
+      cached.myLastAccess = myAccessCounter.incrementAndGet();
+      cached.myEntry.handleRequest(request, response);
       return;
     }
 
-    LOG.debug("NuGet cache miss for: " + WebUtil.getRequestDump(request));
     final ResponseWrapper wrapped = new ResponseWrapper(response);
+    final ResponseDependencies[] dependencies = new ResponseDependencies[1];
+    final FutureTask<ResponseCacheEntry> computation = new FutureTask<ResponseCacheEntry>(new Callable<ResponseCacheEntry>() {
+      public ResponseCacheEntry call() throws Exception {
+        ResponseDependencies.start();
+        try {
+          action.compute(request, wrapped);
+        } finally {
+          dependencies[0] = ResponseDependencies.finish(request);
+        }
+        return wrapped.build();
+      }
+    });
 
-    action.compute(request, wrapped);
+    final FutureTask<ResponseCacheEntry> running = myComputations.putIfAbsent(key, computation);
+    if (running != null) {
+      //the same response is being computed by another request
+      myHits.incrementAndGet();
+      FeedRequestContext.cacheHit();
+      final ResponseCacheEntry entry;
+      try {
+        entry = running.get();
+      } catch (ExecutionException e) {
+        LOG.debug("NuGet response computation failed for: " + WebUtil.getRequestDump(request) + ", computing it again");
+        action.compute(request, response);
+        return;
+      }
+      entry.handleRequest(request, response);
+      return;
+    }
 
-    final ResponseCacheEntry entry = wrapped.build();
-    synchronized (myCache) {
-      myCache.put(key, entry);
+    myMisses.incrementAndGet();
+    FeedRequestContext.cacheMiss();
+    LOG.debug("NuGet cache miss for: " + WebUtil.getRequestDump(request));
+    final Invalidations invalidations = new Invalidations();
+    myRunningInvalidations.add(invalidations);
+    try {
+      computation.run();
+      final ResponseCacheEntry entry;
+      try {
+        entry = computation.get();
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof Exception) throw (Exception) cause;
+        throw e;
+      }
+      if (!invalidations.affects(dependencies[0])) {
+        put(key, entry, dependencies[0]);
+        //reset could happen while the entry was added
+        if (invalidations.affects(dependencies[0])) remove(key);
+      }
+      entry.handleRequest(request, response);
+    } finally {
+      myRunningInvalidations.remove(invalidations);
+      myComputations.remove(key, computation);
+    }
+  }
+
+  private void put(@NotNull final String key,
+                   @NotNull final ResponseCacheEntry entry,
+                   @NotNull final ResponseDependencies dependencies) {
+    final CachedResponse response = new CachedResponse(entry, dependencies, myAccessCounter.incrementAndGet());
+    final CachedResponse old = myCache.put(key, response);
+    mySize.addAndGet(response.mySize - (old != null ? old.mySize : 0));
+    evictIfNeeded();
+  }
+
+  private void remove(@NotNull final String key) {
+    final CachedResponse removed = myCache.remove(key);
+    if (removed != null) mySize.addAndGet(-removed.mySize);
+  }
+
+  private void evictIfNeeded() {
+    final long maxSize = TeamCityProperties.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE_KB) * 1024L;
+    if (mySize.get() <= maxSize) return;
+
+    synchronized (myEvictionLock) {
+      if (mySize.get() <= maxSize) return;
+      final long targetSize = maxSize * EVICTION_TARGET_PERCENT / 100;
+
+      //least recently used responses go first
+      final List<Map.Entry<String, CachedResponse>> entries = new ArrayList<Map.Entry<String, CachedResponse>>(myCache.entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<String, CachedResponse>>() {
+        public int compare(Map.Entry<String, CachedResponse> o1, Map.Entry<String, CachedResponse> o2) {
+          final long a1 = o1.getValue().myLastAccess;
+          final long a2 = o2.getValue().myLastAccess;
+          return a1 < a2 ? -1 : a1 == a2 ? 0 : 1;
+        }
+      });
+
+      for (Map.Entry<String, CachedResponse> e : entries) {
+        if (mySize.get() <= targetSize) break;
+        if (myCache.remove(e.getKey(), e.getValue())) {
+          mySize.addAndGet(-e.getValue().mySize);
+          myEvictions.incrementAndGet();
+        }
+      }
     }
+  }
+
+  private static final class CachedResponse {
+    private final ResponseCacheEntry myEntry;
+    private final ResponseDependencies myDependencies;
+    private final long mySize;
+    private volatile long myLastAccess;
 
-    entry.handleRequest(request, response);
+    private CachedResponse(@NotNull final ResponseCacheEntry entry,
+                           @NotNull final ResponseDependencies dependencies,
+                           final long lastAccess) {
+      myEntry = entry;
+      myDependencies = dependencies;
+      mySize = entry.getSize();
+      myLastAccess = lastAccess;
+    }
+  }
+
+  /**
+   * Package ids and build types reset while a response is computed
+   */
+  private static final class Invalidations {
+    private final Set<String> myPackageIds = new HashSet<String>();
+    private final Set<String> myBuildTypes = new HashSet<String>();
+    private boolean myAll = false;
+
+    private synchronized void resetAll() {
+      myAll = true;
+    }
+
+    private synchronized void resetPackage(@NotNull final String packageId) {
+      myPackageIds.add(packageId);
+    }
+
+    private synchronized void resetBuildType(@NotNull final String buildTypeId) {
+      myBuildTypes.add(buildTypeId);
+    }
+
+    private synchronized boolean affects(@NotNull final ResponseDependencies dependencies) {
+      if (myAll) return true;
+      for (String packageId : myPackageIds) {
+        if (dependencies.dependsOnPackage(packageId)) return true;
+      }
+      for (String buildTypeId : myBuildTypes) {
+        if (dependencies.dependsOnBuildType(buildTypeId)) return true;
+      }
+      return false;
+    }
   }
 
   public interface ComputeAction {
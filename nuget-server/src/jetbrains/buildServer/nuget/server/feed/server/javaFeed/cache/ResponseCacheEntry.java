@@ -16,21 +16,33 @@
 
 package jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Enumeration;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
  * Date: 22.04.13 22:34
  */
 public class ResponseCacheEntry {
+  private static final String GZIP = "gzip";
+  private static final String GZIP_ETAG_SUFFIX = "-gzip";
+
   private final Map<String, String> myHeaders = new TreeMap<String, String>();
   private final byte[] myGZippedContent;
+  /** ETag of the identity content, compressed content is a different representation with its own tag */
+  private final String myETag;
+  private final String myGZippedETag;
   private final int myStatus;
 
   public ResponseCacheEntry(@NotNull final Map<String, String> headers,
@@ -38,18 +50,85 @@ public class ResponseCacheEntry {
                             final int status) {
     myHeaders.putAll(headers);
     myGZippedContent = GZippedContent;
+    final String hash = DigestUtils.md5Hex(GZippedContent);
+    myETag = "\"" + hash + "\"";
+    myGZippedETag = "\"" + hash + GZIP_ETAG_SUFFIX + "\"";
     myStatus = status;
   }
 
+  /**
+   * @return approximate number of bytes retained by the entry
+   */
+  public long getSize() {
+    long size = myGZippedContent.length;
+    for (Map.Entry<String, String> e : myHeaders.entrySet()) {
+      size += 2 * (e.getKey().length() + e.getValue().length());
+    }
+    return size;
+  }
+
   public void handleRequest(@NotNull final HttpServletRequest request,
                             @NotNull final HttpServletResponse response) throws Exception {
     for (Map.Entry<String, String> e : myHeaders.entrySet()) {
       response.setHeader(e.getKey(), e.getValue());
     }
-    response.setHeader("Content-Encoding", "gzip");
+    response.setHeader("Vary", "Accept-Encoding");
+
+    final boolean gzip = acceptsGzip(request);
+    if (myStatus == HttpServletResponse.SC_OK) {
+      final String eTag = gzip ? myGZippedETag : myETag;
+      response.setHeader("ETag", eTag);
+      if (matchesETag(request.getHeader("If-None-Match"), eTag)) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+    }
+
     response.setStatus(myStatus);
-    ServletOutputStream stream = response.getOutputStream();
-    stream.write(myGZippedContent);
+    final ServletOutputStream stream = response.getOutputStream();
+    if (gzip) {
+      response.setHeader("Content-Encoding", GZIP);
+      response.setContentLength(myGZippedContent.length);
+      stream.write(myGZippedContent);
+    } else {
+      //the entry is kept compressed, unpack it for the client
+      final InputStream content = new GZIPInputStream(new ByteArrayInputStream(myGZippedContent));
+      try {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = content.read(buffer)) > 0) {
+          stream.write(buffer, 0, read);
+        }
+      } finally {
+        content.close();
+      }
+    }
     stream.flush();
   }
+
+  private static boolean matchesETag(@Nullable final String ifNoneMatch, @NotNull final String eTag) {
+    if (ifNoneMatch == null) return false;
+    for (String tag : ifNoneMatch.split(",")) {
+      String trimmed = tag.trim();
+      //If-None-Match uses weak comparison
+      if (trimmed.startsWith("W/")) trimmed = trimmed.substring(2);
+      if (trimmed.equals("*") || trimmed.equals(eTag)) return true;
+    }
+    return false;
+  }
+
+  private static boolean acceptsGzip(@NotNull final HttpServletRequest request) {
+    final Enumeration values = request.getHeaders("Accept-Encoding");
+    if (values == null) return false;
+    while (values.hasMoreElements()) {
+      for (String coding : String.valueOf(values.nextElement()).split(",")) {
+        final String[] parts = coding.trim().split(";");
+        if (!parts[0].trim().equalsIgnoreCase(GZIP) && !parts[0].trim().equals("*")) continue;
+        //gzip;q=0 means the coding is not acceptable
+        if (parts.length > 1 && parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?")) continue;
+        return true;
+      }
+    }
+    return false;
+  }
 }
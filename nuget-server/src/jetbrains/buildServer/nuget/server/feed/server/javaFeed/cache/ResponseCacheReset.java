@@ -16,10 +16,24 @@
 
 package jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache;
 
+import org.jetbrains.annotations.NotNull;
+
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
  * Date: 23.04.13 9:34
  */
 public interface ResponseCacheReset {
   void resetCache();
+
+  /**
+   * Drops cached responses that may list packages with the given id
+   * @param packageId package id
+   */
+  void resetPackage(@NotNull String packageId);
+
+  /**
+   * Drops cached responses that may list packages produced by the given build type
+   * @param buildTypeId build type id
+   */
+  void resetBuildType(@NotNull String buildTypeId);
 }
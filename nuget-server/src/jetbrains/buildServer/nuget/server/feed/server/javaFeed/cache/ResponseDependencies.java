@@ -0,0 +1,149 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache;
+
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.MetadataConstants;
+import jetbrains.buildServer.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Package ids and build types a cached feed response depends on.
+ *
+ * Package ids are taken from requests addressing packages by id,
+ * build types are collected from the packages written into the response.
+ */
+public class ResponseDependencies {
+  private static final Pattern PACKAGE_ENTITY = Pattern.compile("Packages\\(Id='([^']+)',", Pattern.CASE_INSENSITIVE);
+  private static final ThreadLocal<Set<String>> ourBuildTypes = new ThreadLocal<Set<String>>();
+
+  @Nullable private final Set<String> myPackageIds;
+  @NotNull private final Set<String> myBuildTypes;
+
+  private ResponseDependencies(@Nullable final Set<String> packageIds, @NotNull final Set<String> buildTypes) {
+    myPackageIds = packageIds;
+    myBuildTypes = buildTypes;
+  }
+
+  /**
+   * @return lower-cased ids of packages the response is limited to or null if it may list any package
+   */
+  @Nullable
+  public Set<String> getPackageIds() {
+    return myPackageIds;
+  }
+
+  @NotNull
+  public Set<String> getBuildTypes() {
+    return myBuildTypes;
+  }
+
+  public boolean dependsOnPackage(@NotNull final String packageId) {
+    return myPackageIds == null || myPackageIds.contains(normalize(packageId));
+  }
+
+  public boolean dependsOnBuildType(@NotNull final String buildTypeId) {
+    return myPackageIds == null || myBuildTypes.contains(buildTypeId);
+  }
+
+  /**
+   * Starts collecting build types of packages used by the current thread
+   */
+  public static void start() {
+    ourBuildTypes.set(new HashSet<String>());
+  }
+
+  /**
+   * Stops collecting build types of packages used by the current thread
+   * @param request computed request
+   * @return dependencies of the computed response
+   */
+  @NotNull
+  public static ResponseDependencies finish(@NotNull final HttpServletRequest request) {
+    final Set<String> buildTypes = ourBuildTypes.get();
+    ourBuildTypes.remove();
+    return new ResponseDependencies(getRequestedPackageIds(request), buildTypes != null ? buildTypes : Collections.<String>emptySet());
+  }
+
+  /**
+   * Called for every package written into a feed response
+   * @param buildTypeId build type of the package
+   */
+  public static void packageUsed(@Nullable final String buildTypeId) {
+    final Set<String> buildTypes = ourBuildTypes.get();
+    if (buildTypes != null && buildTypeId != null) buildTypes.add(buildTypeId);
+  }
+
+  @Nullable
+  private static Set<String> getRequestedPackageIds(@NotNull final HttpServletRequest request) {
+    final String path = decode(request.getRequestURI());
+    if (path == null) return null;
+
+    if (path.contains(MetadataConstants.FIND_PACKAGES_BY_ID_FUNCTION_NAME)) {
+      String id = request.getParameter(MetadataConstants.ID_UPPER_CASE);
+      if (id == null) id = request.getParameter(MetadataConstants.ID);
+      return id == null ? null : Collections.singleton(normalize(id));
+    }
+
+    if (path.contains(MetadataConstants.GET_UPDATES_FUNCTION_NAME)) {
+      final String ids = request.getParameter(MetadataConstants.PACKAGE_IDS);
+      if (ids == null) return null;
+      final Set<String> result = new HashSet<String>();
+      for (String id : StringUtil.split(unquote(ids), "|")) {
+        result.add(normalize(id));
+      }
+      return result;
+    }
+
+    final Matcher matcher = PACKAGE_ENTITY.matcher(path);
+    if (matcher.find()) return Collections.singleton(normalize(matcher.group(1)));
+    return null;
+  }
+
+  @Nullable
+  private static String decode(@Nullable final String uri) {
+    if (uri == null) return null;
+    try {
+      return URLDecoder.decode(uri, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      return null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  @NotNull
+  private static String normalize(@NotNull final String id) {
+    return unquote(id).toLowerCase(Locale.ENGLISH);
+  }
+
+  @NotNull
+  private static String unquote(@NotNull final String value) {
+    final String trimmed = value.trim();
+    if (trimmed.length() >= 2 && trimmed.startsWith("'") && trimmed.endsWith("'")) {
+      return trimmed.substring(1, trimmed.length() - 1).trim();
+    }
+    return trimmed;
+  }
+}
@@ -21,7 +21,6 @@ import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.MetadataConstants;
-import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackageEntityEx;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackagesEntitySet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -34,9 +33,7 @@ import org.odata4j.edm.EdmSimpleType;
 import org.odata4j.edm.EdmType;
 import org.odata4j.producer.QueryInfo;
 
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -88,17 +85,17 @@ public class FindPackagesByIdFunction implements NuGetFeedFunction {
     }
     final OSimpleObject idObjectCasted = (OSimpleObject) id;
     final String packageId = idObjectCasted.getValue().toString();
-    final Iterator<NuGetIndexEntry> indexEntries = myIndex.getNuGetEntries(packageId);
-    if(!indexEntries.hasNext()){
+    final PackageEntitiesIterable result = new PackageEntitiesIterable(myServerSettings) {
+      @NotNull
+      @Override
+      protected Iterator<NuGetIndexEntry> getEntries() {
+        return myIndex.getNuGetEntries(packageId);
+      }
+    };
+    if(result.isEmpty()){
       LOG.debug("No packages found for id " + packageId);
       return null;
     }
-
-    final List<Object> entitiesList = new ArrayList<Object>();
-    while (indexEntries.hasNext()){
-      final NuGetIndexEntry indexEntry = indexEntries.next();
-      entitiesList.add(new PackageEntityEx(indexEntry, myServerSettings));
-    }
-    return entitiesList;
+    return result;
   }
 }
@@ -16,21 +16,20 @@
 
 package jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.util.containers.SortedList;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.SemanticVersionsComparators;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.MetadataConstants;
-import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackageEntityEx;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackagesEntitySet;
 import jetbrains.buildServer.nuget.server.util.FrameworkConstraints;
 import jetbrains.buildServer.nuget.server.util.SemanticVersion;
 import jetbrains.buildServer.nuget.server.util.VersionConstraint;
 import jetbrains.buildServer.nuget.server.util.VersionUtility;
-import jetbrains.buildServer.util.CollectionsUtil;
-import jetbrains.buildServer.util.Converter;
 import jetbrains.buildServer.util.StringUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -45,7 +44,6 @@ import org.odata4j.producer.QueryInfo;
 
 import java.util.*;
 
-import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.IS_PRERELEASE;
 
 /**
  * @author Evgeniy.Koshkin
@@ -103,7 +101,7 @@ public class GetUpdatesFunction implements NuGetFeedFunction {
     final boolean includePreRelease = extractBooleanParameterValue(params, MetadataConstants.INCLUDE_PRERELEASE);
     final Set<String> frameworkConstraints = FrameworkConstraints.convertFromString(extractStringParameterValue(params, MetadataConstants.TARGET_FRAMEWORKS));
 
-    final List<NuGetIndexEntry> result = new ArrayList<NuGetIndexEntry>();
+    final List<UpdateRequest> requests = new ArrayList<UpdateRequest>(packageIds.size());
 
     for(int i = 0; i < packageIds.size(); i++){
       final String requestedPackageId = packageIds.get(i);
@@ -123,46 +121,113 @@ public class GetUpdatesFunction implements NuGetFeedFunction {
         }
       }
 
-      result.addAll(getUpdateOfPackageWithId(includeAllVersions, includePreRelease, frameworkConstraints, requestedPackageId, requestedVersion, versionConstraint));
+      requests.add(new UpdateRequest(requestedPackageId, requestedVersion, versionConstraint));
     }
 
+    final PackageEntitiesIterable result = new PackageEntitiesIterable(myServerSettings) {
+      @NotNull
+      @Override
+      protected Iterator<NuGetIndexEntry> getEntries() {
+        return findUpdates(requests, includeAllVersions, includePreRelease, frameworkConstraints);
+      }
+    };
     if(result.isEmpty()){
       LOG.debug("No package updates found.");
       return null;
     }
-
-    return CollectionsUtil.convertCollection(result, new Converter<Object, NuGetIndexEntry>() {
-      public Object createFrom(@NotNull NuGetIndexEntry source) {
-        return new PackageEntityEx(source, myServerSettings);
-      }
-    });
+    return result;
   }
 
+  /**
+   * Looks up updates of all requested packages in one pass over the index.
+   * The index yields entries grouped by package id, so only updates of
+   * the current package are kept and sorted while iterating.
+   * @return updates grouped by package id, newer versions first
+   */
   @NotNull
-  private Collection<NuGetIndexEntry> getUpdateOfPackageWithId(boolean includeAllVersions, boolean includePreRelease, Set<String> frameworkConstraints, String requestedPackageId, SemanticVersion requestedVersion, VersionConstraint versionConstraint) {
-    final Iterator<NuGetIndexEntry> entryIterator = myIndex.getNuGetEntries(requestedPackageId);
-    List<NuGetIndexEntry> result = new SortedList<NuGetIndexEntry>(Collections.reverseOrder(SemanticVersionsComparators.getEntriesComparator()));
-    while (entryIterator.hasNext()){
-      final NuGetIndexEntry indexEntry = entryIterator.next();
-      if(match(indexEntry, requestedVersion,  includePreRelease, frameworkConstraints, versionConstraint)){
-        LOG.debug(String.format("Matched indexed package found fof id:%s version:%s. %s", requestedPackageId, requestedVersion, indexEntry));
-        result.add(indexEntry);
+  private Iterator<NuGetIndexEntry> findUpdates(@NotNull List<UpdateRequest> requests, final boolean includeAllVersions, final boolean includePreRelease, @NotNull final Set<String> frameworkConstraints) {
+    final Map<String, List<UpdateRequest>> requestsById = new HashMap<String, List<UpdateRequest>>();
+    for (UpdateRequest request : requests) {
+      List<UpdateRequest> packageRequests = requestsById.get(request.myPackageId);
+      if (packageRequests == null) {
+        packageRequests = new ArrayList<UpdateRequest>(1);
+        requestsById.put(request.myPackageId, packageRequests);
       }
+      packageRequests.add(request);
     }
-    if(includeAllVersions) return result;
-    else if(result.isEmpty()) return Collections.emptyList();
-    else return Collections.singletonList(result.get(0));
+    if (requestsById.isEmpty()) return Collections.<NuGetIndexEntry>emptyList().iterator();
+
+    final PeekingIterator<NuGetIndexEntry> entries = Iterators.peekingIterator(myIndex.getNuGetEntries(requestsById.keySet()));
+    final Comparator<NuGetIndexEntry> newerFirst = Collections.reverseOrder(SemanticVersionsComparators.getEntriesComparator());
+
+    return new AbstractIterator<NuGetIndexEntry>() {
+      private Iterator<NuGetIndexEntry> myPackageUpdates = Collections.<NuGetIndexEntry>emptyList().iterator();
+
+      @Override
+      protected NuGetIndexEntry computeNext() {
+        while (!myPackageUpdates.hasNext()) {
+          if (!entries.hasNext()) return endOfData();
+          myPackageUpdates = nextPackageUpdates();
+        }
+        return myPackageUpdates.next();
+      }
+
+      @NotNull
+      private Iterator<NuGetIndexEntry> nextPackageUpdates() {
+        final String packageId = entries.peek().getId();
+        final List<UpdateRequest> packageRequests = requestsById.get(packageId);
+        final List<List<NuGetIndexEntry>> requestUpdates = new ArrayList<List<NuGetIndexEntry>>();
+        if (packageRequests != null) {
+          for (int i = 0; i < packageRequests.size(); i++) {
+            requestUpdates.add(new ArrayList<NuGetIndexEntry>());
+          }
+        }
+
+        while (entries.hasNext() && packageId.equals(entries.peek().getId())) {
+          final NuGetIndexEntry indexEntry = entries.next();
+          if (packageRequests == null) continue;
+
+          for (int i = 0; i < packageRequests.size(); i++) {
+            final UpdateRequest request = packageRequests.get(i);
+            if(match(indexEntry, request.myVersion, includePreRelease, frameworkConstraints, request.myVersionConstraint)){
+              LOG.debug(String.format("Matched indexed package found fof id:%s version:%s. %s", request.myPackageId, request.myVersion, indexEntry));
+              requestUpdates.get(i).add(indexEntry);
+            }
+          }
+        }
+
+        final List<NuGetIndexEntry> result = new ArrayList<NuGetIndexEntry>();
+        for (List<NuGetIndexEntry> updates : requestUpdates) {
+          if (updates.isEmpty()) continue;
+
+          Collections.sort(updates, newerFirst);
+          if(includeAllVersions) result.addAll(updates);
+          else result.add(updates.get(0));
+        }
+        return result.iterator();
+      }
+    };
   }
 
   private boolean match(@NotNull NuGetIndexEntry indexEntry, @NotNull SemanticVersion requestedVersion, boolean includePreRelease, @NotNull Set<String> targetFrameworks, @Nullable VersionConstraint versionConstraint) {
-    final Map<String, String> indexEntryAttributes = indexEntry.getAttributes();
-    if(!includePreRelease && Boolean.parseBoolean(indexEntryAttributes.get(IS_PRERELEASE))) return false;
-    final Set<String> packageFrameworkConstraints = FrameworkConstraints.convertFromString(indexEntryAttributes.get(PackagesIndex.TEAMCITY_FRAMEWORK_CONSTRAINTS));
-    if(!targetFrameworks.isEmpty() && !VersionUtility.isPackageCompatibleWithFrameworks(targetFrameworks, packageFrameworkConstraints)) return false;
-    final SemanticVersion entryVersion = SemanticVersion.valueOf(indexEntry.getPackageInfo().getVersion());
+    if(!includePreRelease && indexEntry.isPrerelease()) return false;
+    if(!targetFrameworks.isEmpty() && !VersionUtility.isPackageCompatibleWithFrameworks(targetFrameworks, indexEntry.getFrameworkConstraints())) return false;
+    final SemanticVersion entryVersion = indexEntry.getSemanticVersion();
     return entryVersion != null && (versionConstraint == null || versionConstraint.satisfies(entryVersion)) && requestedVersion.compareTo(entryVersion) < 0;
   }
 
+  private static class UpdateRequest {
+    @NotNull private final String myPackageId;
+    @NotNull private final SemanticVersion myVersion;
+    @Nullable private final VersionConstraint myVersionConstraint;
+
+    private UpdateRequest(@NotNull String packageId, @NotNull SemanticVersion version, @Nullable VersionConstraint versionConstraint) {
+      myPackageId = packageId;
+      myVersion = version;
+      myVersionConstraint = versionConstraint;
+    }
+  }
+
   private boolean extractBooleanParameterValue(Map<String, OFunctionParameter> parameters, String parameterName) {
     return Boolean.valueOf(extractStringParameterValue(parameters, parameterName));
   }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
+import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackageEntityEx;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+
+/**
+ * Lazy function call result. Index entries are read and wrapped into
+ * feed entities only while odata4j pages through the result,
+ * so $skip and $top stop the iteration early.
+ */
+abstract class PackageEntitiesIterable implements Iterable<Object> {
+  @NotNull private final NuGetServerSettings myServerSettings;
+  private Iterator<NuGetIndexEntry> myFirstIterator;
+
+  protected PackageEntitiesIterable(@NotNull final NuGetServerSettings serverSettings) {
+    myServerSettings = serverSettings;
+  }
+
+  @NotNull
+  protected abstract Iterator<NuGetIndexEntry> getEntries();
+
+  /**
+   * Checks for the first matching entry. The started iteration is
+   * reused by the next {@link #iterator()} call.
+   */
+  public boolean isEmpty() {
+    if (myFirstIterator == null) myFirstIterator = getEntries();
+    return !myFirstIterator.hasNext();
+  }
+
+  @NotNull
+  public Iterator<Object> iterator() {
+    Iterator<NuGetIndexEntry> entries = myFirstIterator;
+    myFirstIterator = null;
+    if (entries == null) entries = getEntries();
+
+    return Iterators.transform(entries, new Function<NuGetIndexEntry, Object>() {
+      public Object apply(NuGetIndexEntry source) {
+        return new PackageEntityEx(source, myServerSettings);
+      }
+    });
+  }
+}
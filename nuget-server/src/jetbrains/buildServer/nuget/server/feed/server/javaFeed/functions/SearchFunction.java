@@ -16,15 +16,14 @@
 
 package jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
 import com.intellij.openapi.diagnostic.Logger;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
-import jetbrains.buildServer.nuget.server.feed.server.javaFeed.PackageEntityEx;
 import jetbrains.buildServer.nuget.server.util.FrameworkConstraints;
 import jetbrains.buildServer.nuget.server.util.VersionUtility;
-import jetbrains.buildServer.util.CollectionsUtil;
-import jetbrains.buildServer.util.Converter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.odata4j.core.OFunctionParameter;
@@ -33,9 +32,10 @@ import org.odata4j.core.OSimpleObject;
 import org.odata4j.edm.*;
 import org.odata4j.producer.QueryInfo;
 
-import java.util.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
-import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.IS_PRERELEASE;
 import static jetbrains.buildServer.nuget.server.feed.server.javaFeed.MetadataConstants.*;
 
 /**
@@ -120,25 +120,21 @@ public class SearchFunction implements NuGetFeedFunction {
     if(!targetFramework.isEmpty()) format += ", with target framework constraints " + targetFramework;
     LOG.debug(format);
 
-    final List<NuGetIndexEntry> result = new ArrayList<NuGetIndexEntry>();
-    final Iterator<NuGetIndexEntry> entryIterator = myIndex.search(searchTerm);
-    while (entryIterator.hasNext()){
-      final NuGetIndexEntry indexEntry = entryIterator.next();
-      if(matches(indexEntry, includePreRelease, frameworkConstraints)){
-        result.add(indexEntry);
+    return new PackageEntitiesIterable(myServerSettings) {
+      @NotNull
+      @Override
+      protected Iterator<NuGetIndexEntry> getEntries() {
+        return Iterators.filter(myIndex.search(searchTerm), new Predicate<NuGetIndexEntry>() {
+          public boolean apply(NuGetIndexEntry indexEntry) {
+            return matches(indexEntry, includePreRelease, frameworkConstraints);
+          }
+        });
       }
-    }
-    return CollectionsUtil.convertCollection(result, new Converter<Object, NuGetIndexEntry>() {
-      public Object createFrom(@NotNull NuGetIndexEntry source) {
-        return new PackageEntityEx(source, myServerSettings);
-      }
-    });
+    };
   }
 
   private boolean matches(NuGetIndexEntry nugetPackage, boolean includePreRelease, Set<String> requestedFrameworks) {
-    final Map<String, String> nugetPackageAttributes = nugetPackage.getAttributes();
-    if(!includePreRelease && Boolean.parseBoolean(nugetPackageAttributes.get(IS_PRERELEASE))) return false;
-    final Set<String> packageFrameworkConstraints = FrameworkConstraints.convertFromString(nugetPackageAttributes.get(PackagesIndex.TEAMCITY_FRAMEWORK_CONSTRAINTS));
-    return VersionUtility.isPackageCompatibleWithFrameworks(requestedFrameworks, packageFrameworkConstraints);
+    if(!includePreRelease && nugetPackage.isPrerelease()) return false;
+    return VersionUtility.isPackageCompatibleWithFrameworks(requestedFrameworks, nugetPackage.getFrameworkConstraints());
   }
 }
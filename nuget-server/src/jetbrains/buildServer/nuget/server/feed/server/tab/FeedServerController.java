@@ -20,6 +20,8 @@ import jetbrains.buildServer.controllers.AuthorizationInterceptor;
 import jetbrains.buildServer.controllers.BaseController;
 import jetbrains.buildServer.controllers.RequestPermissionsChecker;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.RecentNuGetRequests;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexCache;
 import jetbrains.buildServer.nuget.server.toolRegistry.tab.PermissionChecker;
 import jetbrains.buildServer.serverSide.auth.AccessDeniedException;
 import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
@@ -42,6 +44,8 @@ public class FeedServerController extends BaseController {
   @NotNull private final PluginDescriptor myDescriptor;
   @NotNull private final NuGetServerSettings mySettings;
   @NotNull private final ServerSettings myServerSettings;
+  @NotNull private final PackagesIndexCache myIndexCache;
+  @NotNull private final RecentNuGetRequests myRequests;
 
   public FeedServerController(@NotNull final AuthorizationInterceptor auth,
                               @NotNull final PermissionChecker checker,
@@ -49,11 +53,15 @@ public class FeedServerController extends BaseController {
                               @NotNull final WebControllerManager web,
                               @NotNull final PluginDescriptor descriptor,
                               @NotNull final ServerSettings serverSettings,
-                              @NotNull final NuGetServerSettings settings) {
+                              @NotNull final NuGetServerSettings settings,
+                              @NotNull final PackagesIndexCache indexCache,
+                              @NotNull final RecentNuGetRequests requests) {
     mySection = section;
     myDescriptor = descriptor;
     mySettings = settings;
     myServerSettings = serverSettings;
+    myIndexCache = indexCache;
+    myRequests = requests;
     final String myPath = section.getIncludePath();
 
     auth.addPathBasedPermissionsChecker(myPath, new RequestPermissionsChecker() {
@@ -76,6 +84,10 @@ public class FeedServerController extends BaseController {
     mv.getModel().put("publicFeedUrl", mySettings.getNuGetGuestAuthFeedControllerPath());
     mv.getModel().put("serverEnabled", mySettings.isNuGetServerEnabled());
     mv.getModel().put("isGuestEnabled", myServerSettings.isGuestLoginAllowed());
+    mv.getModel().put("indexLoaded", myIndexCache.isLoaded());
+    mv.getModel().put("indexLoading", myIndexCache.isLoading());
+    mv.getModel().put("indexEntriesCount", myIndexCache.getLoadedEntriesCount());
+    mv.getModel().put("operationStatistics", myRequests.getOperationStatistics());
 
     return mv;
   }
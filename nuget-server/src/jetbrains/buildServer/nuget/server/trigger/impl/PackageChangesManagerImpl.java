@@ -16,26 +16,32 @@
 
 package jetbrains.buildServer.nuget.server.trigger.impl;
 
+import jetbrains.buildServer.nuget.server.exec.SourcePackageReference;
 import jetbrains.buildServer.nuget.server.trigger.PackageChangesManager;
+import jetbrains.buildServer.nuget.server.trigger.impl.mode.CheckRequestMode;
 import jetbrains.buildServer.nuget.server.trigger.impl.queue.PackageCheckQueue;
 import jetbrains.buildServer.nuget.server.trigger.impl.settings.PackageCheckerSettings;
 import jetbrains.buildServer.util.TimeService;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
 /**
+ * Entries are indexed by check mode and package. Check and remove times are kept
+ * in priority queues. A queued time is a lower bound of the entry time: entries may
+ * postpone their times on their own, so they are re-queued with the actual time
+ * once the queued one is due.
+ *
  * @author Eugene Petrenko (eugene.petrenko@gmail.com)
  *         Date: 30.09.11 14:11
  */
 public class PackageChangesManagerImpl implements PackageChangesManager, PackageCheckQueue {
   private final TimeService myTimeService;
   private final PackageCheckerSettings mySettings;
-  private final List<PackageCheckEntry> myEntries = new ArrayList<PackageCheckEntry>();
+  private final Map<EntryKey, ScheduledEntry> myEntries = new HashMap<EntryKey, ScheduledEntry>();
+  private final PriorityQueue<ScheduledEntry> myCheckQueue = new PriorityQueue<ScheduledEntry>();
+  private final PriorityQueue<ScheduledEntry> myRemoveQueue = new PriorityQueue<ScheduledEntry>();
 
   public PackageChangesManagerImpl(@NotNull final TimeService timeService,
                                    @NotNull final PackageCheckerSettings settings) {
@@ -45,33 +51,40 @@ public class PackageChangesManagerImpl implements PackageChangesManager, Package
 
   @Nullable
   public CheckResult checkPackage(@NotNull PackageCheckRequest request) {
+    final EntryKey key = new EntryKey(request.getMode(), request.getPackage());
     synchronized (myEntries) {
-      final PackageCheckEntry entry = findEntry(request);
-      if (entry != null) {
+      final ScheduledEntry scheduled = myEntries.get(key);
+      if (scheduled != null) {
+        final PackageCheckEntry entry = scheduled.myEntry;
+        final long nextCheckTime = entry.getNextCheckTime();
         entry.update(request);
+        if (entry.getNextCheckTime() < nextCheckTime) {
+          //check time was moved earlier, queued time is no longer a lower bound
+          scheduled.myCancelled = true;
+          final ScheduledEntry rescheduled = new ScheduledEntry(entry, entry.getNextCheckTime());
+          myEntries.put(key, rescheduled);
+          myCheckQueue.add(rescheduled);
+        }
         return entry.getResult();
       }
 
-      myEntries.add(new PackageCheckEntry(request, myTimeService, mySettings));
+      final PackageCheckEntry entry = new PackageCheckEntry(request, myTimeService, mySettings);
+      final ScheduledEntry newEntry = new ScheduledEntry(entry, entry.getNextCheckTime());
+      myEntries.put(key, newEntry);
+      myCheckQueue.add(newEntry);
+      myRemoveQueue.add(new ScheduledEntry(entry, entry.getRemoveTime()));
       return null;
     }
   }
 
-  @Nullable
-  private PackageCheckEntry findEntry(@NotNull final PackageCheckRequest request) {
-    for (PackageCheckEntry entry : myEntries) {
-      if (entry.forRequest(request)) return entry;
-    }
-    return null;
-  }
-
   public long getSleepTime() {
     final long now = myTimeService.now();
     long span = mySettings.getMaxSleepInterval();
 
     synchronized (myEntries) {
-      for (PackageCheckEntry entry : myEntries) {
-        span = Math.min(entry.getNextCheckTime() - now, span);
+      final ScheduledEntry first = peekCheck();
+      if (first != null) {
+        span = Math.min(first.myTime - now, span);
       }
     }
 
@@ -84,13 +97,25 @@ public class PackageChangesManagerImpl implements PackageChangesManager, Package
     final long now = myTimeService.now();
 
     synchronized (myEntries) {
-      for (PackageCheckEntry entry : myEntries) {
-        if (entry.isExecuting()) continue;
-        //skip other mode
-        if (entry.getNextCheckTime() < now) {
+      final List<ScheduledEntry> stillDue = new ArrayList<ScheduledEntry>();
+      ScheduledEntry scheduled;
+      while ((scheduled = peekCheck()) != null && scheduled.myTime < now) {
+        myCheckQueue.poll();
+
+        final PackageCheckEntry entry = scheduled.myEntry;
+        scheduled.myTime = entry.getNextCheckTime();
+        if (scheduled.myTime >= now) {
+          myCheckQueue.add(scheduled);
+          continue;
+        }
+
+        //due entries stay queued until they are checked
+        stillDue.add(scheduled);
+        if (!entry.isExecuting()) {
           entries.add(entry);
         }
       }
+      myCheckQueue.addAll(stillDue);
     }
 
     return entries;
@@ -100,15 +125,79 @@ public class PackageChangesManagerImpl implements PackageChangesManager, Package
     final long now = myTimeService.now();
 
     synchronized (myEntries) {
-      for (Iterator<PackageCheckEntry> it = myEntries.iterator(); it.hasNext(); ) {
-        PackageCheckEntry entry = it.next();
+      final List<ScheduledEntry> pending = new ArrayList<ScheduledEntry>();
+      ScheduledEntry scheduled;
+      while ((scheduled = myRemoveQueue.peek()) != null && scheduled.myTime < now) {
+        myRemoveQueue.poll();
+
+        final PackageCheckEntry entry = scheduled.myEntry;
+        scheduled.myTime = entry.getRemoveTime();
+        if (scheduled.myTime >= now) {
+          myRemoveQueue.add(scheduled);
+          continue;
+        }
 
         //do not remove entry if result is not yet computed
-        if (entry.getResult() == null) continue;
-        if (entry.getRemoveTime() < now) {
-          it.remove();
+        if (entry.getResult() == null) {
+          pending.add(scheduled);
+          continue;
+        }
+
+        final EntryKey key = new EntryKey(entry.getMode(), entry.getPackage());
+        final ScheduledEntry current = myEntries.get(key);
+        if (current != null && current.myEntry == entry) {
+          myEntries.remove(key);
+          current.myCancelled = true;
         }
       }
+      myRemoveQueue.addAll(pending);
+    }
+  }
+
+  @Nullable
+  private ScheduledEntry peekCheck() {
+    ScheduledEntry scheduled;
+    while ((scheduled = myCheckQueue.peek()) != null && scheduled.myCancelled) {
+      myCheckQueue.poll();
+    }
+    return scheduled;
+  }
+
+  private static class ScheduledEntry implements Comparable<ScheduledEntry> {
+    private final PackageCheckEntry myEntry;
+    private long myTime;
+    private boolean myCancelled;
+
+    private ScheduledEntry(@NotNull final PackageCheckEntry entry, long time) {
+      myEntry = entry;
+      myTime = time;
+    }
+
+    public int compareTo(@NotNull ScheduledEntry o) {
+      return myTime < o.myTime ? -1 : (myTime == o.myTime ? 0 : 1);
+    }
+  }
+
+  private static class EntryKey {
+    private final CheckRequestMode myMode;
+    private final SourcePackageReference myPackage;
+
+    private EntryKey(@NotNull final CheckRequestMode mode, @NotNull final SourcePackageReference aPackage) {
+      myMode = mode;
+      myPackage = aPackage;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final EntryKey that = (EntryKey) o;
+      return myMode.equals(that.myMode) && myPackage.equals(that.myPackage);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myMode.hashCode() + myPackage.hashCode();
     }
   }
 }
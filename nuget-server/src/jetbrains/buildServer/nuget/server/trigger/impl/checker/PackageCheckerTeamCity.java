@@ -17,10 +17,12 @@
 package jetbrains.buildServer.nuget.server.trigger.impl.checker;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
 import jetbrains.buildServer.nuget.common.FeedConstants;
 import jetbrains.buildServer.nuget.server.exec.SourcePackageInfo;
 import jetbrains.buildServer.nuget.server.exec.SourcePackageReference;
 import jetbrains.buildServer.nuget.server.feed.FeedClient;
+import jetbrains.buildServer.nuget.server.feed.FeedCredentials;
 import jetbrains.buildServer.nuget.server.feed.reader.FeedPackage;
 import jetbrains.buildServer.nuget.server.feed.reader.NuGetFeedReader;
 import jetbrains.buildServer.nuget.server.trigger.impl.CheckResult;
@@ -29,12 +31,15 @@ import jetbrains.buildServer.nuget.server.trigger.impl.PackageCheckRequest;
 import jetbrains.buildServer.nuget.server.trigger.impl.mode.CheckRequestModeTeamCity;
 import jetbrains.buildServer.util.ExceptionUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 
 /**
+ * Packages from the same feed and with the same credentials are checked with one query.
+ * If the query fails, the packages are checked one by one, so only failed packages get an error.
+ *
  * @author Eugene Petrenko (eugene.petrenko@gmail.com)
  *         Date: 30.09.11 16:43
  */
@@ -56,47 +61,113 @@ public class PackageCheckerTeamCity implements PackageChecker {
   }
 
   public void update(@NotNull ExecutorService executor, @NotNull Collection<CheckablePackage> entries) {
+    final Map<Pair<String, FeedCredentials>, List<CheckablePackage>> feeds = new LinkedHashMap<Pair<String, FeedCredentials>, List<CheckablePackage>>();
     for (final CheckablePackage entry : entries) {
       entry.setExecuting();
-      executor.submit(ExceptionUtil.catchAll("Check update of NuGet package " + entry.getPackage().getPackageId(), new Runnable() {
-        private boolean isNetworkSource(@NotNull String uri) {
-          uri = uri.toLowerCase().trim();
-          return uri.startsWith("http://") || uri.startsWith("https://");
-        }
 
-        @NotNull
-        private String getUri(@NotNull final SourcePackageReference request) {
-          String uri = request.getSource();
-          if (uri == null) uri = FeedConstants.MS_REF_FEED_V2;
-          return uri;
-        }
+      final String uri = getUri(entry.getPackage());
+      if (!isNetworkSource(uri)) {
+        entry.setResult(CheckResult.failed("Current environment does not allow to start NuGet.exe processes, " +
+                "TeamCity provided emulation supports only HTTP or HTTPS NuGet package feed URLs, " +
+                "but was: " + uri));
+        continue;
+      }
 
+      final Pair<String, FeedCredentials> feed = Pair.create(uri, entry.getPackage().getCredentials());
+      List<CheckablePackage> feedEntries = feeds.get(feed);
+      if (feedEntries == null) {
+        feedEntries = new ArrayList<CheckablePackage>();
+        feeds.put(feed, feedEntries);
+      }
+      feedEntries.add(entry);
+    }
+
+    for (final Map.Entry<Pair<String, FeedCredentials>, List<CheckablePackage>> feed : feeds.entrySet()) {
+      final String uri = feed.getKey().first;
+      final FeedCredentials credentials = feed.getKey().second;
+      final List<CheckablePackage> feedEntries = feed.getValue();
+      executor.submit(ExceptionUtil.catchAll("Check update of NuGet packages from " + uri, new Runnable() {
         public void run() {
-          final String packageId = entry.getPackage().getPackageId();
-          final String uri = getUri(entry.getPackage());
-
-          if (!isNetworkSource(uri)) {
-            entry.setResult(CheckResult.failed("Current environment does not allow to start NuGet.exe processes, " +
-                    "TeamCity provided emulation supports only HTTP or HTTPS NuGet package feed URLs, " +
-                    "but was: " + uri));
-            return;
-          }
-
-          try {
-            final Collection<FeedPackage> packages = myReader.queryPackageVersions(myClient.withCredentials(entry.getPackage().getCredentials()), uri, packageId);
-            final Collection<SourcePackageInfo> infos = new ArrayList<SourcePackageInfo>();
-            for (FeedPackage aPackage : packages) {
-              infos.add(new SourcePackageInfo(entry.getPackage().getSource(), packageId, aPackage.getInfo().getVersion()));
-            }
-
-            entry.setResult(CheckResult.fromResult(infos));
-          } catch (Throwable e) {
-            final String msg = "Failed to check changes of " + packageId + ". " + e.getMessage();
-            LOG.warn(msg, e);
-            entry.setResult(CheckResult.failed(msg));
-          }
+          checkPackages(myClient.withCredentials(credentials), uri, feedEntries);
         }
       }));
     }
   }
+
+  private void checkPackages(@NotNull final FeedClient client,
+                             @NotNull final String uri,
+                             @NotNull final List<CheckablePackage> entries) {
+    final Map<String, List<CheckablePackage>> packageIds = new LinkedHashMap<String, List<CheckablePackage>>();
+    for (CheckablePackage entry : entries) {
+      final String packageId = entry.getPackage().getPackageId();
+      List<CheckablePackage> idEntries = packageIds.get(packageId);
+      if (idEntries == null) {
+        idEntries = new ArrayList<CheckablePackage>(1);
+        packageIds.put(packageId, idEntries);
+      }
+      idEntries.add(entry);
+    }
+
+    if (packageIds.size() > 1) {
+      final Map<String, Collection<FeedPackage>> packages;
+      try {
+        packages = myReader.queryPackageVersions(client, uri, packageIds.keySet());
+      } catch (Throwable e) {
+        //a long filter or one bad package id should not fail checks of other packages
+        LOG.warn("Failed to check changes of " + packageIds.keySet() + " from " + uri + " with one query, packages will be checked one by one. " + e.getMessage(), e);
+        checkPackagesOneByOne(client, uri, packageIds);
+        return;
+      }
+
+      for (CheckablePackage entry : entries) {
+        setResult(entry, packages.get(entry.getPackage().getPackageId()));
+      }
+      return;
+    }
+
+    checkPackagesOneByOne(client, uri, packageIds);
+  }
+
+  private void checkPackagesOneByOne(@NotNull final FeedClient client,
+                                     @NotNull final String uri,
+                                     @NotNull final Map<String, List<CheckablePackage>> packageIds) {
+    for (Map.Entry<String, List<CheckablePackage>> packageId : packageIds.entrySet()) {
+      final Collection<FeedPackage> versions;
+      try {
+        versions = myReader.queryPackageVersions(client, uri, packageId.getKey());
+      } catch (Throwable e) {
+        LOG.warn("Failed to check changes of " + packageId.getKey() + " from " + uri + ". " + e.getMessage(), e);
+        for (CheckablePackage entry : packageId.getValue()) {
+          entry.setResult(CheckResult.failed("Failed to check changes of " + packageId.getKey() + ". " + e.getMessage()));
+        }
+        continue;
+      }
+
+      for (CheckablePackage entry : packageId.getValue()) {
+        setResult(entry, versions);
+      }
+    }
+  }
+
+  private static void setResult(@NotNull final CheckablePackage entry, @Nullable final Collection<FeedPackage> versions) {
+    final Collection<SourcePackageInfo> infos = new ArrayList<SourcePackageInfo>();
+    if (versions != null) {
+      for (FeedPackage aPackage : versions) {
+        infos.add(new SourcePackageInfo(entry.getPackage().getSource(), entry.getPackage().getPackageId(), aPackage.getInfo().getVersion()));
+      }
+    }
+    entry.setResult(CheckResult.fromResult(infos));
+  }
+
+  private static boolean isNetworkSource(@NotNull String uri) {
+    uri = uri.toLowerCase().trim();
+    return uri.startsWith("http://") || uri.startsWith("https://");
+  }
+
+  @NotNull
+  private static String getUri(@NotNull final SourcePackageReference request) {
+    String uri = request.getSource();
+    if (uri == null) uri = FeedConstants.MS_REF_FEED_V2;
+    return uri;
+  }
 }
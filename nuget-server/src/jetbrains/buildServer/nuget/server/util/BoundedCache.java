@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.server.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent cache of a limited size.
+ * Once the limit is exceeded, the least recently used part of the entries is evicted.
+ * Reads do not lock, recency is tracked approximately by a counter of insertions.
+ */
+public class BoundedCache<K, V> {
+  private static final int EVICTED_PART = 4;
+
+  private final ConcurrentMap<K, CachedValue<V>> myEntries = new ConcurrentHashMap<K, CachedValue<V>>();
+  private final AtomicLong myClock = new AtomicLong();
+  private final AtomicBoolean myEvicting = new AtomicBoolean();
+  private final int myMaxSize;
+
+  public BoundedCache(final int maxSize) {
+    myMaxSize = maxSize;
+  }
+
+  @Nullable
+  public V get(@NotNull final K key) {
+    final CachedValue<V> cached = myEntries.get(key);
+    if (cached == null) return null;
+    cached.touch(myClock.get());
+    return cached.myValue;
+  }
+
+  /**
+   * @return the value cached for the key by a concurrent call or the given value
+   */
+  @NotNull
+  public V putIfAbsent(@NotNull final K key, @NotNull final V value) {
+    final CachedValue<V> existing = myEntries.putIfAbsent(key, new CachedValue<V>(value, myClock.incrementAndGet()));
+    if (existing != null) {
+      existing.touch(myClock.get());
+      return existing.myValue;
+    }
+    if (myEntries.size() > myMaxSize) evictLeastRecentlyUsed();
+    return value;
+  }
+
+  public int size() {
+    return myEntries.size();
+  }
+
+  private void evictLeastRecentlyUsed() {
+    //concurrent callers do not wait, the cache may exceed the limit until the eviction completes
+    if (!myEvicting.compareAndSet(false, true)) return;
+    try {
+      final List<Map.Entry<K, CachedValue<V>>> entries = new ArrayList<Map.Entry<K, CachedValue<V>>>(myEntries.entrySet());
+      final long[] lastUses = new long[entries.size()];
+      for (int i = 0; i < lastUses.length; i++) {
+        lastUses[i] = entries.get(i).getValue().myLastUse;
+      }
+      final int evicted = Math.max(1, entries.size() / EVICTED_PART);
+      final long[] sortedLastUses = lastUses.clone();
+      Arrays.sort(sortedLastUses);
+      final long threshold = sortedLastUses[evicted - 1];
+
+      int removed = 0;
+      for (int i = 0; i < lastUses.length && removed < evicted; i++) {
+        if (lastUses[i] <= threshold && myEntries.remove(entries.get(i).getKey(), entries.get(i).getValue())) removed++;
+      }
+    } finally {
+      myEvicting.set(false);
+    }
+  }
+
+  private static final class CachedValue<V> {
+    @NotNull private final V myValue;
+    private volatile long myLastUse;
+
+    private CachedValue(@NotNull final V value, final long lastUse) {
+      myValue = value;
+      myLastUse = lastUse;
+    }
+
+    private void touch(final long now) {
+      //avoids writing shared memory on every read of a hot entry
+      if (myLastUse != now) myLastUse = now;
+    }
+  }
+}
@@ -24,6 +24,8 @@ import org.jetbrains.annotations.Nullable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Evgeniy.Koshkin
@@ -31,6 +33,8 @@ import java.util.Set;
 public class FrameworkConstraints {
 
   private static final String SEPARATOR = "|";
+  private static final int MAX_SHARED_CONSTRAINTS = 4096;
+  private static final ConcurrentMap<String, Set<String>> ourSharedConstraints = new ConcurrentHashMap<String, Set<String>>();
 
   @NotNull
   public static String convertToString(Collection<String> constraints){
@@ -42,4 +46,22 @@ public class FrameworkConstraints {
     if(string == null) return Collections.emptySet();
     return Sets.newHashSet(StringUtil.split(string, SEPARATOR));
   }
+
+  /**
+   * Same as {@link #convertFromString(String)}, but returns immutable sets
+   * shared between all packages with the same constraints string
+   */
+  @NotNull
+  public static Set<String> getSharedConstraints(@Nullable String string){
+    if(string == null || string.length() == 0) return Collections.emptySet();
+
+    final Set<String> shared = ourSharedConstraints.get(string);
+    if(shared != null) return shared;
+
+    final Set<String> constraints = Collections.unmodifiableSet(convertFromString(string));
+    if(ourSharedConstraints.size() >= MAX_SHARED_CONSTRAINTS) return constraints;
+
+    final Set<String> existing = ourSharedConstraints.putIfAbsent(string, constraints);
+    return existing != null ? existing : constraints;
+  }
 }
@@ -28,21 +28,51 @@ import java.util.regex.Pattern;
  */
 public class SemanticVersion implements Comparable<SemanticVersion> {
   private static Pattern VERSION_STRING_MATCHING_PATTERN = Pattern.compile("^([0-9]+)(?:\\.([0-9]+))?(?:\\.([0-9]+))?(?:\\.([0-9]+))?(?:-([0-9A-Za-z-]+(?:\\.[0-9A-Za-z-]+)*))?(?:\\+[0-9A-Za-z-\\.]+)?$", Pattern.CASE_INSENSITIVE);
+  private static final Pattern SPECIAL_VERSION_SEPARATOR = Pattern.compile("\\.");
+
+  /** marks non-numeric labels of the special version */
+  private static final long NOT_A_NUMBER = Long.MIN_VALUE;
+  private static final int MAX_CACHED_VERSIONS = 16 * 1024;
+  private static final BoundedCache<String, SemanticVersion> ourVersions = new BoundedCache<String, SemanticVersion>(MAX_CACHED_VERSIONS);
 
   @NotNull private final Version myVersion;
   @Nullable private final String mySpecialVersion;
   @NotNull private final String myOriginalString;
+  /** dot-separated labels of the special version and their numeric values, computed once for comparisons */
+  @NotNull private final String[] mySpecialLabels;
+  @NotNull private final long[] mySpecialNumbers;
 
   private SemanticVersion(@NotNull Version version, @Nullable String specialVersion, @NotNull String originalString) {
     myVersion = version;
     mySpecialVersion = specialVersion;
     myOriginalString = originalString;
+    mySpecialLabels = split(specialVersion);
+    mySpecialNumbers = new long[mySpecialLabels.length];
+    for (int i = 0; i < mySpecialLabels.length; i++) {
+      mySpecialNumbers[i] = parseLabel(mySpecialLabels[i]);
+    }
   }
 
+  /**
+   * Parsed versions are immutable and kept in a bounded cache, so the same
+   * instance is usually returned for the same version string
+   */
   @Nullable
   public static SemanticVersion valueOf(@NotNull String versionString) {
     if (Strings.isNullOrEmpty(versionString)) return null;
 
+    final SemanticVersion cached = ourVersions.get(versionString);
+    if (cached != null) return cached;
+
+    final SemanticVersion version = parse(versionString);
+    if (version == null) return null;
+
+    return ourVersions.putIfAbsent(versionString, version);
+  }
+
+  @Nullable
+  private static SemanticVersion parse(@NotNull String versionString) {
+
     final Matcher match = VERSION_STRING_MATCHING_PATTERN.matcher(versionString.trim());
     if (!match.find()) return null;
 
@@ -88,12 +118,12 @@ public class SemanticVersion implements Comparable<SemanticVersion> {
     else if (empty) return 1;
     else if (otherEmpty) return -1;
 
-    String[] o1 = split(mySpecialVersion);
-    String[] o2 = split(other.mySpecialVersion);
+    final String[] o1 = mySpecialLabels;
+    final String[] o2 = other.mySpecialLabels;
 
     int x;
     for(int i = 0, max = Math.min(o1.length, o2.length); i < max; i++) {
-      if ((x = compareElements(o1[i], o2[i]))!= 0) return x;
+      if ((x = compareElements(o1[i], mySpecialNumbers[i], o2[i], other.mySpecialNumbers[i]))!= 0) return x;
     }
     if (o1.length == 0 && o2.length > 0) return 1;
     if (o2.length == 0 && o1.length > 0) return -1;
@@ -130,26 +160,14 @@ public class SemanticVersion implements Comparable<SemanticVersion> {
     return myOriginalString;
   }
 
-  private int compareElements(@NotNull String s1, @NotNull String s2) {
-    int i1 = 0;
-    int i2 = 0;
-    boolean isInt1 = true;
-    boolean isInt2 = true;
-    try {
-      i1 = Integer.parseInt(s1);
-    } catch (Exception e) {
-      isInt1 = false;
-    }
-    try {
-      i2 = Integer.parseInt(s2);
-    } catch (Exception e) {
-      isInt2 = false;
-    }
+  private static int compareElements(@NotNull String s1, long n1, @NotNull String s2, long n2) {
+    final boolean isInt1 = n1 != NOT_A_NUMBER;
+    final boolean isInt2 = n2 != NOT_A_NUMBER;
 
     if (isInt1 && isInt2) {
-      if (i1 == i2) return 0;
-      if (i1 < i2) return -1;
-      if (i1 > i2) return 1;
+      if (n1 == n2) return 0;
+      if (n1 < n2) return -1;
+      if (n1 > n2) return 1;
     }
 
     if (isInt1 && !isInt2) {
@@ -163,9 +181,17 @@ public class SemanticVersion implements Comparable<SemanticVersion> {
     return s1.compareTo(s2);
   }
 
+  private static long parseLabel(@NotNull String label) {
+    try {
+      return Integer.parseInt(label);
+    } catch (Exception e) {
+      return NOT_A_NUMBER;
+    }
+  }
+
   @NotNull
-  private String[] split(@Nullable String s) {
+  private static String[] split(@Nullable String s) {
     if (s == null || s.length() == 0) return new String[0];
-    return Pattern.compile("\\.").split(s);
+    return SPECIAL_VERSION_SEPARATOR.split(s);
   }
 }
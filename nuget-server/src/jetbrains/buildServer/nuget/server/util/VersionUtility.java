@@ -25,10 +25,8 @@ import jetbrains.buildServer.util.filters.Filter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -157,6 +155,21 @@ public class VersionUtility {
   private static final String PROFILE_PART_SEPARATOR = "-";
   private static final Pattern VERSION_MATCHING_PATTERN = Pattern.compile("\\d+");
 
+  private static final String FRAMEWORK_NAMES_HITS_STAT = "Framework names cache hits";
+  private static final String FRAMEWORK_NAMES_MISSES_STAT = "Framework names cache misses";
+  private static final String COMPATIBILITY_HITS_STAT = "Framework compatibility cache hits";
+  private static final String COMPATIBILITY_MISSES_STAT = "Framework compatibility cache misses";
+
+  private static final int MAX_CACHED_ITEMS = 4096;
+  /** cached for framework strings that can not be parsed */
+  private static final FrameworkName UNKNOWN_FRAMEWORK = new FrameworkName("", null, "");
+  private static final BoundedCache<String, FrameworkName> ourFrameworkNames = new BoundedCache<String, FrameworkName>(MAX_CACHED_ITEMS);
+  private static final BoundedCache<CompatibilityKey, Boolean> ourCompatibility = new BoundedCache<CompatibilityKey, Boolean>(MAX_CACHED_ITEMS);
+  private static final AtomicLong ourFrameworkNamesHits = new AtomicLong();
+  private static final AtomicLong ourFrameworkNamesMisses = new AtomicLong();
+  private static final AtomicLong ourCompatibilityHits = new AtomicLong();
+  private static final AtomicLong ourCompatibilityMisses = new AtomicLong();
+
   public static boolean isKnownFramework(@NotNull String frameworkString) {
     return parseFrameworkName(frameworkString) != null;
   }
@@ -203,8 +216,25 @@ public class VersionUtility {
     return false;
   }
 
+  /**
+   * Parsed names are cached, so the same instance is usually returned for the same string
+   */
   @Nullable
   public static FrameworkName parseFrameworkName(@NotNull String frameworkNameString) {
+    final FrameworkName cached = ourFrameworkNames.get(frameworkNameString);
+    if (cached != null) {
+      ourFrameworkNamesHits.incrementAndGet();
+      return cached == UNKNOWN_FRAMEWORK ? null : cached;
+    }
+
+    ourFrameworkNamesMisses.incrementAndGet();
+    final FrameworkName frameworkName = doParseFrameworkName(frameworkNameString);
+    ourFrameworkNames.putIfAbsent(frameworkNameString, frameworkName == null ? UNKNOWN_FRAMEWORK : frameworkName);
+    return frameworkName;
+  }
+
+  @Nullable
+  private static FrameworkName doParseFrameworkName(@NotNull String frameworkNameString) {
     final String[] frameworkStringParts = frameworkNameString.split(PROFILE_PART_SEPARATOR);
     if (frameworkStringParts.length > 2) return null;
 
@@ -264,6 +294,22 @@ public class VersionUtility {
   public static boolean isPackageCompatibleWithFrameworks(Set<String> projectFrameworks, final Set<String> packageFrameworkConstraints) {
     if(packageFrameworkConstraints.isEmpty()) return true; //package is compatible with all the frameworks
     if(projectFrameworks.isEmpty()) return true; //no project-level constraints were provided
+
+    final Boolean cached = ourCompatibility.get(new CompatibilityKey(projectFrameworks, packageFrameworkConstraints));
+    if (cached != null) {
+      ourCompatibilityHits.incrementAndGet();
+      return cached;
+    }
+
+    ourCompatibilityMisses.incrementAndGet();
+    final boolean compatible = computePackageCompatibility(projectFrameworks, packageFrameworkConstraints);
+    //sets given by callers may be modified later
+    final CompatibilityKey key = new CompatibilityKey(new HashSet<String>(projectFrameworks), new HashSet<String>(packageFrameworkConstraints));
+    ourCompatibility.putIfAbsent(key, compatible);
+    return compatible;
+  }
+
+  private static boolean computePackageCompatibility(Set<String> projectFrameworks, final Set<String> packageFrameworkConstraints) {
     final List<FrameworkName> frameworksParsed = CollectionsUtil.convertAndFilterNulls(projectFrameworks, new Converter<FrameworkName, String>() {
       public FrameworkName createFrom(@NotNull String source) {
         return parseFrameworkName(source);
@@ -283,6 +329,16 @@ public class VersionUtility {
     return false;
   }
 
+  @NotNull
+  public static Map<String, Long> getCacheStatistics() {
+    final Map<String, Long> stats = new HashMap<String, Long>();
+    stats.put(FRAMEWORK_NAMES_HITS_STAT, ourFrameworkNamesHits.get());
+    stats.put(FRAMEWORK_NAMES_MISSES_STAT, ourFrameworkNamesMisses.get());
+    stats.put(COMPATIBILITY_HITS_STAT, ourCompatibilityHits.get());
+    stats.put(COMPATIBILITY_MISSES_STAT, ourCompatibilityMisses.get());
+    return stats;
+  }
+
   @Nullable
   public static String normalizeVersion(@NotNull String versionString) {
     final SemanticVersion semanticVersion = SemanticVersion.valueOf(versionString);
@@ -308,4 +364,31 @@ public class VersionUtility {
     }
     return result;
   }
+
+  private static final class CompatibilityKey {
+    private final Set<String> myProjectFrameworks;
+    private final Set<String> myPackageFrameworks;
+    private final int myHashCode;
+
+    private CompatibilityKey(@NotNull Set<String> projectFrameworks, @NotNull Set<String> packageFrameworks) {
+      myProjectFrameworks = projectFrameworks;
+      myPackageFrameworks = packageFrameworks;
+      myHashCode = 31 * projectFrameworks.hashCode() + packageFrameworks.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof CompatibilityKey)) return false;
+      final CompatibilityKey that = (CompatibilityKey) o;
+      return myHashCode == that.myHashCode
+              && myProjectFrameworks.equals(that.myProjectFrameworks)
+              && myPackageFrameworks.equals(that.myPackageFrameworks);
+    }
+
+    @Override
+    public int hashCode() {
+      return myHashCode;
+    }
+  }
 }
@@ -20,12 +20,14 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import jetbrains.buildServer.BaseTestCase;
 import jetbrains.buildServer.nuget.common.PackageLoadException;
+import jetbrains.buildServer.nuget.common.nuspec.NuspecFileContent;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.FrameworkConstraintsCalculator;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetPackageStructureAnalyser;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetPackageStructureVisitor;
 import jetbrains.buildServer.nuget.tests.integration.Paths;
 import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
 import jetbrains.buildServer.util.FileUtil;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -36,13 +38,11 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * @author Evgeniy.Koshkin
@@ -108,6 +108,67 @@ public class FrameworkConstraintsCalculatorTest extends BaseTestCase {
     assertPackageConstraints(Sets.newHashSet("net40-client"), "packages/subfoldersNamesCaseInsensitivity.nupkg");
   }
 
+  @Test
+  public void shouldComputePackageDigestWhileVisiting() throws Exception {
+    assertPackageDigestAndConstraints(false);
+  }
+
+  @Test
+  public void shouldReadLocalPackageFileFromCentralDirectory() throws Exception {
+    assertPackageDigestAndConstraints(true);
+  }
+
+  @Test
+  public void shouldNotRepeatEntriesWhenFallingBackToStreaming() throws Exception {
+    final File pkg = createTempFile();
+    final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(pkg));
+    try {
+      zip.putNextEntry(new ZipEntry("lib/net40/foo.dll"));
+      zip.write("foo".getBytes("UTF-8"));
+      zip.putNextEntry(new ZipEntry("foo.nuspec"));
+      zip.write("<package>broken</package>".getBytes("UTF-8"));
+    } finally {
+      zip.close();
+    }
+    //corrupt compressed .nuspec content, so the package fails after its first entry was visited
+    final RandomAccessFile file = new RandomAccessFile(pkg, "rw");
+    try {
+      final byte[] content = new byte[(int) file.length()];
+      file.readFully(content);
+      file.seek(new String(content, "ISO-8859-1").indexOf("foo.nuspec") + "foo.nuspec".length());
+      file.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+    } finally {
+      file.close();
+    }
+
+    final List<String> entries = new ArrayList<String>();
+    final NuGetPackageStructureAnalyser analyser = new NuGetPackageStructureAnalyser() {
+      public void analyseEntry(@NotNull String entryName) {
+        entries.add(entryName);
+      }
+
+      public void analyseNuspecFile(@NotNull NuspecFileContent nuspecContent) {
+      }
+    };
+    final boolean complete = new NuGetPackageStructureVisitor(Lists.newArrayList(analyser)).visit(artifact(pkg), pkg, MessageDigest.getInstance("SHA-512"));
+
+    Assert.assertFalse(complete);
+    assertEquals(Arrays.asList("lib/net40/foo.dll", "foo.nuspec"), entries);
+  }
+
+  private void assertPackageDigestAndConstraints(boolean useLocalFile) throws Exception {
+    final File pkg = Paths.getTestDataPath("packages/subfolders.nupkg");
+    final FrameworkConstraintsCalculator calculator = new FrameworkConstraintsCalculator();
+    final MessageDigest digest = MessageDigest.getInstance("SHA-512");
+    final boolean complete = new NuGetPackageStructureVisitor(Lists.<NuGetPackageStructureAnalyser>newArrayList(calculator)).visit(artifact(pkg), useLocalFile ? pkg : null, digest);
+
+    Assert.assertTrue(complete);
+    assertEquals(Sets.newHashSet("net40-full", "net40-client", "net40"), calculator.getPackageConstraints());
+    final FileInputStream stream = new FileInputStream(pkg);
+    myStreams.add(stream);
+    Assert.assertTrue(Arrays.equals(DigestUtils.sha512(stream), digest.digest()));
+  }
+
   private void assertPackageConstraints(Set<String> expectedConstraints, @NotNull String pathToPackage) throws IOException, PackageLoadException {
     final File pkg = Paths.getTestDataPath(pathToPackage);
     Assert.assertTrue(pkg.isFile(), "Package wasn't found on path " + pkg.getAbsolutePath());
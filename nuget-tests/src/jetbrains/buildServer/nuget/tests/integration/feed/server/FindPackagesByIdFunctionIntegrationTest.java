@@ -30,4 +30,16 @@ public class FindPackagesByIdFunctionIntegrationTest extends NuGetJavaFeedIntegr
     assertContainsPackageVersion(openRequest("FindPackagesById()?Id='MyPackage'"), "1.0.0.0");
     assert204("FindPackagesById()?ID='MyPackage'");
   }
+
+  @Test
+  public void testSkipTop() throws Exception {
+    addMockPackage("MyPackage", "1.0.0.0");
+    addMockPackage("MyPackage", "2.0.0.0");
+    addMockPackage("MyPackage", "3.0.0.0");
+
+    final String skipTopResponse = openRequest("FindPackagesById()?id='MyPackage'&$skip=1&$top=1");
+    assertNotContainsPackageVersion(skipTopResponse, "1.0.0.0");
+    assertContainsPackageVersion(skipTopResponse, "2.0.0.0");
+    assertNotContainsPackageVersion(skipTopResponse, "3.0.0.0");
+  }
 }
@@ -22,15 +22,19 @@ import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.impl.NuGetServerSettingsImpl;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexCache;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexImpl;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.SemanticVersionsComparators;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.DownloadUrlComputationTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.IsPrereleaseTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.NuGetProducerHolder;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseCache;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.functions.NuGetFeedFunctions;
 import jetbrains.buildServer.nuget.tests.integration.Paths;
+import jetbrains.buildServer.serverSide.BuildServerListener;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.EventDispatcher;
 import org.jetbrains.annotations.NotNull;
 import org.jmock.Expectations;
 import org.jmock.api.Invocation;
@@ -88,7 +92,18 @@ public class NuGetJavaFeedIntegrationTestBase extends NuGetFeedIntegrationTestBa
           return getPackages();
         }
       });
+      allowing(myIndexProxy).getNuGetEntries(with(any(Collection.class))); will(new CustomAction("lazy return packages") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return getPackages();
+        }
+      });
+      allowing(myIndexProxy).getLatestNuGetEntries(); will(new CustomAction("lazy return latest packages") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return myActualIndex.getLatestNuGetEntries();
+        }
+      });
       allowing(myIndex).getNuGetEntries(); will(returnIterator(myFeed));
+      allowing(myIndex).getLatestNuGetEntries(); will(returnIterator(myFeed));
       allowing(mySettings).getNuGetFeedControllerPath(); will(returnValue(NuGetServerSettingsImpl.PATH));
 
       allowing(myMetadataStorage).getAllEntries(NUGET_PROVIDER_ID); will(new CustomAction("transform entries") {
@@ -132,6 +147,7 @@ public class NuGetJavaFeedIntegrationTestBase extends NuGetFeedIntegrationTestBa
   public void enablePackagesIndexSorting() {
     setPackagesIndex(new PackagesIndexImpl(
             myMetadataStorage,
+            new PackagesIndexCache(myMetadataStorage, EventDispatcher.create(BuildServerListener.class), new ResponseCache(EventDispatcher.create(BuildServerListener.class))),
             Arrays.asList(
               new IsPrereleaseTransformation(),
               new MockExternalIdTransformation(),
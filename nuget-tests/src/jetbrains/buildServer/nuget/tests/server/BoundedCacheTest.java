@@ -0,0 +1,69 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.util.BoundedCache;
+import org.testng.annotations.Test;
+
+public class BoundedCacheTest extends BaseTestCase {
+  @Test
+  public void test_returns_cached_value() {
+    final BoundedCache<String, String> cache = new BoundedCache<String, String>(10);
+    assertNull(cache.get("a"));
+    assertEquals("1", cache.putIfAbsent("a", "1"));
+    assertEquals("1", cache.putIfAbsent("a", "2"));
+    assertEquals("1", cache.get("a"));
+  }
+
+  @Test
+  public void test_keeps_size_bounded() {
+    final BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(100);
+    for (int i = 0; i < 1000; i++) {
+      cache.putIfAbsent(i, String.valueOf(i));
+      assertTrue(cache.size() <= 100);
+    }
+  }
+
+  @Test
+  public void test_evicts_part_of_entries() {
+    final BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(100);
+    for (int i = 0; i <= 100; i++) {
+      cache.putIfAbsent(i, String.valueOf(i));
+    }
+    assertTrue(cache.size() >= 75);
+    assertTrue(cache.size() <= 100);
+  }
+
+  @Test
+  public void test_evicts_least_recently_used() {
+    final BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(100);
+    for (int i = 0; i < 100; i++) {
+      cache.putIfAbsent(i, String.valueOf(i));
+    }
+    for (int i = 0; i < 50; i++) {
+      assertEquals(String.valueOf(i), cache.get(i));
+    }
+    cache.putIfAbsent(100, "100");
+
+    for (int i = 0; i < 50; i++) {
+      assertEquals(String.valueOf(i), cache.get(i));
+    }
+    assertNull(cache.get(50));
+    assertEquals("100", cache.get(100));
+  }
+}
@@ -30,4 +30,23 @@ public class SemanticVersionTest extends BaseTestCase {
     assertEquals(SemanticVersion.valueOf("1.0.0"), SemanticVersion.valueOf("1.0"));
     assertEquals(SemanticVersion.valueOf("1.0.0"), SemanticVersion.valueOf("1.0.0.0"));
   }
+
+  @Test
+  public void testReturnsSameInstanceForSameString() throws Exception {
+    final SemanticVersion version = SemanticVersion.valueOf("2.1.0-beta.3");
+    assertNotNull(version);
+    assertSame(version, SemanticVersion.valueOf("2.1.0-beta.3"));
+    assertEquals("2.1.0-beta.3", version.toString());
+    assertEquals("beta.3", version.getSpecialVersion());
+  }
+
+  @Test
+  public void testKeepsRecentlyUsedVersionWhenCacheIsFull() throws Exception {
+    final SemanticVersion version = SemanticVersion.valueOf("3.1.4-recent");
+    for (int i = 0; i < 40 * 1024; i++) {
+      SemanticVersion.valueOf("1.0." + i);
+      if (i % 1024 == 0) assertSame(version, SemanticVersion.valueOf("3.1.4-recent"));
+    }
+    assertSame(version, SemanticVersion.valueOf("3.1.4-recent"));
+  }
 }
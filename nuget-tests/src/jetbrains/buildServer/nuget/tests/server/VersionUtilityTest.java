@@ -23,6 +23,11 @@ import jetbrains.buildServer.nuget.server.util.VersionUtility;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * @author Evgeniy.Koshkin
  */
@@ -169,4 +174,39 @@ public class VersionUtilityTest extends BaseTestCase {
     assertEquals("5.0.0", VersionUtility.normalizeVersion("05.0"));
     assertEquals("6.2.1.1", VersionUtility.normalizeVersion("6.2.01.1"));
   }
+
+  @Test
+  public void packageCompatibilityIsCached() {
+    final Set<String> project = new HashSet<String>(Arrays.asList("net40", "net45"));
+    final Set<String> package1 = Collections.singleton("net45");
+    final Set<String> package2 = Collections.singleton("sl4");
+
+    assertTrue(VersionUtility.isPackageCompatibleWithFrameworks(project, package1));
+    assertFalse(VersionUtility.isPackageCompatibleWithFrameworks(project, package2));
+
+    final long hits = VersionUtility.getCacheStatistics().get("Framework compatibility cache hits");
+    assertTrue(VersionUtility.isPackageCompatibleWithFrameworks(new HashSet<String>(project), package1));
+    assertFalse(VersionUtility.isPackageCompatibleWithFrameworks(project, package2));
+    assertEquals(hits + 2, (long) VersionUtility.getCacheStatistics().get("Framework compatibility cache hits"));
+
+    //the cache must not be affected by later changes of given sets
+    project.add("sl4");
+    assertTrue(VersionUtility.isPackageCompatibleWithFrameworks(project, package2));
+  }
+
+  @Test
+  public void parsedFrameworkNamesAreCached() {
+    assertSame(VersionUtility.parseFrameworkName("portable-net45+win8"), VersionUtility.parseFrameworkName("portable-net45+win8"));
+    assertNull(VersionUtility.parseFrameworkName("unknown-framework-name"));
+    assertNull(VersionUtility.parseFrameworkName("unknown-framework-name"));
+  }
+
+  @Test
+  public void frequentlyUsedFrameworkNamesStayCached() {
+    final FrameworkName frameworkName = VersionUtility.parseFrameworkName("portable-net40+sl5");
+    for (int i = 0; i < 20000; i++) {
+      VersionUtility.parseFrameworkName("net40-profile" + i);
+      if (i % 512 == 0) assertSame(frameworkName, VersionUtility.parseFrameworkName("portable-net40+sl5"));
+    }
+  }
 }
@@ -24,6 +24,9 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 /**
  * Created by Eugene Petrenko (eugene.petrenko@gmail.com)
  * Date: 12.08.11 15:19
@@ -74,4 +77,16 @@ public class FeedGetMethodFactoryTest extends BaseTestCase {
     final HttpGet get = myFactory.createGet("http://jetbrais.com", new Param("$qqq","ppp"), new Param("$www","t t 't'"));
     Assert.assertEquals(get.getURI().toString(), "http://jetbrais.com?%24qqq=ppp&%24www=t+t+%27t%27");
   }
+
+  @Test
+  public void test_select() {
+    final HttpGet get = myFactory.createSelectGet("http://jetbrais.com", Arrays.asList("Id", "Version"), new Param("$filter", "Id eq 'a'"));
+    Assert.assertEquals(get.getURI().toString(), "http://jetbrais.com?%24filter=Id+eq+%27a%27&%24select=Id%2CVersion");
+  }
+
+  @Test
+  public void test_select_empty() {
+    final HttpGet get = myFactory.createSelectGet("http://jetbrais.com", Collections.<String>emptyList(), new Param("qqq","ppp"));
+    Assert.assertEquals(get.getURI().toString(), "http://jetbrais.com?qqq=ppp");
+  }
 }
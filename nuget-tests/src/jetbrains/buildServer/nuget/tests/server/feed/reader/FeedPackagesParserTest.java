@@ -18,19 +18,18 @@ package jetbrains.buildServer.nuget.tests.server.feed.reader;
 
 import jetbrains.buildServer.BaseTestCase;
 import jetbrains.buildServer.nuget.server.feed.reader.FeedPackage;
+import jetbrains.buildServer.nuget.server.feed.reader.impl.FeedPage;
 import jetbrains.buildServer.nuget.server.feed.reader.impl.PackagesFeedParser;
 import jetbrains.buildServer.nuget.server.feed.reader.impl.PackagesFeedParserImpl;
 import jetbrains.buildServer.nuget.tests.integration.Paths;
 import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.util.TestFor;
-import org.jdom.Element;
-import org.jdom.JDOMException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
-import java.io.IOException;
+import java.io.*;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -44,7 +43,7 @@ public class FeedPackagesParserTest extends BaseTestCase {
   private PackagesFeedParser myParser = new PackagesFeedParserImpl();
 
   @Test
-  public void test_ParseRealFeed() throws JDOMException, IOException {
+  public void test_ParseRealFeed() throws IOException {
     String url = "feed/reader/feed-response.xml";
     final Collection<FeedPackage> feedPackages = readPackages(url, null);
     boolean hasLatest = false;
@@ -57,14 +56,14 @@ public class FeedPackagesParserTest extends BaseTestCase {
 
   @Test
   @TestFor(issues = "TW-21048")
-  public void test_ParseNextLink() throws JDOMException, IOException {
+  public void test_ParseNextLink() throws IOException {
     String nextUrl = "http://packages.nuget.org/v1/FeedService.svc/Packages?$skiptoken='Adam.JSGenerator','1.2.0.0'";
     Collection<FeedPackage> packages = readPackages("feed/reader/feed-next.xml", nextUrl);
     Assert.assertEquals(packages.size(), 100);
   }
 
   @Test
-  public void test_ParseOnePackage() throws JDOMException, IOException {
+  public void test_ParseOnePackage() throws IOException {
     final Collection<FeedPackage> packages = readPackages("feed/reader/feed-one.xml", null);
 
     Assert.assertEquals(packages.size(), 1);
@@ -79,7 +78,7 @@ public class FeedPackagesParserTest extends BaseTestCase {
   }
 
   @Test
-  public void test_ParsePackagesNewFormat_2011_12_06() throws JDOMException, IOException {
+  public void test_ParsePackagesNewFormat_2011_12_06() throws IOException {
     final Collection<FeedPackage> packages = readPackages("feed/reader/feed-new.xml", null);
 
     Assert.assertEquals(packages.size(), 21);
@@ -93,18 +92,42 @@ public class FeedPackagesParserTest extends BaseTestCase {
   }
 
   @Test
-  public void test_broken() {
-    Element el = new Element("broken");
+  public void test_broken() throws IOException {
     final Collection<FeedPackage> feedPackages = new ArrayList<FeedPackage>();
-    myParser.readPackages(el, feedPackages);
+    myParser.readPage(new ByteArrayInputStream("<broken/>".getBytes("UTF-8")), feedPackages);
     Assert.assertTrue(feedPackages.isEmpty());
   }
 
+  @Test
+  public void test_broken_stream() throws IOException {
+    final Collection<FeedPackage> feedPackages = new ArrayList<FeedPackage>();
+    Assert.assertNull(myParser.readPage(new ByteArrayInputStream("<broken><entry/></broken>".getBytes("UTF-8")), feedPackages).getNextUrl());
+    Assert.assertTrue(feedPackages.isEmpty());
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void test_malformed_stream() throws IOException {
+    myParser.readPage(new ByteArrayInputStream("<feed><entry>".getBytes("UTF-8")), new ArrayList<FeedPackage>());
+  }
+
+  @Test
+  public void test_stream_count() throws IOException {
+    final String feed = "<feed xmlns='http://www.w3.org/2005/Atom' xmlns:m='http://schemas.microsoft.com/ado/2007/08/dataservices/metadata'>" +
+            "<m:count>142</m:count><link rel='next' href='http://host/Packages?$skip=100'/></feed>";
+    final FeedPage page = myParser.readPage(new ByteArrayInputStream(feed.getBytes("UTF-8")), new ArrayList<FeedPackage>());
+    Assert.assertEquals(page.getCount(), Long.valueOf(142));
+    Assert.assertEquals(page.getNextUrl(), "http://host/Packages?$skip=100");
+  }
+
   @NotNull
-  private Collection<FeedPackage> readPackages(@NotNull String url, @Nullable final String nextUrl) throws JDOMException, IOException {
-    final Element doc = FileUtil.parseDocument(Paths.getTestDataPath(url));
+  private Collection<FeedPackage> readPackages(@NotNull String url, @Nullable final String nextUrl) throws IOException {
     final Collection<FeedPackage> feedPackages = new ArrayList<FeedPackage>();
-    Assert.assertEquals(myParser.readPackages(doc, feedPackages), nextUrl);
+    final InputStream stream = new BufferedInputStream(new FileInputStream(Paths.getTestDataPath(url)));
+    try {
+      Assert.assertEquals(myParser.readPage(stream, feedPackages).getNextUrl(), nextUrl);
+    } finally {
+      FileUtil.close(stream);
+    }
     return feedPackages;
   }
 
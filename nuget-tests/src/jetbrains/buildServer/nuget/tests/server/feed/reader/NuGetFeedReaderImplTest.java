@@ -0,0 +1,320 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.tests.server.feed.reader;
+
+import com.intellij.openapi.util.Pair;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.FeedClient;
+import jetbrains.buildServer.nuget.server.feed.FeedCredentials;
+import jetbrains.buildServer.nuget.server.feed.impl.FeedGetMethodFactory;
+import jetbrains.buildServer.nuget.server.feed.reader.FeedPackage;
+import jetbrains.buildServer.nuget.server.feed.reader.NuGetFeedReader;
+import jetbrains.buildServer.nuget.server.feed.reader.impl.NuGetFeedReaderImpl;
+import jetbrains.buildServer.nuget.server.feed.reader.impl.PackagesFeedParserImpl;
+import jetbrains.buildServer.nuget.server.feed.reader.impl.UrlResolver;
+import jetbrains.buildServer.nuget.tests.integration.Paths;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class NuGetFeedReaderImplTest extends BaseTestCase {
+  private static final String FEED = "http://nuget.org/api/v2";
+  private static final String PACKAGE = "NuGet.CommandLine";
+  private static final String QUERY = FEED + "/Packages()?%24filter=Id+eq+%27NuGet.CommandLine%27";
+  private static final String OPTIONS = "&%24inlinecount=allpages&%24select=Id%2CVersion%2CIsLatestVersion%2CDescription";
+
+  private Mockery m;
+  private FeedClient myClient;
+  private UrlResolver myResolver;
+  private NuGetFeedReader myReader;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m = new Mockery();
+    myClient = m.mock(FeedClient.class);
+    myResolver = m.mock(UrlResolver.class);
+    myReader = new NuGetFeedReaderImpl(myResolver, new FeedGetMethodFactory(), new PackagesFeedParserImpl());
+  }
+
+  @Test
+  public void test_should_resolve_feed_url_once() throws IOException {
+    m.checking(new Expectations() {{
+      allowing(myClient).getCredentials(); will(returnValue(null));
+      oneOf(myResolver).resolvePath(myClient, FEED); will(returnValue(Pair.create(FEED, responseStatus(200))));
+      exactly(2).of(myClient).execute(with(any(HttpUriRequest.class)));
+      will(onConsecutiveCalls(returnValue(feedResponse()), returnValue(feedResponse())));
+    }});
+
+    Assert.assertEquals(myReader.queryPackageVersions(myClient, FEED, PACKAGE).size(), 1);
+    Assert.assertEquals(myReader.queryPackageVersions(myClient, FEED, PACKAGE).size(), 1);
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_should_resolve_feed_url_per_credentials() throws IOException {
+    final FeedClient authenticated = m.mock(FeedClient.class, "authenticated");
+    m.checking(new Expectations() {{
+      allowing(myClient).getCredentials(); will(returnValue(null));
+      allowing(authenticated).getCredentials(); will(returnValue(new FeedCredentials("user", "password")));
+      oneOf(myResolver).resolvePath(myClient, FEED); will(returnValue(Pair.create(FEED, responseStatus(200))));
+      oneOf(myResolver).resolvePath(authenticated, FEED); will(returnValue(Pair.create(FEED, responseStatus(200))));
+      oneOf(myClient).execute(with(any(HttpUriRequest.class))); will(returnValue(feedResponse()));
+      oneOf(authenticated).execute(with(any(HttpUriRequest.class))); will(returnValue(feedResponse()));
+    }});
+
+    Assert.assertEquals(myReader.queryPackageVersions(myClient, FEED, PACKAGE).size(), 1);
+    Assert.assertEquals(myReader.queryPackageVersions(authenticated, FEED, PACKAGE).size(), 1);
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_should_resolve_moved_feed_url_again() throws IOException {
+    m.checking(new Expectations() {{
+      allowing(myClient).getCredentials(); will(returnValue(null));
+      exactly(2).of(myResolver).resolvePath(myClient, FEED);
+      will(onConsecutiveCalls(returnValue(Pair.create(FEED, responseStatus(200))), returnValue(Pair.create(FEED + "/moved", responseStatus(200)))));
+      exactly(3).of(myClient).execute(with(any(HttpUriRequest.class)));
+      will(onConsecutiveCalls(returnValue(feedResponse()), returnValue(responseStatus(404)), returnValue(feedResponse())));
+    }});
+
+    Assert.assertEquals(myReader.queryPackageVersions(myClient, FEED, PACKAGE).size(), 1);
+    Assert.assertEquals(myReader.queryPackageVersions(myClient, FEED, PACKAGE).size(), 1);
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_should_query_several_packages_at_once() throws IOException {
+    m.checking(new Expectations() {{
+      allowing(myClient).getCredentials(); will(returnValue(null));
+      oneOf(myResolver).resolvePath(myClient, FEED); will(returnValue(Pair.create(FEED, responseStatus(200))));
+      oneOf(myClient).execute(with(httpGet(QUERY + "+or+Id+eq+%27Foo%27" + OPTIONS)));
+      will(returnValue(feedResponse()));
+    }});
+
+    final Map<String, Collection<FeedPackage>> packages = myReader.queryPackageVersions(myClient, FEED, Arrays.asList(PACKAGE, "Foo"));
+    Assert.assertEquals(packages.get(PACKAGE).size(), 1);
+    Assert.assertEquals(packages.get("nuget.commandline").size(), 1);
+    Assert.assertTrue(packages.get("Foo").isEmpty());
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_should_query_all_properties_if_select_is_rejected() throws IOException {
+    m.checking(new Expectations() {{
+      allowing(myClient).getCredentials(); will(returnValue(null));
+      oneOf(myResolver).resolvePath(myClient, FEED); will(returnValue(Pair.create(FEED, responseStatus(200))));
+      oneOf(myClient).execute(with(httpGet(QUERY + OPTIONS))); will(returnValue(responseStatus(400)));
+      exactly(2).of(myClient).execute(with(httpGet(QUERY)));
+      will(onConsecutiveCalls(returnValue(feedResponse()), returnValue(feedResponse())));
+    }});
+
+    Assert.assertEquals(myReader.queryPackageVersions(myClient, FEED, PACKAGE).size(), 1);
+    Assert.assertEquals(myReader.queryPackageVersions(myClient, FEED, PACKAGE).size(), 1);
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_should_split_long_package_queries() throws IOException {
+    final List<String> packageIds = new ArrayList<String>();
+    for (int i = 0; i < 200; i++) {
+      packageIds.add("Some.Very.Long.Package.Name." + i);
+    }
+    final List<String> queries = new ArrayList<String>();
+    m.checking(new Expectations() {{
+      allowing(myClient).getCredentials(); will(returnValue(null));
+      oneOf(myResolver).resolvePath(myClient, FEED); will(returnValue(Pair.create(FEED, responseStatus(200))));
+      atLeast(2).of(myClient).execute(with(any(HttpUriRequest.class)));
+      will(new CustomAction("return empty feed") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          queries.add(((HttpUriRequest) invocation.getParameter(0)).getURI().toString());
+          final HttpResponse response = responseStatus(200);
+          response.setEntity(new FileEntity(Paths.getTestDataPath("feed/reader/feed-empty.xml"), "application/atom+xml"));
+          return response;
+        }
+      });
+    }});
+
+    final Map<String, Collection<FeedPackage>> packages = myReader.queryPackageVersions(myClient, FEED, packageIds);
+    Assert.assertEquals(packages.size(), packageIds.size());
+
+    final String allQueries = queries.toString();
+    for (String query : queries) {
+      Assert.assertTrue(query.length() <= 2048, query);
+    }
+    for (String packageId : packageIds) {
+      Assert.assertTrue(allQueries.contains("%27" + packageId + "%27"), packageId);
+    }
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_should_query_skip_pages_concurrently() throws IOException {
+    //both remaining pages have to be requested at once for the client to answer them
+    final PagesFeedClient client = new PagesFeedClient(2, null);
+    m.checking(new Expectations() {{
+      oneOf(myResolver).resolvePath(client, FEED); will(returnValue(Pair.create(FEED, responseStatus(200))));
+    }});
+
+    Assert.assertEquals(myReader.queryPackageVersions(client, FEED, PACKAGE).size(), 2);
+    Assert.assertEquals(new HashSet<String>(client.getPageUrls()), new HashSet<String>(Arrays.asList(
+            QUERY + "&%24skip=100",
+            QUERY + "&%24skip=200")));
+    Assert.assertEquals(client.getPageUrls().size(), 2);
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_should_fail_if_concurrent_page_fails() throws IOException {
+    final PagesFeedClient client = new PagesFeedClient(1, QUERY + "&%24skip=200");
+    m.checking(new Expectations() {{
+      oneOf(myResolver).resolvePath(client, FEED); will(returnValue(Pair.create(FEED, responseStatus(200))));
+    }});
+
+    try {
+      myReader.queryPackageVersions(client, FEED, PACKAGE);
+      Assert.fail("page failure should fail the query");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("skip=200"), e.getMessage());
+    }
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_should_follow_skiptoken_pages_one_by_one() throws IOException {
+    final String nextUrl = FEED + "/Packages()?$filter=Id%20eq%20'NuGet.CommandLine'&$skiptoken='NuGet.CommandLine','1.0'";
+    m.checking(new Expectations() {{
+      allowing(myClient).getCredentials(); will(returnValue(null));
+      oneOf(myResolver).resolvePath(myClient, FEED); will(returnValue(Pair.create(FEED, responseStatus(200))));
+      oneOf(myClient).execute(with(httpGet(QUERY + OPTIONS))); will(returnValue(pageResponse(250, nextUrl)));
+      oneOf(myClient).execute(with(httpGet(nextUrl))); will(returnValue(feedResponse()));
+    }});
+
+    Assert.assertEquals(myReader.queryPackageVersions(myClient, FEED, PACKAGE).size(), 1);
+    m.assertIsSatisfied();
+  }
+
+  private static BaseMatcher<HttpUriRequest> httpGet(@NotNull final String url) {
+    return new BaseMatcher<HttpUriRequest>() {
+      public boolean matches(Object o) {
+        return o instanceof HttpUriRequest && ((HttpUriRequest) o).getURI().toString().equals(url);
+      }
+
+      public void describeTo(Description description) {
+        description.appendText("HttpGet to ").appendText(url);
+      }
+    };
+  }
+
+  private static HttpResponse responseStatus(int status) {
+    return new BasicHttpResponse(HttpVersion.HTTP_1_0, status, "Status: " + status);
+  }
+
+  private static HttpResponse pageResponse(long count, @NotNull String nextUrl) throws IOException {
+    final HttpResponse response = responseStatus(200);
+    response.setEntity(new StringEntity(
+            "<feed xmlns='http://www.w3.org/2005/Atom' xmlns:m='http://schemas.microsoft.com/ado/2007/08/dataservices/metadata'>" +
+            "<m:count>" + count + "</m:count><link rel='next' href=\"" + nextUrl.replace("&", "&amp;") + "\"/></feed>", "UTF-8"));
+    return response;
+  }
+
+  /**
+   * Thread-safe client for queries of feed pages from several threads.
+   * Answers the first query with a page of 250 packages paged by $skip
+   * and any other page with one package.
+   */
+  private static class PagesFeedClient implements FeedClient {
+    private final List<String> myPageUrls = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch myConcurrentPages;
+    private final String myFailingPageUrl;
+
+    /**
+     * @param concurrentPages number of pages to be requested at once before any of them is answered
+     * @param failingPageUrl url of page to fail or null
+     */
+    private PagesFeedClient(final int concurrentPages, @Nullable final String failingPageUrl) {
+      myConcurrentPages = new CountDownLatch(concurrentPages);
+      myFailingPageUrl = failingPageUrl;
+    }
+
+    @NotNull
+    public List<String> getPageUrls() {
+      return new ArrayList<String>(myPageUrls);
+    }
+
+    @NotNull
+    public HttpResponse execute(@NotNull HttpUriRequest request) throws IOException {
+      final String url = request.getURI().toString();
+      if (url.equals(QUERY + OPTIONS)) {
+        return pageResponse(250, FEED + "/Packages()?$filter=Id%20eq%20'NuGet.CommandLine'&$skip=100");
+      }
+
+      myPageUrls.add(url);
+      if (url.equals(myFailingPageUrl)) throw new IOException("Failed to query " + url);
+
+      myConcurrentPages.countDown();
+      try {
+        if (!myConcurrentPages.await(10, TimeUnit.SECONDS)) throw new IOException("Pages are not requested concurrently");
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+      return feedResponse();
+    }
+
+    @NotNull
+    public FeedClient withCredentials(@Nullable FeedCredentials credentials) {
+      throw new UnsupportedOperationException();
+    }
+
+    public boolean hasCredentials() {
+      return false;
+    }
+
+    @Nullable
+    public FeedCredentials getCredentials() {
+      return null;
+    }
+  }
+
+  private static HttpResponse feedResponse() {
+    final HttpResponse response = responseStatus(200);
+    response.setEntity(new FileEntity(Paths.getTestDataPath("feed/reader/feed-one.xml"), "application/atom+xml"));
+    return response;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.*;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks latency histograms and per-operation statistics of feed requests
+ */
+public class FeedRequestStatisticsTest extends BaseTestCase {
+
+  @Test
+  public void testOperationFromPath() {
+    Assert.assertEquals(FeedOperation.fromPath("/Packages()"), FeedOperation.PACKAGES);
+    Assert.assertEquals(FeedOperation.fromPath("/Packages(Id='A',Version='1.0')"), FeedOperation.PACKAGES);
+    Assert.assertEquals(FeedOperation.fromPath("/FindPackagesById()?id='A'"), FeedOperation.FIND_PACKAGES_BY_ID);
+    Assert.assertEquals(FeedOperation.fromPath("/search()?searchTerm=''"), FeedOperation.SEARCH);
+    Assert.assertEquals(FeedOperation.fromPath("/GetUpdates()?packageIds='A'"), FeedOperation.GET_UPDATES);
+    Assert.assertEquals(FeedOperation.fromPath("/$metadata"), FeedOperation.METADATA);
+    Assert.assertEquals(FeedOperation.fromPath("/download/bt1/1/A.1.0.nupkg"), FeedOperation.DOWNLOAD);
+    Assert.assertEquals(FeedOperation.fromPath("/"), FeedOperation.OTHER);
+    Assert.assertEquals(FeedOperation.fromPath(""), FeedOperation.OTHER);
+  }
+
+  @Test
+  public void testHistogramPercentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(histogram.getValueAtPercentile(99), 0);
+
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000);
+    }
+
+    Assert.assertEquals(histogram.getCount(), 1000);
+    Assert.assertEquals(histogram.getMax(), 1000000);
+    Assert.assertEquals(histogram.getMean(), 500500);
+    assertWithinPrecision(histogram.getValueAtPercentile(50), 500000);
+    assertWithinPrecision(histogram.getValueAtPercentile(95), 950000);
+    Assert.assertEquals(histogram.getValueAtPercentile(100), 1000000);
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(3);
+    histogram.record(7);
+    Assert.assertEquals(histogram.getValueAtPercentile(50), 3);
+    Assert.assertEquals(histogram.getValueAtPercentile(100), 7);
+  }
+
+  @Test
+  public void testRequestsStatistics() {
+    final RecentNuGetRequests requests = new RecentNuGetRequests();
+    final FeedRequestContext context = FeedRequestContext.start();
+    FeedRequestContext.entriesScanned(10);
+    FeedRequestContext.cacheMiss();
+    FeedRequestContext.finish();
+    FeedRequestContext.cacheHit();
+
+    requests.reportFeedRequestFinished(FeedOperation.SEARCH, "/Search()", 2000, context, 1024);
+    requests.reportFeedRequestFinished(FeedOperation.SEARCH, "/Search()", 4000, null, 512);
+
+    final List<FeedOperationStatistics> operations = requests.getOperationStatistics();
+    Assert.assertEquals(operations.size(), 1);
+    final FeedOperationStatistics search = operations.get(0);
+    Assert.assertEquals(search.getName(), "Search");
+    Assert.assertEquals(search.getCount(), 2);
+    Assert.assertEquals(search.getCacheHits(), 0);
+    Assert.assertEquals(search.getCacheMisses(), 1);
+    Assert.assertEquals(search.getEntriesScanned(), 10);
+    Assert.assertEquals(search.getBytesWritten(), 1536);
+    Assert.assertEquals(search.getMaxMillis(), 4.0, 0.001);
+
+    final Map<String, Long> stats = requests.getStatistics();
+    Assert.assertEquals(stats.get("Feed Search requests"), Long.valueOf(2));
+    Assert.assertEquals(stats.get("Feed Search latency max, us"), Long.valueOf(4000));
+  }
+
+  @Test
+  public void testRecentRequestsAreNormalized() {
+    Assert.assertEquals(RecentNuGetRequests.normalizeRequest("/FindPackagesById()?id='NUnit'"), "/FindPackagesById()?id='*'");
+    Assert.assertEquals(RecentNuGetRequests.normalizeRequest("/Packages(Id='A',Version='1.0')"), "/Packages(Id='*',Version='*')");
+    Assert.assertEquals(RecentNuGetRequests.normalizeRequest("/Search()?searchTerm=%27json%27&targetFramework=%27%27"), "/Search()?searchTerm='*'&targetFramework='*'");
+  }
+
+  private static void assertWithinPrecision(long actual, long expected) {
+    Assert.assertTrue(Math.abs(actual - expected) <= expected / 16, "Expected about " + expected + " but was " + actual);
+  }
+}
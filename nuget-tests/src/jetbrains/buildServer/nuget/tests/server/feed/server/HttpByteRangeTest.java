@@ -0,0 +1,66 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.HttpByteRange;
+import org.testng.annotations.Test;
+
+public class HttpByteRangeTest extends BaseTestCase {
+
+  @Test
+  public void test_no_range() {
+    assertNull(HttpByteRange.parse(null, 100));
+    assertNull(HttpByteRange.parse("items=0-10", 100));
+    assertNull(HttpByteRange.parse("bytes=0-10,20-30", 100));
+    assertNull(HttpByteRange.parse("bytes=abc", 100));
+    assertNull(HttpByteRange.parse("bytes=10-5", 100));
+  }
+
+  @Test
+  public void test_closed_range() {
+    assertRange(HttpByteRange.parse("bytes=0-9", 100), 0, 9);
+    assertRange(HttpByteRange.parse("bytes=10-200", 100), 10, 99);
+  }
+
+  @Test
+  public void test_open_range() {
+    assertRange(HttpByteRange.parse("bytes=42-", 100), 42, 99);
+  }
+
+  @Test
+  public void test_suffix_range() {
+    assertRange(HttpByteRange.parse("bytes=-10", 100), 90, 99);
+    assertRange(HttpByteRange.parse("bytes=-500", 100), 0, 99);
+  }
+
+  @Test
+  public void test_unsatisfiable_range() {
+    assertFalse(HttpByteRange.parse("bytes=100-", 100).isSatisfiable());
+    assertFalse(HttpByteRange.parse("bytes=-0", 100).isSatisfiable());
+    assertFalse(HttpByteRange.parse("bytes=0-", 0).isSatisfiable());
+  }
+
+  private static void assertRange(HttpByteRange range, long start, long end) {
+    assertNotNull(range);
+    assertTrue(range.isSatisfiable());
+    assertEquals(start, range.getStart());
+    assertEquals(end, range.getEnd());
+    assertEquals(end - start + 1, range.getLength());
+  }
+}
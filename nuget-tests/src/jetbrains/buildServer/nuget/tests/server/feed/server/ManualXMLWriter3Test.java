@@ -0,0 +1,158 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.ManualXMLWriter3;
+import org.jetbrains.annotations.NotNull;
+import org.odata4j.stax2.QName2;
+import org.odata4j.stax2.XMLWriter2;
+import org.odata4j.stax2.domimpl.ManualXMLWriter2;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Compares output of {@link ManualXMLWriter3} with odata4j writer it is copied from
+ */
+public class ManualXMLWriter3Test extends BaseTestCase {
+  private static final String ESCAPED = "& < > \" '";
+  /** chars kept by the writer before it passes them to the target writer */
+  private static final int BUFFER_SIZE = 8192;
+  private static final String ATOM = "http://www.w3.org/2005/Atom";
+  private static final String METADATA = "http://schemas.microsoft.com/ado/2007/08/dataservices/metadata";
+
+  @Test
+  public void test_elements_and_namespaces() throws IOException {
+    assertSameOutput(new Document() {
+      public void write(@NotNull XMLWriter2 writer) {
+        writer.startDocument();
+        writer.startElement(new QName2(ATOM, "feed"), ATOM);
+        writer.writeNamespace("m", METADATA);
+        writer.writeAttribute(new QName2("http://www.w3.org/XML/1998/namespace", "base", "xml"), "http://localhost/");
+        writer.startElement(new QName2(METADATA, "count", "m"));
+        writer.writeText("42");
+        writer.endElement("count");
+        writer.startElement("link");
+        writer.writeAttribute("rel", "next");
+        writer.endElement("link");
+        writer.startElement("entry");
+        writer.startElement("empty");
+        writer.endDocument();
+      }
+    });
+  }
+
+  @Test
+  public void test_escaped_text_and_attributes() throws IOException {
+    assertSameOutput(new Document() {
+      public void write(@NotNull XMLWriter2 writer) {
+        writer.startElement("entry");
+        writer.writeAttribute("title", ESCAPED);
+        writer.writeAttribute("plain", "value");
+        writer.writeAttribute("empty", "");
+        writer.writeAttribute("mixed", "a&b<c>d\"e'f&&");
+        writer.writeText(ESCAPED);
+        writer.writeText("");
+        writer.writeText("<tag attr='x'>&amp;</tag>");
+        writer.endDocument();
+      }
+    });
+  }
+
+  @Test
+  public void test_text_across_buffer_boundary() throws IOException {
+    //escaped chars and runs of plain text are placed at every offset around the buffer end
+    for (int offset = BUFFER_SIZE - 16; offset <= BUFFER_SIZE + 16; offset++) {
+      final String prefix = repeat("x", offset);
+      assertSameOutput(new Document() {
+        public void write(@NotNull XMLWriter2 writer) {
+          writer.startElement("entry");
+          writer.writeAttribute("value", prefix + ESCAPED + prefix);
+          writer.writeText(prefix + ESCAPED + prefix);
+          writer.endDocument();
+        }
+      });
+    }
+  }
+
+  @Test
+  public void test_escapes_longer_than_buffer() throws IOException {
+    assertSameOutput(new Document() {
+      public void write(@NotNull XMLWriter2 writer) {
+        writer.startElement("entry");
+        writer.writeAttribute("value", repeat("&", BUFFER_SIZE));
+        writer.writeText(repeat(ESCAPED, BUFFER_SIZE / 4));
+        writer.writeText(repeat("x", 3 * BUFFER_SIZE + 1));
+        writer.endDocument();
+      }
+    });
+  }
+
+  @Test
+  public void test_surrogate_pairs() throws IOException {
+    final String pair = "\uD83D\uDCE6";
+    //surrogate pairs are split between buffer flushes at some offsets
+    for (int offset = BUFFER_SIZE - 8; offset <= BUFFER_SIZE + 8; offset++) {
+      final String prefix = repeat("x", offset);
+      final byte[] output = assertSameOutput(new Document() {
+        public void write(@NotNull XMLWriter2 writer) {
+          writer.startElement("entry");
+          writer.writeAttribute("value", prefix + pair);
+          writer.writeText(prefix + pair + "&" + pair);
+          writer.endDocument();
+        }
+      });
+      Assert.assertTrue(new String(output, "utf-8").endsWith(pair + "&amp;" + pair + "</entry>"));
+    }
+  }
+
+  @NotNull
+  private static byte[] assertSameOutput(@NotNull final Document document) throws IOException {
+    final byte[] expected = write(document, false);
+    final byte[] actual = write(document, true);
+    Assert.assertEquals(new String(actual, "utf-8"), new String(expected, "utf-8"));
+    Assert.assertEquals(actual, expected);
+    return actual;
+  }
+
+  @NotNull
+  private static byte[] write(@NotNull final Document document, final boolean buffered) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final Writer writer = new OutputStreamWriter(bytes, "utf-8");
+    document.write(buffered ? new ManualXMLWriter3(writer) : new ManualXMLWriter2(writer));
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  @NotNull
+  private static String repeat(@NotNull final String text, final int times) {
+    final StringBuilder sb = new StringBuilder(text.length() * times);
+    for (int i = 0; i < times; i++) {
+      sb.append(text);
+    }
+    return sb.toString();
+  }
+
+  private interface Document {
+    void write(@NotNull XMLWriter2 writer);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import com.google.common.collect.Sets;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.util.SemanticVersion;
+import jetbrains.buildServer.util.CollectionsUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static jetbrains.buildServer.nuget.server.feed.server.PackageAttributes.*;
+
+/**
+ * Checks attributes parsed by index entries
+ */
+public class NuGetIndexEntryTest extends BaseTestCase {
+
+  @Test
+  public void testParsedAttributes() {
+    final NuGetIndexEntry entry = new NuGetIndexEntry("foo.1.2.3-beta", CollectionsUtil.asMap(
+            ID, "foo",
+            VERSION, "1.2.3-beta",
+            IS_PRERELEASE, "true",
+            IS_LATEST_VERSION, "false",
+            IS_ABSOLUTE_LATEST_VERSION, "true",
+            PackagesIndex.TEAMCITY_BUILD_ID, "42",
+            PackagesIndex.TEAMCITY_BUILD_TYPE_ID, "bt1",
+            PackagesIndex.TEAMCITY_FRAMEWORK_CONSTRAINTS, "net40|net45"));
+
+    Assert.assertEquals(entry.getId(), "foo");
+    Assert.assertEquals(entry.getVersion(), "1.2.3-beta");
+    Assert.assertEquals(entry.getSemanticVersion(), SemanticVersion.valueOf("1.2.3-beta"));
+    Assert.assertTrue(entry.isPrerelease());
+    Assert.assertFalse(entry.isLatest());
+    Assert.assertTrue(entry.isAbsoluteLatest());
+    Assert.assertEquals(entry.getBuildId(), 42);
+    Assert.assertEquals(entry.getBuildTypeId(), "bt1");
+    Assert.assertEquals(entry.getFrameworkConstraints(), Sets.newHashSet("net40", "net45"));
+  }
+
+  @Test
+  public void testMissingAttributes() {
+    final NuGetIndexEntry entry = new NuGetIndexEntry("foo.bar", CollectionsUtil.asMap(ID, "foo", VERSION, "bar"));
+
+    Assert.assertNull(entry.getSemanticVersion());
+    Assert.assertFalse(entry.isPrerelease());
+    Assert.assertEquals(entry.getBuildId(), -1);
+    Assert.assertNull(entry.getBuildTypeId());
+    Assert.assertEquals(entry.getFrameworkConstraints(), Collections.<String>emptySet());
+  }
+
+  @Test
+  public void testFrameworkConstraintsShared() {
+    final NuGetIndexEntry entry1 = new NuGetIndexEntry("foo.1", CollectionsUtil.asMap(ID, "foo", VERSION, "1", PackagesIndex.TEAMCITY_FRAMEWORK_CONSTRAINTS, "net20|sl4"));
+    final NuGetIndexEntry entry2 = new NuGetIndexEntry("foo.2", CollectionsUtil.asMap(ID, "foo", VERSION, "2", PackagesIndex.TEAMCITY_FRAMEWORK_CONSTRAINTS, "net20|sl4"));
+
+    Assert.assertSame(entry1.getFrameworkConstraints(), entry2.getFrameworkConstraints());
+  }
+
+  @Test
+  public void testComputedAttributesOverStoredMetadata() {
+    final Map<String, String> metadata = new HashMap<String, String>(CollectionsUtil.asMap(
+            ID, "foo",
+            VERSION, "1.0",
+            DESCRIPTION, "stored",
+            PackagesIndex.TEAMCITY_BUILD_TYPE_ID, "btOld"));
+    final NuGetIndexEntry entry = new NuGetIndexEntry("foo.1.0", "foo", "1.0", "bt1", 42, "/download", false, true, false,
+            metadata, CollectionsUtil.asMap("LastUpdated", "now"));
+
+    Assert.assertEquals(entry.getAttribute(PackagesIndex.TEAMCITY_BUILD_TYPE_ID), "bt1");
+    Assert.assertEquals(entry.getAttribute(PackagesIndex.TEAMCITY_BUILD_ID), "42");
+    Assert.assertEquals(entry.getAttribute(PackagesIndex.TEAMCITY_DOWNLOAD_URL), "/download");
+    Assert.assertEquals(entry.getAttribute(IS_LATEST_VERSION), "true");
+    Assert.assertEquals(entry.getAttribute(IS_PRERELEASE), "false");
+    Assert.assertEquals(entry.getAttribute("LastUpdated"), "now");
+    Assert.assertNull(entry.getAttribute(TAGS));
+
+    metadata.put(DESCRIPTION, "updated");
+    Assert.assertEquals(entry.getAttribute(DESCRIPTION), "updated");
+    Assert.assertEquals(entry.getAttributes().get(PackagesIndex.TEAMCITY_BUILD_TYPE_ID), "bt1");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testVersionIsRequired() {
+    new NuGetIndexEntry("foo", CollectionsUtil.asMap(ID, "foo"));
+  }
+}
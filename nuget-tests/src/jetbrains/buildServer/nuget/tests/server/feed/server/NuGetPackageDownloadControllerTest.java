@@ -0,0 +1,360 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
+import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.NuGetPackageDownloadController;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.NuGetPackageDownloadResolver;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.requests.RecentNuGetRequests;
+import jetbrains.buildServer.nuget.server.feed.server.impl.NuGetServerSettingsImpl;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.BuildsManager;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifacts;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID;
+
+/**
+ * Checks conditional, range and HEAD requests of feed package downloads
+ * and forwarding of other downloads to build artifacts
+ */
+public class NuGetPackageDownloadControllerTest extends BaseTestCase {
+  private static final String ARTIFACT_PATH = "Foo.1.0.nupkg";
+  private static final String DOWNLOAD_PATH = NuGetServerSettingsImpl.PATH + "/download/bt1/5:id/" + ARTIFACT_PATH;
+  private static final String REPOSITORY_PATH = "/repository/download/bt1/5:id/" + ARTIFACT_PATH;
+  private static final String ETAG = "\"hash\"";
+  private static final long TIMESTAMP = 1400000000000L;
+  private static final byte[] CONTENT = "0123456789".getBytes();
+
+  private Mockery m;
+  private HttpServletRequest myRequest;
+  private HttpServletResponse myResponse;
+  private AuthorityHolder myAuthorityHolder;
+  private MetadataStorage myStorage;
+  private BuildMetadataEntry myEntry;
+  private File myArtifactsDir;
+  private ByteArrayOutputStream myBody;
+  private TestController myController;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m = new Mockery();
+    myRequest = m.mock(HttpServletRequest.class);
+    myResponse = m.mock(HttpServletResponse.class);
+    myAuthorityHolder = m.mock(AuthorityHolder.class);
+    myStorage = m.mock(MetadataStorage.class);
+    myEntry = m.mock(BuildMetadataEntry.class);
+    myArtifactsDir = createTempDir();
+    myBody = new ByteArrayOutputStream();
+
+    final WebControllerManager web = m.mock(WebControllerManager.class);
+    final NuGetServerSettings settings = m.mock(NuGetServerSettings.class);
+    final SecurityContext securityContext = m.mock(SecurityContext.class);
+    final BuildsManager builds = m.mock(BuildsManager.class);
+    final SBuild build = m.mock(SBuild.class);
+    final BuildArtifacts artifacts = m.mock(BuildArtifacts.class);
+    final BuildArtifact artifact = m.mock(BuildArtifact.class);
+    final Map<String, String> metadata = CollectionsUtil.asMap(
+            PackagesIndex.TEAMCITY_ARTIFACT_RELPATH, ARTIFACT_PATH,
+            PackageAttributes.PACKAGE_HASH, "hash");
+    final ServletOutputStream stream = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        myBody.write(b);
+      }
+    };
+
+    m.checking(new Expectations(){{
+      allowing(web);
+      allowing(settings).getNuGetFeedControllerPath(); will(returnValue(NuGetServerSettingsImpl.PATH));
+      allowing(settings).isNuGetServerEnabled(); will(returnValue(true));
+      allowing(securityContext).getAuthorityHolder(); will(returnValue(myAuthorityHolder));
+
+      allowing(myEntry).getMetadata(); will(returnValue(metadata));
+      allowing(builds).findBuildInstanceById(5); will(returnValue(build));
+      allowing(build).getProjectId(); will(returnValue("proj1"));
+      allowing(build).getArtifactsDirectory(); will(returnValue(myArtifactsDir));
+      allowing(build).getArtifacts(BuildArtifactsViewMode.VIEW_ALL); will(returnValue(artifacts));
+      allowing(artifacts).getArtifact(ARTIFACT_PATH); will(returnValue(artifact));
+      allowing(artifact).isDirectory(); will(returnValue(false));
+      allowing(artifact).getSize(); will(returnValue((long) CONTENT.length));
+      allowing(artifact).getTimestamp(); will(returnValue(TIMESTAMP));
+      allowing(artifact).getName(); will(returnValue(ARTIFACT_PATH));
+      allowing(artifact).getInputStream();
+      will(new CustomAction("open artifact") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          return new ByteArrayInputStream(CONTENT);
+        }
+      });
+
+      allowing(myRequest).getRequestURI(); will(returnValue(DOWNLOAD_PATH));
+      allowing(myResponse).getOutputStream(); will(returnValue(stream));
+    }});
+
+    final NuGetPackageDownloadResolver resolver = new NuGetPackageDownloadResolver(builds, myStorage, EventDispatcher.create(BuildServerListener.class));
+    myController = new TestController(web, settings, new RecentNuGetRequests(), resolver, securityContext);
+  }
+
+  @Test
+  public void test_sends_package() throws Exception {
+    packageIndexed(true);
+    request("GET", null, null, null, -1);
+    expectPackageHeaders();
+    expectContentHeaders(CONTENT.length);
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.toByteArray(), CONTENT);
+  }
+
+  @Test
+  public void test_sends_package_file() throws Exception {
+    //the file on server disk is sent instead of the artifact stream
+    FileUtil.writeFileAndReportErrors(new File(myArtifactsDir, ARTIFACT_PATH), "abcdefghij");
+    packageIndexed(true);
+    request("GET", "bytes=7-", null, null, -1);
+    expectPackageHeaders();
+    expectContentHeaders(3);
+    expectPartialContent("bytes 7-9/10");
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.toString(), "hij");
+  }
+
+  @Test
+  public void test_not_modified_for_matching_etag() throws Exception {
+    packageIndexed(true);
+    request("GET", null, null, "\"other\", " + ETAG, -1);
+    expectPackageHeaders();
+    expectNotModified();
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.size(), 0);
+  }
+
+  @Test
+  public void test_not_modified_since_last_modified() throws Exception {
+    packageIndexed(true);
+    request("GET", null, null, null, TIMESTAMP);
+    expectPackageHeaders();
+    expectNotModified();
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.size(), 0);
+  }
+
+  @Test
+  public void test_sends_requested_range() throws Exception {
+    packageIndexed(true);
+    request("GET", "bytes=2-4", ETAG, null, -1);
+    expectPackageHeaders();
+    expectContentHeaders(3);
+    expectPartialContent("bytes 2-4/10");
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.toString(), "234");
+  }
+
+  @Test
+  public void test_sends_whole_package_if_range_does_not_match() throws Exception {
+    packageIndexed(true);
+    request("GET", "bytes=2-4", "\"other\"", null, -1);
+    expectPackageHeaders();
+    expectContentHeaders(CONTENT.length);
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.toByteArray(), CONTENT);
+  }
+
+  @Test
+  public void test_unsatisfiable_range() throws Exception {
+    packageIndexed(true);
+    request("GET", "bytes=20-", null, null, -1);
+    expectPackageHeaders();
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setHeader("Content-Range", "bytes */10");
+      oneOf(myResponse).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    }});
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.size(), 0);
+  }
+
+  @Test
+  public void test_head_sends_headers_only() throws Exception {
+    packageIndexed(true);
+    request("HEAD", null, null, null, -1);
+    expectPackageHeaders();
+    expectContentHeaders(CONTENT.length);
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.size(), 0);
+  }
+
+  @Test
+  public void test_forwards_without_read_access() throws Exception {
+    packageIndexed(false);
+    request("GET", null, null, null, -1);
+    expectForward();
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_forwards_not_indexed_package() throws Exception {
+    m.checking(new Expectations(){{
+      allowing(myStorage).getBuildEntry(5, NUGET_PROVIDER_ID); will(returnIterator(Collections.<BuildMetadataEntry>emptyList()));
+    }});
+    request("GET", null, null, null, -1);
+    expectForward();
+
+    myController.handle(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+  }
+
+  private void packageIndexed(final boolean readAccess) {
+    m.checking(new Expectations(){{
+      allowing(myStorage).getBuildEntry(5, NUGET_PROVIDER_ID); will(returnIterator(Collections.singletonList(myEntry)));
+      allowing(myAuthorityHolder).isPermissionGrantedForProject("proj1", Permission.VIEW_PROJECT); will(returnValue(readAccess));
+    }});
+  }
+
+  private void request(@NotNull final String method,
+                       @Nullable final String range,
+                       @Nullable final String ifRange,
+                       @Nullable final String ifNoneMatch,
+                       final long ifModifiedSince) {
+    m.checking(new Expectations(){{
+      allowing(myRequest).getMethod(); will(returnValue(method));
+      allowing(myRequest).getHeader("Range"); will(returnValue(range));
+      allowing(myRequest).getHeader("If-Range"); will(returnValue(ifRange));
+      allowing(myRequest).getHeader("If-None-Match"); will(returnValue(ifNoneMatch));
+      allowing(myRequest).getDateHeader("If-Modified-Since"); will(returnValue(ifModifiedSince));
+      allowing(myRequest).getDateHeader("If-Range"); will(returnValue(-1L));
+    }});
+  }
+
+  private void expectPackageHeaders() {
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setHeader("Accept-Ranges", "bytes");
+      oneOf(myResponse).setDateHeader("Last-Modified", TIMESTAMP);
+      oneOf(myResponse).setHeader("ETag", ETAG);
+    }});
+  }
+
+  private void expectContentHeaders(final long length) {
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setContentType("application/zip");
+      oneOf(myResponse).setHeader("Content-Disposition", "attachment; filename=\"" + ARTIFACT_PATH + "\"");
+      oneOf(myResponse).setHeader("Content-Length", String.valueOf(length));
+    }});
+  }
+
+  private void expectPartialContent(@NotNull final String contentRange) {
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+      oneOf(myResponse).setHeader("Content-Range", contentRange);
+    }});
+  }
+
+  private void expectNotModified() {
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }});
+  }
+
+  private void expectForward() throws Exception {
+    final RequestDispatcher dispatcher = m.mock(RequestDispatcher.class);
+    m.checking(new Expectations(){{
+      oneOf(myRequest).getRequestDispatcher(REPOSITORY_PATH); will(returnValue(dispatcher));
+      oneOf(dispatcher).forward(with(same(myRequest)), with(any(HttpServletResponse.class)));
+    }});
+  }
+
+  private static class TestController extends NuGetPackageDownloadController {
+    private TestController(@NotNull final WebControllerManager web,
+                           @NotNull final NuGetServerSettings serverSettings,
+                           @NotNull final RecentNuGetRequests requestsList,
+                           @NotNull final NuGetPackageDownloadResolver resolver,
+                           @NotNull final SecurityContext securityContext) {
+      super(web, serverSettings, requestsList, resolver, securityContext);
+    }
+
+    @NotNull
+    @Override
+    protected String getRequestPath(@NotNull final HttpServletRequest request) {
+      return request.getRequestURI();
+    }
+
+    public void handle(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws Exception {
+      doHandle(request, response);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.PackageAttributes;
+import jetbrains.buildServer.nuget.server.feed.server.controllers.NuGetPackageDownloadResolver;
+import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.BuildsManager;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifacts;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifactsViewMode;
+import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
+import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
+import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static jetbrains.buildServer.nuget.server.feed.server.index.impl.NuGetArtifactsMetadataProvider.NUGET_PROVIDER_ID;
+
+/**
+ * Checks caching of packages resolved for feed downloads
+ */
+public class NuGetPackageDownloadResolverTest extends BaseTestCase {
+  private static final String ARTIFACT_PATH = "Foo.1.0.nupkg";
+
+  private Mockery m;
+  private MetadataStorage myStorage;
+  private BuildMetadataEntry myEntry;
+  private EventDispatcher<BuildServerListener> myEvents;
+  private NuGetPackageDownloadResolver myResolver;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m = new Mockery();
+    myStorage = m.mock(MetadataStorage.class);
+    myEntry = m.mock(BuildMetadataEntry.class);
+    myEvents = EventDispatcher.create(BuildServerListener.class);
+    final BuildsManager builds = m.mock(BuildsManager.class);
+    final SBuild build = m.mock(SBuild.class);
+    final BuildArtifacts artifacts = m.mock(BuildArtifacts.class);
+    final BuildArtifact artifact = m.mock(BuildArtifact.class);
+    final File artifactsDir = createTempDir();
+    final Map<String, String> metadata = CollectionsUtil.asMap(
+            PackagesIndex.TEAMCITY_ARTIFACT_RELPATH, "/" + ARTIFACT_PATH,
+            PackageAttributes.PACKAGE_HASH, "hash");
+
+    m.checking(new Expectations(){{
+      allowing(myEntry).getMetadata(); will(returnValue(metadata));
+      allowing(builds).findBuildInstanceById(with(any(long.class))); will(returnValue(build));
+      allowing(build).getProjectId(); will(returnValue("proj1"));
+      allowing(build).getArtifactsDirectory(); will(returnValue(artifactsDir));
+      allowing(build).getArtifacts(BuildArtifactsViewMode.VIEW_ALL); will(returnValue(artifacts));
+      allowing(artifacts).getArtifact(ARTIFACT_PATH); will(returnValue(artifact));
+      allowing(artifact).isDirectory(); will(returnValue(false));
+      allowing(artifact).getSize(); will(returnValue(10L));
+    }});
+    myResolver = new NuGetPackageDownloadResolver(builds, myStorage, myEvents);
+  }
+
+  @Test
+  public void test_resolved_package_is_cached() {
+    m.checking(new Expectations(){{
+      oneOf(myStorage).getBuildEntry(5, NUGET_PROVIDER_ID); will(returnIterator(Collections.singletonList(myEntry)));
+    }});
+
+    final NuGetPackageDownloadResolver.ResolvedPackage resolved = myResolver.resolve(5, ARTIFACT_PATH);
+    Assert.assertNotNull(resolved);
+    Assert.assertEquals(resolved.getProjectId(), "proj1");
+    Assert.assertEquals(resolved.getHash(), "hash");
+    Assert.assertSame(myResolver.resolve(5, ARTIFACT_PATH), resolved);
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_not_indexed_package_is_not_resolved() {
+    m.checking(new Expectations(){{
+      allowing(myStorage).getBuildEntry(5, NUGET_PROVIDER_ID); will(returnIterator(Collections.<BuildMetadataEntry>emptyList()));
+    }});
+
+    Assert.assertNull(myResolver.resolve(5, ARTIFACT_PATH));
+  }
+
+  @Test
+  public void test_removed_build_packages_are_resolved_again() {
+    m.checking(new Expectations(){{
+      exactly(2).of(myStorage).getBuildEntry(5, NUGET_PROVIDER_ID); will(returnIterator(Collections.singletonList(myEntry)));
+    }});
+
+    Assert.assertNotNull(myResolver.resolve(5, ARTIFACT_PATH));
+    myEvents.getMulticaster().entryDeleted(finishedBuild(5));
+    Assert.assertNotNull(myResolver.resolve(5, ARTIFACT_PATH));
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_other_build_removal_keeps_resolved_packages() {
+    m.checking(new Expectations(){{
+      oneOf(myStorage).getBuildEntry(5, NUGET_PROVIDER_ID); will(returnIterator(Collections.singletonList(myEntry)));
+    }});
+
+    Assert.assertNotNull(myResolver.resolve(5, ARTIFACT_PATH));
+    myEvents.getMulticaster().entryDeleted(finishedBuild(55));
+    Assert.assertNotNull(myResolver.resolve(5, ARTIFACT_PATH));
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_packages_are_resolved_again_after_cleanup() {
+    m.checking(new Expectations(){{
+      exactly(2).of(myStorage).getBuildEntry(5, NUGET_PROVIDER_ID); will(returnIterator(Collections.singletonList(myEntry)));
+    }});
+
+    Assert.assertNotNull(myResolver.resolve(5, ARTIFACT_PATH));
+    myEvents.getMulticaster().cleanupFinished();
+    Assert.assertNotNull(myResolver.resolve(5, ARTIFACT_PATH));
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_oldest_packages_are_evicted() {
+    final Map<Long, Integer> lookups = new HashMap<Long, Integer>();
+    m.checking(new Expectations(){{
+      allowing(myStorage).getBuildEntry(with(any(long.class)), with(equal(NUGET_PROVIDER_ID)));
+      will(new CustomAction("return package entry") {
+        public Object invoke(Invocation invocation) throws Throwable {
+          final Long buildId = (Long) invocation.getParameter(0);
+          final Integer count = lookups.get(buildId);
+          lookups.put(buildId, count == null ? 1 : count + 1);
+          return Collections.singletonList(myEntry).iterator();
+        }
+      });
+    }});
+
+    //the cache is full after 4096 packages, the next one evicts the oldest quarter of them
+    for (long buildId = 1; buildId <= 4097; buildId++) {
+      Assert.assertNotNull(myResolver.resolve(buildId, ARTIFACT_PATH));
+    }
+    Assert.assertNotNull(myResolver.resolve(1024, ARTIFACT_PATH));
+    Assert.assertNotNull(myResolver.resolve(1025, ARTIFACT_PATH));
+    Assert.assertNotNull(myResolver.resolve(4097, ARTIFACT_PATH));
+
+    Assert.assertEquals(lookups.get(1024L).intValue(), 2);
+    Assert.assertEquals(lookups.get(1025L).intValue(), 1);
+    Assert.assertEquals(lookups.get(4097L).intValue(), 1);
+  }
+
+  @NotNull
+  private SFinishedBuild finishedBuild(final long buildId) {
+    final SFinishedBuild build = m.mock(SFinishedBuild.class, "build" + buildId);
+    m.checking(new Expectations(){{
+      allowing(build).getBuildId(); will(returnValue(buildId));
+      allowing(build).getBuildTypeId(); will(returnValue("bt1"));
+    }});
+    return build;
+  }
+}
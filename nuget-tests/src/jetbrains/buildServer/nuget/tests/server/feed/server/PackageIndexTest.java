@@ -21,28 +21,40 @@ import jetbrains.buildServer.BaseTestCase;
 import jetbrains.buildServer.nuget.server.feed.server.NuGetServerSettings;
 import jetbrains.buildServer.nuget.server.feed.server.index.NuGetIndexEntry;
 import jetbrains.buildServer.nuget.server.feed.server.index.PackagesIndex;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackageTransformation;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexCache;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexImpl;
+import jetbrains.buildServer.nuget.server.feed.server.index.impl.PackagesIndexSnapshot;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.AccessCheckTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.DownloadUrlComputationTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.IsPrereleaseTransformation;
 import jetbrains.buildServer.nuget.server.feed.server.index.impl.transform.SamePackagesFilterTransformation;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseCacheReset;
 import jetbrains.buildServer.nuget.server.feed.server.javaFeed.entity.PackageEntityAdapter;
 import jetbrains.buildServer.nuget.tests.integration.feed.server.MockExternalIdTransformation;
+import jetbrains.buildServer.serverSide.BuildServerListener;
 import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SFinishedBuild;
+import jetbrains.buildServer.serverSide.SProject;
 import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
 import jetbrains.buildServer.serverSide.auth.Permission;
 import jetbrains.buildServer.serverSide.auth.SecurityContext;
 import jetbrains.buildServer.serverSide.metadata.BuildMetadataEntry;
 import jetbrains.buildServer.serverSide.metadata.MetadataStorage;
 import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.EventDispatcher;
 import jetbrains.buildServer.util.TestFor;
 import org.jetbrains.annotations.NotNull;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.security.SecureRandom;
 import java.util.*;
@@ -59,8 +71,12 @@ public class PackageIndexTest extends BaseTestCase {
   private SecurityContext myContext;
   private AuthorityHolder myAuthorityHolder;
   private PackagesIndex myIndex;
+  private PackagesIndexCache myCache;
   private MetadataStorage myStorage;
+  private ResponseCacheReset myReset;
+  private EventDispatcher<BuildServerListener> myEvents;
   private List<BuildMetadataEntry> myEntries;
+  private List<PackageTransformation> myTransformations;
 
   @BeforeMethod
   @Override
@@ -71,19 +87,22 @@ public class PackageIndexTest extends BaseTestCase {
     myContext = m.mock(SecurityContext.class);
     myAuthorityHolder = m.mock(AuthorityHolder.class);
     myStorage = m.mock(MetadataStorage.class);
+    myReset = m.mock(ResponseCacheReset.class);
+    myEvents = EventDispatcher.create(BuildServerListener.class);
     final NuGetServerSettings serverSettings = m.mock(NuGetServerSettings.class);
     m.checking(new Expectations(){{
       allowing(serverSettings).getNuGetFeedControllerPath(); will(returnValue("foo"));
+      allowing(myReset);
     }});
-    myIndex = new PackagesIndexImpl(
-            myStorage,
-            Arrays.asList(
-                    new SamePackagesFilterTransformation(),
-                    new AccessCheckTransformation(myProjectManager, myContext),
-                    new IsPrereleaseTransformation(),
-                    new MockExternalIdTransformation(),
-                    new DownloadUrlComputationTransformation(serverSettings)
-            ));
+    myCache = new PackagesIndexCache(myStorage, EventDispatcher.create(BuildServerListener.class), myReset);
+    myTransformations = Arrays.<PackageTransformation>asList(
+            new SamePackagesFilterTransformation(),
+            new AccessCheckTransformation(myProjectManager, myContext, myEvents),
+            new IsPrereleaseTransformation(),
+            new MockExternalIdTransformation(),
+            new DownloadUrlComputationTransformation(serverSettings)
+    );
+    myIndex = new PackagesIndexImpl(myStorage, myCache, myTransformations);
 
     myEntries = new ArrayList<BuildMetadataEntry>();
 
@@ -124,6 +143,263 @@ public class PackageIndexTest extends BaseTestCase {
     assertPackages("Foo.1.2.44:L:A", "Foo.1.2.34");
   }
 
+  @Test
+  public void test_incremental_updates() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    assertPackages("Foo.1.2.34:L:A");
+
+    final Map<String, String> metadata = new HashMap<String, String>();
+    metadata.put("teamcity.buildTypeId", "btX");
+    metadata.put("teamcity.artifactPath", "btX/ZZZ");
+    metadata.put(VERSION, "1.2.44");
+    metadata.put(ID, "Foo");
+    myCache.addEntry(9, "Foo", metadata);
+    assertPackages("Foo.1.2.44:L:A", "Foo.1.2.34");
+
+    myCache.removeBuild(9);
+    assertPackages("Foo.1.2.34:L:A");
+  }
+
+  @Test
+  public void test_latest_entries() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.30", "btX", 6);
+    addEntry("Foo", "1.2.44-alpha", "btX", 9);
+    addEntry("Boo", "1.0", "btX", 5);
+    addEntry("Boo", "0.9-beta", "btX", 4);
+
+    assertPackages(myIndex.getLatestNuGetEntries(), "Foo.1.2.34:L", "Foo.1.2.44-alpha:A", "Boo.1.0:L:A");
+  }
+
+  @Test
+  public void test_entries_of_packages() {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.44-alpha", "btX", 9);
+    addEntry("Boo", "1.0", "btX", 5);
+    addEntry("Zoo", "2.0", "btX", 4);
+
+    assertPackages(myIndex.getNuGetEntries(Arrays.asList("Foo", "Boo", "Foo", "Missing")), "Foo.1.2.34:L", "Foo.1.2.44-alpha:A", "Boo.1.0:L:A");
+    assertPackages(myIndex.getNuGetEntries(Collections.<String>emptyList()));
+  }
+
+  @Test
+  public void test_snapshot_restore() throws Exception {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.44-alpha", "btX", 9);
+    addEntry("Boo", "1.0", "btY", 5, CollectionsUtil.asMap(DESCRIPTION, "Boo \u00e9t\u00e9 package"));
+
+    final File snapshot = createTempFile();
+    PackagesIndexSnapshot.write(snapshot, myCache.getAllEntries());
+
+    //entries must not be read from the storage once restored
+    final PackagesIndexCache restored = new PackagesIndexCache(m.mock(MetadataStorage.class, "emptyStorage"), EventDispatcher.create(BuildServerListener.class), myReset);
+    assertFalse(restored.isLoaded());
+    assertTrue(restored.startRestore());
+    assertTrue(restored.isLoading());
+    restored.restore(PackagesIndexSnapshot.read(snapshot).iterator());
+    assertTrue(restored.isLoaded());
+    assertFalse(restored.isLoading());
+    assertEquals(3, restored.getLoadedEntriesCount());
+    assertEquals(3, restored.getEntriesCount());
+    assertEquals(3, restored.getBuildsCount());
+    assertEquals(2, restored.getPackageIdsCount());
+
+    myCache = restored;
+    myIndex = new PackagesIndexImpl(myStorage, restored, myTransformations);
+    assertPackages("Foo.1.2.34:L", "Foo.1.2.44-alpha:A", "Boo.1.0:L:A");
+    assertEquals("Boo \u00e9t\u00e9 package", myIndex.search("boo").next().getAttribute(DESCRIPTION));
+  }
+
+  @Test
+  public void test_snapshot_restore_applies_changes_made_while_reading() throws Exception {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Boo", "1.0", "btY", 5);
+
+    final File snapshot = createTempFile();
+    PackagesIndexSnapshot.write(snapshot, myCache.getAllEntries());
+
+    final PackagesIndexCache restored = new PackagesIndexCache(m.mock(MetadataStorage.class, "emptyStorage"), EventDispatcher.create(BuildServerListener.class), myReset);
+    assertTrue(restored.startRestore());
+    restored.addEntry(9, "Foo", CollectionsUtil.asMap(ID, "Foo", VERSION, "1.2.44", "teamcity.buildTypeId", "btX", "teamcity.artifactPath", "btX/ZZZ"));
+    restored.removeBuild(5);
+    restored.restore(PackagesIndexSnapshot.read(snapshot).iterator());
+    assertEquals(2, restored.getLoadedEntriesCount());
+    assertEquals(2, restored.getEntriesCount());
+
+    myCache = restored;
+    myIndex = new PackagesIndexImpl(myStorage, restored, myTransformations);
+    assertPackages("Foo.1.2.34", "Foo.1.2.44:L:A");
+  }
+
+  @Test
+  public void test_snapshot_is_ignored_after_reset() throws Exception {
+    allowView();
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    final File snapshot = createTempFile();
+    PackagesIndexSnapshot.write(snapshot, myCache.getAllEntries());
+    addEntry("Boo", "1.0", "btY", 5);
+
+    final PackagesIndexCache restored = new PackagesIndexCache(myStorage, EventDispatcher.create(BuildServerListener.class), myReset);
+    assertTrue(restored.startRestore());
+    restored.reset();
+    assertFalse(restored.isLoading());
+    restored.restore(PackagesIndexSnapshot.read(snapshot).iterator());
+    assertFalse(restored.isLoaded());
+
+    //loaded from the storage instead
+    myCache = restored;
+    myIndex = new PackagesIndexImpl(myStorage, restored, myTransformations);
+    assertPackages("Foo.1.2.34:L:A", "Boo.1.0:L:A");
+  }
+
+  @Test
+  public void test_restored_snapshot_is_compared_with_storage() throws Exception {
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Boo", "1.0", "btY", 5);
+
+    final File snapshot = createTempFile();
+    PackagesIndexSnapshot.write(snapshot, myCache.getAllEntries());
+
+    final PackagesIndexCache restored = new PackagesIndexCache(myStorage, EventDispatcher.create(BuildServerListener.class), myReset);
+    assertFalse(restored.isUpToDate());
+    assertTrue(restored.startRestore());
+    assertTrue(restored.restore(PackagesIndexSnapshot.read(snapshot).iterator()));
+    assertTrue(restored.isUpToDate());
+
+    //e.g. a build finished after the snapshot was saved
+    addEntry("Foo", "1.2.44", "btX", 9);
+    assertFalse(restored.isUpToDate());
+    restored.rebuild();
+    assertTrue(restored.isUpToDate());
+    assertEquals(3, restored.getLoadedEntriesCount());
+  }
+
+  @Test
+  public void test_loaded_entries_count_follows_changes() {
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Boo", "1.0", "btY", 5);
+
+    myCache.warmUp();
+    assertEquals(2, myCache.getLoadedEntriesCount());
+    myCache.addEntry(9, "Foo", CollectionsUtil.asMap(ID, "Foo", VERSION, "1.2.44"));
+    assertEquals(3, myCache.getLoadedEntriesCount());
+    myCache.removeBuild(5);
+    assertEquals(2, myCache.getLoadedEntriesCount());
+    myCache.reset();
+    assertEquals(0, myCache.getLoadedEntriesCount());
+    assertFalse(myCache.isLoading());
+  }
+
+  @Test
+  public void test_responses_are_reset_after_index_update() {
+    final EventDispatcher<BuildServerListener> events = EventDispatcher.create(BuildServerListener.class);
+    final ResponseCacheReset reset = m.mock(ResponseCacheReset.class, "orderedReset");
+    final PackagesIndexCache cache = new PackagesIndexCache(myStorage, events, reset);
+    final SFinishedBuild build = m.mock(SFinishedBuild.class);
+    final List<Integer> entriesOnReset = new ArrayList<Integer>();
+    m.checking(new Expectations() {{
+      allowing(build).getBuildId(); will(returnValue(7L));
+      allowing(build).getBuildTypeId(); will(returnValue("btX"));
+      oneOf(reset).resetBuildType("btX"); will(recordEntriesCount(cache, entriesOnReset));
+      oneOf(reset).resetCache(); will(recordEntriesCount(cache, entriesOnReset));
+    }});
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Boo", "1.0", "btY", 5);
+    cache.warmUp();
+
+    events.getMulticaster().entryDeleted(build);
+    addEntry("Zoo", "2.0", "btZ", 9);
+    cache.rebuild();
+    m.assertIsSatisfied();
+    //responses are dropped after the index is updated
+    assertEquals(Arrays.asList(1, 3), entriesOnReset);
+  }
+
+  @Test
+  public void test_rebuild_serves_loaded_entries_until_replaced() {
+    final MetadataStorage storage = m.mock(MetadataStorage.class, "rebuildStorage");
+    final PackagesIndexCache cache = new PackagesIndexCache(storage, EventDispatcher.create(BuildServerListener.class), myReset);
+    final List<String> servedWhileLoading = new ArrayList<String>();
+    m.checking(new Expectations() {{
+      oneOf(storage).getAllEntries("nuget"); will(returnIterator(myEntries));
+      oneOf(storage).getAllEntries("nuget"); will(new CustomAction("read storage") {
+        public Object invoke(Invocation invocation) {
+          final Iterator<BuildMetadataEntry> it = cache.getEntries("Foo");
+          while (it.hasNext()) {
+            servedWhileLoading.add(it.next().getMetadata().get(VERSION));
+          }
+          return Collections.<BuildMetadataEntry>emptyList().iterator();
+        }
+      });
+    }});
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    cache.warmUp();
+    cache.rebuild();
+
+    assertEquals(Collections.singletonList("1.2.34"), servedWhileLoading);
+    assertTrue(cache.isLoaded());
+    assertFalse(cache.getEntries("Foo").hasNext());
+  }
+
+  @NotNull
+  private static CustomAction recordEntriesCount(@NotNull final PackagesIndexCache cache, @NotNull final List<Integer> counts) {
+    return new CustomAction("record index entries count") {
+      public Object invoke(Invocation invocation) {
+        counts.add(cache.getLoadedEntriesCount());
+        return null;
+      }
+    };
+  }
+
+  @Test
+  public void test_unparsable_versions_go_first() {
+    addEntry("Foo", "9.0", "btX", 1);
+    addEntry("Foo", "10.0", "btX", 2);
+    addEntry("Foo", "5x", "btX", 3);
+    addEntry("Foo", "1.0", "btX", 4);
+    addEntry("Foo", "abc", "btX", 5);
+
+    final List<String> versions = new ArrayList<String>();
+    final Iterator<BuildMetadataEntry> it = myCache.getEntries("Foo");
+    while (it.hasNext()) {
+      versions.add(it.next().getMetadata().get(VERSION));
+    }
+    assertEquals(Arrays.asList("5x", "abc", "1.0", "9.0", "10.0"), versions);
+
+    for (long buildId = 1; buildId <= 5; buildId++) {
+      myCache.removeBuild(buildId);
+    }
+    assertEquals(0, myCache.getLoadedEntriesCount());
+  }
+
+  @Test
+  public void test_latest_entries_access() {
+    m.checking(new Expectations() {{
+      allowing(myProjectManager).findProjectId("btX"); will(returnValue("proj1"));
+      allowing(myProjectManager).findProjectId("btY"); will(returnValue("proj2"));
+      allowing(myAuthorityHolder).isPermissionGrantedForProject("proj1", Permission.VIEW_PROJECT); will(returnValue(true));
+      allowing(myAuthorityHolder).isPermissionGrantedForProject("proj2", Permission.VIEW_PROJECT); will(returnValue(false));
+    }});
+
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.44", "btY", 9);
+
+    assertPackages(myIndex.getLatestNuGetEntries(), "Foo.1.2.34:L:A");
+  }
+
   @Test
   public void test_same_packages() {
     allowView();
@@ -134,7 +410,7 @@ public class PackageIndexTest extends BaseTestCase {
     final Iterator<NuGetIndexEntry> it = myIndex.getNuGetEntries();
     final NuGetIndexEntry next = it.next();
     Assert.assertFalse(it.hasNext());
-    Assert.assertEquals(next.getAttributes().get("teamcity.buildTypeId"), "btY");
+    Assert.assertEquals(next.getAttribute("teamcity.buildTypeId"), "btY");
   }
 
   @Test
@@ -161,6 +437,42 @@ public class PackageIndexTest extends BaseTestCase {
     Assert.assertFalse(myIndex.getNuGetEntries().hasNext());
   }
 
+  @Test
+  public void testCheckesProjectAccess_cached() {
+    m.checking(new Expectations() {{
+      oneOf(myProjectManager).findProjectId("btX");
+      will(returnValue("proj1"));
+      allowing(myAuthorityHolder).isPermissionGrantedForProject("proj1", Permission.VIEW_PROJECT);
+      will(returnValue(true));
+    }});
+    addEntry("Foo", "1.2.34", "btX", 7);
+    addEntry("Foo", "1.2.35", "btX", 8);
+    addEntry("Bar", "1.2.36", "btX", 9);
+
+    assertPackages("Bar.1.2.36:L:A", "Foo.1.2.34", "Foo.1.2.35:L:A");
+    assertPackages("Bar.1.2.36:L:A", "Foo.1.2.34", "Foo.1.2.35:L:A");
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void testCheckesProjectAccess_sharedBetweenRequests() {
+    final SBuildType buildType = m.mock(SBuildType.class);
+    final SProject project = m.mock(SProject.class);
+    m.checking(new Expectations() {{
+      allowing(buildType).getBuildTypeId(); will(returnValue("btX"));
+      allowing(myProjectManager).findProjectId("btX"); will(returnValue("proj1"));
+      exactly(2).of(myAuthorityHolder).isPermissionGrantedForProject("proj1", Permission.VIEW_PROJECT); will(returnValue(true));
+    }});
+    addEntry("Foo", "1.2.34", "btX", 7);
+
+    assertPackages("Foo.1.2.34:L:A");
+    assertPackages("Foo.1.2.34:L:A");
+
+    myEvents.getMulticaster().buildTypeMoved(buildType, project);
+    assertPackages("Foo.1.2.34:L:A");
+    m.assertIsSatisfied();
+  }
+
   @Test
   public void testCheckesProjectAccess_exception() {
     m.checking(new Expectations() {{
@@ -340,10 +652,35 @@ public class PackageIndexTest extends BaseTestCase {
     addEntry("title-not-matches", "10", "btX", 10, CollectionsUtil.asMap(TITLE, "boo"));
 
     assertTrue(myIndex.search("foo").hasNext());
+    assertPackages(myIndex.search("foo"), "foo.1:L:A", "description-matches.3:L:A", "tags-match.5:L:A", "authors-match.7:L:A", "title-matches.9:L:A");
 
     m.assertIsSatisfied();
   }
 
+  @Test
+  public void test_search_substrings() throws Exception {
+    allowView();
+
+    addEntry("Newtonsoft.Json", "1.0", "btX", 1, CollectionsUtil.asMap(DESCRIPTION, "Json.NET is a JSON framework for .NET"));
+    addEntry("Newtonsoft.Json", "2.0", "btX", 2, CollectionsUtil.asMap(DESCRIPTION, "Json.NET is a JSON framework for .NET"));
+    addEntry("NUnit", "2.6", "btX", 3, CollectionsUtil.asMap(TAGS, "test unit-testing TDD"));
+
+    assertPackages(myIndex.search("json"), "Newtonsoft.Json.1.0", "Newtonsoft.Json.2.0:L:A");
+    assertPackages(myIndex.search("NEWTON"), "Newtonsoft.Json.1.0", "Newtonsoft.Json.2.0:L:A");
+    assertPackages(myIndex.search("Newtonsoft.Json"), "Newtonsoft.Json.1.0", "Newtonsoft.Json.2.0:L:A");
+    assertPackages(myIndex.search("soft"), "Newtonsoft.Json.1.0", "Newtonsoft.Json.2.0:L:A");
+    assertPackages(myIndex.search("JSON framework"), "Newtonsoft.Json.1.0", "Newtonsoft.Json.2.0:L:A");
+    assertPackages(myIndex.search("unit-test"), "NUnit.2.6:L:A");
+    assertPackages(myIndex.search("nu"), "NUnit.2.6:L:A");
+    assertPackages(myIndex.search("unit tdd"));
+    assertPackages(myIndex.search("json tdd"));
+    assertPackages(myIndex.search(""), "Newtonsoft.Json.1.0", "Newtonsoft.Json.2.0:L:A", "NUnit.2.6:L:A");
+
+    myCache.removeBuild(2);
+    myCache.addEntry(4, "NUnit", CollectionsUtil.asMap(ID, "NUnit", VERSION, "3.0", "teamcity.buildTypeId", "btX", "teamcity.artifactPath", "btX/ZZZ", DESCRIPTION, "NUnit framework"));
+    assertPackages(myIndex.search("framework"), "Newtonsoft.Json.1.0:L:A", "NUnit.3.0:L:A");
+  }
+
   private void addEntry(final String packageId, final String packageVersion, final String buildTypeId, final long buildId){
     addEntry(packageId, packageVersion, buildTypeId, buildId, Maps.<String, String>newHashMap());
   }
@@ -386,8 +723,10 @@ public class PackageIndexTest extends BaseTestCase {
   }
 
   private void assertPackages(@NotNull String... idsEx) {
-    final Iterator<NuGetIndexEntry> it = myIndex.getNuGetEntries();
+    assertPackages(myIndex.getNuGetEntries(), idsEx);
+  }
 
+  private void assertPackages(@NotNull Iterator<NuGetIndexEntry> it, @NotNull String... idsEx) {
     final Set<String> packages = new TreeSet<String>();
     Collections.addAll(packages, idsEx);
 
@@ -461,7 +800,7 @@ public class PackageIndexTest extends BaseTestCase {
 
       @Override
       protected String getValue(@NotNull String key) {
-        return e.getAttributes().get(key);
+        return e.getAttribute(key);
       }
     };
   }
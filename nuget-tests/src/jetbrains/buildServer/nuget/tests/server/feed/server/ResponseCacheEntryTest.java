@@ -0,0 +1,193 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseCacheEntry;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks content negotiation and conditional requests of cached feed responses
+ */
+public class ResponseCacheEntryTest extends BaseTestCase {
+  private static final String CONTENT = "<feed>cached</feed>";
+  private static final String CONTENT_TYPE = "application/atom+xml;charset=utf-8";
+
+  private Mockery m;
+  private HttpServletRequest myRequest;
+  private HttpServletResponse myResponse;
+  private ByteArrayOutputStream myBody;
+  private byte[] myGZippedContent;
+  private String myETag;
+  private String myGZippedETag;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m = new Mockery();
+    myRequest = m.mock(HttpServletRequest.class);
+    myResponse = m.mock(HttpServletResponse.class);
+    myBody = new ByteArrayOutputStream();
+
+    final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    final GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+    gzip.write(CONTENT.getBytes("utf-8"));
+    gzip.close();
+    myGZippedContent = gzipped.toByteArray();
+    myETag = "\"" + DigestUtils.md5Hex(myGZippedContent) + "\"";
+    myGZippedETag = "\"" + DigestUtils.md5Hex(myGZippedContent) + "-gzip\"";
+
+    final ServletOutputStream stream = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        myBody.write(b);
+      }
+    };
+    m.checking(new Expectations(){{
+      allowing(myResponse).setHeader("Content-Type", CONTENT_TYPE);
+      allowing(myResponse).setHeader("Vary", "Accept-Encoding");
+      allowing(myResponse).getOutputStream(); will(returnValue(stream));
+    }});
+  }
+
+  @Test
+  public void test_gzip_is_served_when_accepted() throws Exception {
+    request("deflate, gzip", null);
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setHeader("ETag", myGZippedETag);
+      oneOf(myResponse).setStatus(HttpServletResponse.SC_OK);
+      oneOf(myResponse).setHeader("Content-Encoding", "gzip");
+      oneOf(myResponse).setContentLength(myGZippedContent.length);
+    }});
+
+    entry(HttpServletResponse.SC_OK).handleRequest(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.toByteArray(), myGZippedContent);
+  }
+
+  @Test
+  public void test_identity_is_served_without_accept_encoding() throws Exception {
+    request(null, null);
+    assertIdentityServed();
+  }
+
+  @Test
+  public void test_identity_is_served_for_gzip_with_zero_quality() throws Exception {
+    request("gzip;q=0, identity", null);
+    assertIdentityServed();
+  }
+
+  @Test
+  public void test_not_modified_for_matching_gzip_etag() throws Exception {
+    request("gzip", myGZippedETag);
+    assertNotModified(myGZippedETag);
+  }
+
+  @Test
+  public void test_not_modified_for_matching_identity_etag() throws Exception {
+    request(null, "\"other\", W/" + myETag);
+    assertNotModified(myETag);
+  }
+
+  @Test
+  public void test_gzip_etag_does_not_match_identity_content() throws Exception {
+    request(null, myGZippedETag);
+    assertIdentityServed();
+  }
+
+  @Test
+  public void test_identity_etag_does_not_match_gzip_content() throws Exception {
+    request("gzip", myETag);
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setHeader("ETag", myGZippedETag);
+      oneOf(myResponse).setStatus(HttpServletResponse.SC_OK);
+      oneOf(myResponse).setHeader("Content-Encoding", "gzip");
+      oneOf(myResponse).setContentLength(myGZippedContent.length);
+    }});
+
+    entry(HttpServletResponse.SC_OK).handleRequest(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.toByteArray(), myGZippedContent);
+  }
+
+  @Test
+  public void test_no_etag_for_error_response() throws Exception {
+    request(null, "*");
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setStatus(HttpServletResponse.SC_NOT_FOUND);
+    }});
+
+    entry(HttpServletResponse.SC_NOT_FOUND).handleRequest(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.toString("utf-8"), CONTENT);
+  }
+
+  private void assertIdentityServed() throws Exception {
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setHeader("ETag", myETag);
+      oneOf(myResponse).setStatus(HttpServletResponse.SC_OK);
+    }});
+
+    entry(HttpServletResponse.SC_OK).handleRequest(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.toString("utf-8"), CONTENT);
+  }
+
+  private void assertNotModified(@NotNull final String eTag) throws Exception {
+    m.checking(new Expectations(){{
+      oneOf(myResponse).setHeader("ETag", eTag);
+      oneOf(myResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }});
+
+    entry(HttpServletResponse.SC_OK).handleRequest(myRequest, myResponse);
+
+    m.assertIsSatisfied();
+    Assert.assertEquals(myBody.size(), 0);
+  }
+
+  private void request(@Nullable final String acceptEncoding, @Nullable final String ifNoneMatch) {
+    m.checking(new Expectations(){{
+      allowing(myRequest).getHeaders("Accept-Encoding");
+      will(returnValue(Collections.enumeration(acceptEncoding == null ? Collections.<String>emptyList() : Collections.singletonList(acceptEncoding))));
+      allowing(myRequest).getHeader("If-None-Match"); will(returnValue(ifNoneMatch));
+    }});
+  }
+
+  @NotNull
+  private ResponseCacheEntry entry(final int status) {
+    return new ResponseCacheEntry(Collections.singletonMap("Content-Type", CONTENT_TYPE), myGZippedContent, status);
+  }
+}
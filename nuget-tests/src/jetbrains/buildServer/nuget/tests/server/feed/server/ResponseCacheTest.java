@@ -0,0 +1,337 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseCache;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseDependencies;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.util.CollectionsUtil;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks computation, eviction and reset of cached feed responses.
+ * Requests and responses are plain stubs as they are used from several threads.
+ */
+public class ResponseCacheTest extends BaseTestCase {
+  private static final String CACHE_SIZE_PROPERTY = "teamcity.nuget.feed.cache.size.kb";
+  private static final String HITS = "Response cache hits";
+  private static final String MISSES = "Response cache misses";
+  private static final String EVICTIONS = "Response cache evictions";
+  private static final String ENTRIES = "Response cache entries";
+  private static final String SIZE = "Response cache size in bytes";
+  private static final String FIND_PACKAGES_BY_ID = "/app/nuget/FindPackagesById()";
+
+  private ResponseCache myCache;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCache = new ResponseCache(EventDispatcher.create(BuildServerListener.class)) {
+      @NotNull
+      @Override
+      protected String key(@NotNull HttpServletRequest request) {
+        return request.getRequestURI();
+      }
+    };
+  }
+
+  @Test
+  public void test_response_is_computed_once() throws Exception {
+    final CountingAction action = new CountingAction("data");
+
+    Assert.assertEquals(get("/a", action), "data");
+    Assert.assertEquals(get("/a", action), "data");
+
+    Assert.assertEquals(action.getCount(), 1);
+    Assert.assertEquals(stat(MISSES), 1);
+    Assert.assertEquals(stat(HITS), 1);
+    Assert.assertEquals(stat(ENTRIES), 1);
+  }
+
+  @Test
+  public void test_concurrent_misses_compute_once() throws Exception {
+    final int threads = 5;
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountingAction action = new CountingAction("data") {
+      @Override
+      protected void computing() throws Exception {
+        release.await();
+      }
+    };
+
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(new Callable<String>() {
+          public String call() throws Exception {
+            return get("/a", action);
+          }
+        }));
+      }
+
+      //all requests but the computing one wait for its result
+      final long deadline = System.currentTimeMillis() + 10000;
+      while (stat(HITS) < threads - 1) {
+        Assert.assertTrue(System.currentTimeMillis() < deadline, "requests are not waiting for the computation");
+        Thread.sleep(10);
+      }
+      release.countDown();
+
+      for (Future<String> result : results) {
+        Assert.assertEquals(result.get(10, TimeUnit.SECONDS), "data");
+      }
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+
+    Assert.assertEquals(action.getCount(), 1);
+    Assert.assertEquals(stat(MISSES), 1);
+  }
+
+  @Test
+  public void test_least_recently_used_responses_are_evicted() throws Exception {
+    System.setProperty(CACHE_SIZE_PROPERTY, "1");
+    try {
+      //random content is not compressed, so two responses fit 1 KB and three do not
+      final CountingAction a = new CountingAction(randomBytes(1, 400));
+      final CountingAction b = new CountingAction(randomBytes(2, 400));
+      final CountingAction c = new CountingAction(randomBytes(3, 400));
+
+      get("/a", a);
+      get("/b", b);
+      get("/a", a);
+      get("/c", c);
+
+      Assert.assertEquals(stat(EVICTIONS), 1);
+      Assert.assertEquals(stat(ENTRIES), 2);
+
+      get("/a", a);
+      get("/c", c);
+      Assert.assertEquals(a.getCount(), 1);
+      Assert.assertEquals(c.getCount(), 1);
+
+      get("/b", b);
+      Assert.assertEquals(b.getCount(), 2);
+    } finally {
+      System.clearProperty(CACHE_SIZE_PROPERTY);
+    }
+  }
+
+  @Test
+  public void test_eviction_frees_space_below_the_limit() throws Exception {
+    System.setProperty(CACHE_SIZE_PROPERTY, "1");
+    try {
+      //three responses fit 1 KB, the fourth one makes the cache evict down to 90% of it
+      for (int i = 0; i < 4; i++) {
+        get("/" + i, new CountingAction(randomBytes(i, 300)));
+      }
+
+      Assert.assertEquals(stat(EVICTIONS), 2);
+      Assert.assertEquals(stat(ENTRIES), 2);
+      Assert.assertTrue(stat(SIZE) <= 1024 * 9 / 10);
+    } finally {
+      System.clearProperty(CACHE_SIZE_PROPERTY);
+    }
+  }
+
+  @Test
+  public void test_response_computed_during_reset_is_not_cached() throws Exception {
+    final CountingAction action = new CountingAction("data") {
+      @Override
+      protected void computing() throws Exception {
+        myCache.resetCache();
+      }
+    };
+
+    Assert.assertEquals(get("/a", action), "data");
+    Assert.assertEquals(stat(ENTRIES), 0);
+
+    Assert.assertEquals(get("/a", action), "data");
+    Assert.assertEquals(action.getCount(), 2);
+  }
+
+  @Test
+  public void test_response_computed_during_unrelated_reset_is_cached() throws Exception {
+    final CountingAction action = new CountingAction("data") {
+      @Override
+      protected void computing() throws Exception {
+        ResponseDependencies.packageUsed("bt1");
+        myCache.resetPackage("Bar");
+        myCache.resetBuildType("bt2");
+      }
+    };
+
+    get(FIND_PACKAGES_BY_ID, CollectionsUtil.asMap("id", "'Foo'"), action);
+    get(FIND_PACKAGES_BY_ID, CollectionsUtil.asMap("id", "'Foo'"), action);
+
+    Assert.assertEquals(action.getCount(), 1);
+  }
+
+  @Test
+  public void test_response_computed_during_package_reset_is_not_cached() throws Exception {
+    final CountingAction action = new CountingAction("data") {
+      @Override
+      protected void computing() throws Exception {
+        myCache.resetPackage("foo");
+      }
+    };
+
+    get(FIND_PACKAGES_BY_ID, CollectionsUtil.asMap("id", "'Foo'"), action);
+    get(FIND_PACKAGES_BY_ID, CollectionsUtil.asMap("id", "'Foo'"), action);
+
+    Assert.assertEquals(action.getCount(), 2);
+  }
+
+  @Test
+  public void test_response_computed_during_build_type_reset_is_not_cached() throws Exception {
+    final CountingAction action = new CountingAction("data") {
+      @Override
+      protected void computing() throws Exception {
+        ResponseDependencies.packageUsed("bt1");
+        myCache.resetBuildType("bt1");
+      }
+    };
+
+    get(FIND_PACKAGES_BY_ID, CollectionsUtil.asMap("id", "'Foo'"), action);
+    get(FIND_PACKAGES_BY_ID, CollectionsUtil.asMap("id", "'Foo'"), action);
+
+    Assert.assertEquals(action.getCount(), 2);
+  }
+
+  @Test
+  public void test_reset_drops_cached_responses() throws Exception {
+    final CountingAction action = new CountingAction("data");
+
+    get("/a", action);
+    myCache.resetCache();
+    get("/a", action);
+
+    Assert.assertEquals(action.getCount(), 2);
+    Assert.assertEquals(stat(ENTRIES), 1);
+  }
+
+  private long stat(@NotNull final String name) {
+    return myCache.getStatistics().get(name);
+  }
+
+  @NotNull
+  private String get(@NotNull final String uri, @NotNull final ResponseCache.ComputeAction action) throws Exception {
+    return get(uri, Collections.<String, String>emptyMap(), action);
+  }
+
+  @NotNull
+  private String get(@NotNull final String uri,
+                     @NotNull final Map<String, String> params,
+                     @NotNull final ResponseCache.ComputeAction action) throws Exception {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    myCache.getOrCompute(request(uri, params), response(body), action);
+    return body.toString("utf-8");
+  }
+
+  @NotNull
+  private static byte[] randomBytes(final long seed, final int size) {
+    final byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  @NotNull
+  private static HttpServletRequest request(@NotNull final String uri, @NotNull final Map<String, String> params) {
+    return stub(HttpServletRequest.class, new InvocationHandler() {
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        final String name = method.getName();
+        if (name.equals("getRequestURI")) return uri;
+        if (name.equals("getParameter")) return params.get((String) args[0]);
+        if (name.equals("getHeaders")) return Collections.enumeration(Collections.<String>emptyList());
+        return null;
+      }
+    });
+  }
+
+  @NotNull
+  private static HttpServletResponse response(@NotNull final ByteArrayOutputStream body) {
+    final ServletOutputStream stream = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+    };
+    return stub(HttpServletResponse.class, new InvocationHandler() {
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("getOutputStream")) return stream;
+        return null;
+      }
+    });
+  }
+
+  @NotNull
+  private static <T> T stub(@NotNull final Class<T> clazz, @NotNull final InvocationHandler handler) {
+    return clazz.cast(Proxy.newProxyInstance(ResponseCacheTest.class.getClassLoader(), new Class[]{clazz}, handler));
+  }
+
+  private static class CountingAction implements ResponseCache.ComputeAction {
+    private final AtomicInteger myCount = new AtomicInteger();
+    private final byte[] myContent;
+
+    private CountingAction(@NotNull final String content) throws Exception {
+      this(content.getBytes("utf-8"));
+    }
+
+    private CountingAction(@NotNull final byte[] content) {
+      myContent = content;
+    }
+
+    public int getCount() {
+      return myCount.get();
+    }
+
+    /**
+     * Called by the computation before the response is written
+     */
+    protected void computing() throws Exception {
+    }
+
+    public void compute(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+      myCount.incrementAndGet();
+      computing();
+      response.getOutputStream().write(myContent);
+    }
+  }
+}
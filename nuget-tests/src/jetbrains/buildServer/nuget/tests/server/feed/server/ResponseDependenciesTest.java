@@ -0,0 +1,103 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jetbrains.buildServer.nuget.tests.server.feed.server;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.nuget.server.feed.server.javaFeed.cache.ResponseDependencies;
+import jetbrains.buildServer.util.CollectionsUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+
+/**
+ * Checks what cached feed responses are invalidated by
+ */
+public class ResponseDependenciesTest extends BaseTestCase {
+  private Mockery m;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    m = new Mockery();
+  }
+
+  @Test
+  public void testFindPackagesById() {
+    final ResponseDependencies deps = compute("/app/nuget/FindPackagesById()", CollectionsUtil.asMap("id", "'MyPackage'"), "bt1");
+
+    Assert.assertTrue(deps.dependsOnPackage("MyPackage"));
+    Assert.assertTrue(deps.dependsOnPackage("mypackage"));
+    Assert.assertFalse(deps.dependsOnPackage("OtherPackage"));
+    Assert.assertTrue(deps.dependsOnBuildType("bt1"));
+    Assert.assertFalse(deps.dependsOnBuildType("bt2"));
+  }
+
+  @Test
+  public void testGetUpdates() {
+    final ResponseDependencies deps = compute("/app/nuget/GetUpdates()", CollectionsUtil.asMap("packageIds", "'A|B'"));
+
+    Assert.assertTrue(deps.dependsOnPackage("A"));
+    Assert.assertTrue(deps.dependsOnPackage("B"));
+    Assert.assertFalse(deps.dependsOnPackage("C"));
+  }
+
+  @Test
+  public void testPackageEntity() {
+    final ResponseDependencies deps = compute("/app/nuget/Packages(Id=%27Foo%27,Version=%271.0%27)", null);
+
+    Assert.assertTrue(deps.dependsOnPackage("Foo"));
+    Assert.assertFalse(deps.dependsOnPackage("Bar"));
+  }
+
+  @Test
+  public void testSearchDependsOnEverything() {
+    final ResponseDependencies deps = compute("/app/nuget/Search()", CollectionsUtil.asMap("searchTerm", "'foo'"), "bt1");
+
+    Assert.assertTrue(deps.dependsOnPackage("Bar"));
+    Assert.assertTrue(deps.dependsOnBuildType("bt2"));
+  }
+
+  @NotNull
+  private ResponseDependencies compute(@NotNull final String uri,
+                                       @Nullable final Map<String, String> params,
+                                       @NotNull final String... buildTypes) {
+    final HttpServletRequest request = m.mock(HttpServletRequest.class);
+    m.checking(new Expectations(){{
+      allowing(request).getRequestURI(); will(returnValue(uri));
+      if (params != null) {
+        for (Map.Entry<String, String> e : params.entrySet()) {
+          allowing(request).getParameter(e.getKey()); will(returnValue(e.getValue()));
+        }
+      }
+      allowing(request).getParameter(with(any(String.class))); will(returnValue(null));
+    }});
+
+    ResponseDependencies.start();
+    for (String buildType : buildTypes) {
+      ResponseDependencies.packageUsed(buildType);
+    }
+    return ResponseDependencies.finish(request);
+  }
+}
@@ -273,6 +273,26 @@ public class PackageChangesManagerTest extends BaseTestCase implements TimeServi
     Assert.assertEquals(myManager.getItemsToCheckNow().size(), 3);
   }
 
+  @Test
+  public void test_check_order_follows_check_times() {
+    checkAll(reqP("late", 60000), reqP("early", 20000));
+
+    advanceTime(20001);
+    Collection<PackageCheckEntry> items = myManager.getItemsToCheckNow();
+    Assert.assertEquals(items.size(), 1);
+    final PackageCheckEntry early = items.iterator().next();
+    Assert.assertEquals(early.getPackage().getPackageId(), "early");
+    setResult(early);
+    Assert.assertTrue(myManager.getItemsToCheckNow().isEmpty());
+
+    //shorter check interval of the same package makes it due earlier
+    myManager.checkPackage(reqP("late", 1));
+    advanceTime(2);
+    items = myManager.getItemsToCheckNow();
+    Assert.assertEquals(items.size(), 1);
+    Assert.assertEquals(items.iterator().next().getPackage().getPackageId(), "late");
+  }
+
 
   private void checkAll(PackageCheckRequest... req) {
     for (PackageCheckRequest r : req) {
@@ -287,6 +307,12 @@ public class PackageChangesManagerTest extends BaseTestCase implements TimeServi
     return id;
   }
 
+  private PackageCheckRequest reqP(String packageId, long checkInterval) {
+    final PackageCheckRequest id = myFactory.createRequest(createMode("a"), new SourcePackageReference(null, packageId, null));
+    id.setCheckInterval(checkInterval);
+    return id;
+  }
+
   private PackageCheckRequest reqS(String mode, @Nullable String source) {
     final PackageCheckRequest id = myFactory.createRequest(createMode(mode), new SourcePackageReference(source, "id", null));
     id.setCheckInterval(1);
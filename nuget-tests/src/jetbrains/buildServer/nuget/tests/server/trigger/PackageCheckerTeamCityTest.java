@@ -16,8 +16,12 @@
 
 package jetbrains.buildServer.nuget.tests.server.trigger;
 
+import jetbrains.buildServer.nuget.common.PackageInfo;
+import jetbrains.buildServer.nuget.server.exec.SourcePackageInfo;
 import jetbrains.buildServer.nuget.server.exec.SourcePackageReference;
 import jetbrains.buildServer.nuget.server.feed.FeedCredentials;
+import jetbrains.buildServer.nuget.server.feed.reader.FeedPackage;
+import jetbrains.buildServer.nuget.server.trigger.impl.CheckResult;
 import jetbrains.buildServer.nuget.server.trigger.impl.CheckablePackage;
 import jetbrains.buildServer.nuget.server.trigger.impl.PackageCheckRequest;
 import jetbrains.buildServer.nuget.server.trigger.impl.checker.PackageCheckerTeamCity;
@@ -26,8 +30,7 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.*;
 
 /**
  * @author Eugene Petrenko (eugene.petrenko@gmail.com)
@@ -132,6 +135,64 @@ public class PackageCheckerTeamCityTest extends PackageCheckerTestBase<PackageCh
     m.assertIsSatisfied();
   }
 
+  @Test
+  public void test_http_batch() throws IOException {
+    final CheckablePackage foo = httpTask("http://foo.bar", "foo");
+    final CheckablePackage bar = httpTask("http://foo.bar", "bar");
+    final CheckablePackage other = httpTask("http://other.feed", "foo");
+
+    final Map<String, Collection<FeedPackage>> packages = new HashMap<String, Collection<FeedPackage>>();
+    packages.put("foo", Arrays.asList(new FeedPackage("atom", new PackageInfo("foo", "1.0"), true, "desc", "http://foo.bar/foo")));
+    packages.put("bar", Collections.<FeedPackage>emptyList());
+
+    m.checking(new Expectations(){{
+      oneOf(foo).setResult(with(equal(CheckResult.fromResult(Arrays.asList(new SourcePackageInfo("http://foo.bar", "foo", "1.0"))))));
+      oneOf(bar).setResult(with(empty()));
+      oneOf(other).setResult(with(empty()));
+
+      oneOf(myReader).queryPackageVersions(myFeed, "http://foo.bar", new LinkedHashSet<String>(Arrays.asList("foo", "bar")));
+      will(returnValue(packages));
+      oneOf(myReader).queryPackageVersions(myFeed, "http://other.feed", "foo"); will(returnValue(Collections.emptyList()));
+    }});
+
+    myChecker.update(myExecutor, Arrays.asList(foo, bar, other));
+
+    m.assertIsSatisfied();
+  }
+
+  @Test
+  public void test_http_batch_failed() throws IOException {
+    final CheckablePackage foo = httpTask("http://foo.bar", "foo");
+    final CheckablePackage bad = httpTask("http://foo.bar", "it's");
+
+    m.checking(new Expectations(){{
+      oneOf(foo).setResult(with(equal(CheckResult.fromResult(Arrays.asList(new SourcePackageInfo("http://foo.bar", "foo", "1.0"))))));
+      oneOf(bad).setResult(with(failed("it's", "Bad Request")));
+
+      oneOf(myReader).queryPackageVersions(myFeed, "http://foo.bar", new LinkedHashSet<String>(Arrays.asList("foo", "it's")));
+      will(throwException(new IOException("Bad Request")));
+      oneOf(myReader).queryPackageVersions(myFeed, "http://foo.bar", "foo");
+      will(returnValue(Arrays.asList(new FeedPackage("atom", new PackageInfo("foo", "1.0"), true, "desc", "http://foo.bar/foo"))));
+      oneOf(myReader).queryPackageVersions(myFeed, "http://foo.bar", "it's");
+      will(throwException(new IOException("Bad Request")));
+    }});
+
+    myChecker.update(myExecutor, Arrays.asList(foo, bad));
+
+    m.assertIsSatisfied();
+  }
+
+  private CheckablePackage httpTask(final String source, final String packageId) {
+    final SourcePackageReference ref = new SourcePackageReference(source, packageId, null);
+    final CheckablePackage task = m.mock(CheckablePackage.class, source + "/" + packageId);
+    m.checking(new Expectations(){{
+      allowing(task).getPackage(); will(returnValue(ref));
+      allowing(task).getMode(); will(returnValue(javaMode()));
+      oneOf(task).setExecuting();
+    }});
+    return task;
+  }
+
   @Test
   @TestFor(issues = "TW-20764")
   public void test_http_auth_supported() throws Throwable {